@@ -0,0 +1,100 @@
+package riot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import riot.archive.ArchiveReader;
+import riot.archive.ArchiveWriter;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a tenth of the lux readings by time, from the entry and lux
+ * tables and from an archive of the same readings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ArchiveBenchmark {
+
+    static final int ROWS = 1000000;
+    static final String RANGE_QUERY = "SELECT real_date, dev_id, lux " +
+            "FROM lux INNER JOIN entry ON lux.id = entry.id " +
+            "WHERE real_date BETWEEN ? AND ?;";
+
+    @Param({"sqlite", "archive"})
+    String mSource;
+
+    Connection mConnection;
+    File mArchive;
+    ArchiveReader mReader;
+    long mFrom = ROWS / 2;
+    long mTo = ROWS / 2 + ROWS / 10;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (mSource.equals("sqlite")) {
+            mConnection = BenchmarkDatabase.create();
+            BenchmarkDatabase.fill(mConnection, ROWS);
+            // As the partitions have.
+            mConnection.createStatement().executeUpdate(
+                    "CREATE INDEX entry_time_index ON entry(real_date);");
+        } else {
+            mArchive = File.createTempFile("riot-bench", ".rca");
+            mArchive.deleteOnExit();
+            // The same readings as BenchmarkDatabase.fill.
+            float[] values = new float[1];
+            try (ArchiveWriter writer = new ArchiveWriter(mArchive)) {
+                for (int id = 1; id <= ROWS; id++) {
+                    values[0] = id * 0.5f;
+                    writer.write("lux", "bench", id, values);
+                }
+            }
+            mReader = new ArchiveReader(mArchive);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (mConnection != null) {
+            mConnection.close();
+        }
+        if (mReader != null) {
+            mReader.close();
+        }
+    }
+
+    @Benchmark
+    public double scanRange() throws Exception {
+        double sum = 0;
+        if (mReader != null) {
+            ArchiveReader.Cursor cursor = mReader.scan("lux", mFrom, mTo);
+            while (cursor.next()) {
+                sum += cursor.getValue(0) + cursor.getTimestamp() + cursor.getDeviceID().length();
+            }
+            return sum;
+        }
+
+        try (PreparedStatement query = mConnection.prepareStatement(RANGE_QUERY)) {
+            query.setLong(1, mFrom);
+            query.setLong(2, mTo);
+            try (ResultSet results = query.executeQuery()) {
+                while (results.next()) {
+                    sum += results.getFloat(3) + results.getLong(1) + results.getString(2).length();
+                }
+            }
+        }
+        return sum;
+    }
+}
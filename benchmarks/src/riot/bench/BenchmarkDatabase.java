@@ -0,0 +1,58 @@
+package riot.bench;
+
+import riot.database.RIOTDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Temporary RIOT databases for benchmarks.
+ */
+public class BenchmarkDatabase {
+
+    /**
+     * Creates an empty RIOT database in a temporary file which is deleted
+     * when the JVM exits.
+     *
+     * @return a connection with the tables created
+     */
+    public static Connection create() throws IOException, SQLException {
+        File file = File.createTempFile("riot-bench", ".db");
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+
+        Connection connection = RIOTDatabase.getNewConnection(file.getPath());
+        RIOTDatabase.createTables(connection);
+        RIOTDatabase.registerDevice(connection, "bench");
+        return connection;
+    }
+
+    /**
+     * Fills the entry and lux tables with readings numbered from 1.
+     */
+    public static void fill(Connection connection, int rows) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement entry = connection.prepareStatement("INSERT INTO entry VALUES (?, ?, ?, ?)");
+             PreparedStatement lux = connection.prepareStatement("INSERT INTO lux VALUES (?, ?)")) {
+            for (int id = 1; id <= rows; id++) {
+                entry.setLong(1, id);
+                entry.setLong(2, id);
+                entry.setString(3, "bench");
+                entry.setInt(4, id);
+                entry.addBatch();
+                lux.setFloat(1, id * 0.5f);
+                lux.setInt(2, id);
+                lux.addBatch();
+            }
+            entry.executeBatch();
+            lux.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
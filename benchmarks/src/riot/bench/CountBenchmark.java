@@ -0,0 +1,47 @@
+package riot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting the rows of a table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CountBenchmark {
+
+    @Param({"1000", "100000"})
+    int mRows;
+
+    Connection mConnection;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mConnection = BenchmarkDatabase.create();
+        BenchmarkDatabase.fill(mConnection, mRows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    @Benchmark
+    public int getCount() throws SQLException {
+        return RIOTDatabase.getCount(mConnection, "lux");
+    }
+}
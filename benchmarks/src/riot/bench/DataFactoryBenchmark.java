@@ -0,0 +1,28 @@
+package riot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import riot.data.Data;
+import riot.data.DataFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing text packets on the server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataFactoryBenchmark {
+
+    String mPacket = "lux pi-zero-072a 1234.5 421337 1492000000";
+
+    @Benchmark
+    public Data parseLux() {
+        return DataFactory.getData(mPacket);
+    }
+}
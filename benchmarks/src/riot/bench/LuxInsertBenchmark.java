@@ -0,0 +1,72 @@
+package riot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import riot.data.LuxData;
+import riot.database.BatchInserter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing readings on the server, one transaction per reading compared with
+ * the batched path used by the ingestion writer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LuxInsertBenchmark {
+
+    static final int BATCH_SIZE = 500;
+
+    Connection mConnection;
+    BatchInserter mInserter;
+    int mNextID = 1;
+    int mSequence = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mConnection = BenchmarkDatabase.create();
+        mInserter = new BatchInserter(mConnection);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mInserter.close();
+        mConnection.close();
+    }
+
+    @Benchmark
+    public boolean insertIntoDatabase() {
+        return new LuxData("bench", 1234.5f, mSequence++, 1492000000L)
+                .insertIntoDatabase(mConnection);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertBatch() throws Exception {
+        mConnection.setAutoCommit(false);
+        PreparedStatement entry = mInserter.getStatement("INSERT INTO entry VALUES (?, ?, ?, ?)");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int id = mNextID++;
+            entry.setLong(1, 1492000000L);
+            entry.setLong(2, 1492000000L);
+            entry.setString(3, "bench");
+            entry.setInt(4, id);
+            entry.addBatch();
+            new LuxData("bench", 1234.5f, mSequence++, 1492000000L).addToBatch(mInserter, id);
+        }
+        mInserter.executeBatches();
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+    }
+}
@@ -0,0 +1,79 @@
+package riot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import riot.client.MappedOutbox;
+import riot.client.Outbox;
+import riot.client.OutboxRecord;
+import riot.client.SQLiteOutbox;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The store-and-forward cycle of each outbox: appending a batch of readings,
+ * flushing, reading them back, acknowledging them and compacting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutboxBenchmark {
+
+    static final int BATCH_SIZE = 500;
+
+    @Param({"sqlite", "mapped"})
+    String mBackend;
+
+    Outbox mOutbox;
+    File mDirectory;
+    final ArrayList<OutboxRecord> mPage = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (mBackend.equals("mapped")) {
+            mDirectory = Files.createTempDirectory("riot-bench").toFile();
+            mOutbox = new MappedOutbox(mDirectory, 16384);
+        } else {
+            mOutbox = new SQLiteOutbox(BenchmarkDatabase.create());
+        }
+        mOutbox.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mOutbox.close();
+        if (mDirectory != null) {
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mDirectory.delete();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void appendAndDrain() throws Exception {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mOutbox.append("bench", 1234.5f, 1492000000L + i);
+        }
+        mOutbox.flush();
+
+        mOutbox.readPage(mOutbox.getWatermark(), BATCH_SIZE, mPage);
+        mOutbox.setWatermark(mPage.get(mPage.size() - 1).mId);
+        mOutbox.compact();
+    }
+}
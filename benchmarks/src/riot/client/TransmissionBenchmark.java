@@ -0,0 +1,263 @@
+package riot.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import riot.network.Acknowledgement;
+import riot.network.BinaryRecordDecoder;
+import riot.network.MalformedFrameException;
+import riot.network.WireFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending a backlog from the outbox to a loopback server which acknowledges
+ * every row as soon as it is read, so the measurement covers the client's
+ * formatting, batching and acknowledgement handling rather than storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransmissionBenchmark {
+
+    static final int ROWS = 10000;
+
+    @Param({"1", "100"})
+    int mBatchSize;
+
+    @Param({"1", "8"})
+    int mWindowSize;
+
+    @Param({"text", "binary", "deflate"})
+    String mFormat;
+
+    MemoryOutbox mOutbox;
+    DataTransmissionClient mClient;
+    ServerConnection mConnection;
+    ServerSocket mServerSocket;
+    Thread mServerThread;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mServerThread = new Thread(new AcknowledgingServer(mServerSocket));
+        mServerThread.setDaemon(true);
+        mServerThread.start();
+
+        mOutbox = new MemoryOutbox();
+        mClient = new DataTransmissionClient(mOutbox);
+        mClient.setBatching(mBatchSize, mWindowSize);
+
+        // The connection is kept open across invocations, as the client does.
+        mConnection = new ServerConnection(mServerSocket.getInetAddress().getHostAddress(),
+                mServerSocket.getLocalPort());
+        mConnection.setOfferBinary(!WireFormat.TEXT.equals(mFormat));
+        mConnection.setOfferCompression(WireFormat.DEFLATE.equals(mFormat));
+        mConnection.connect();
+    }
+
+    @Setup(Level.Invocation)
+    public void fillOutbox() {
+        mOutbox.fill(ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mConnection.close();
+        mServerSocket.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public boolean transmit() throws Exception {
+        ArrayList<OutboxRecord> page = new ArrayList<>();
+        mOutbox.readPage(mOutbox.getWatermark(), mClient.mPageSize, page);
+        return mClient.transmit(mConnection, page);
+    }
+
+    /**
+     * An outbox held in memory.  Rows are numbered from 1 on every fill.
+     */
+    static class MemoryOutbox implements Outbox {
+        final ArrayList<OutboxRecord> mRecords = new ArrayList<>();
+        int mWatermark = 0;
+
+        void fill(int rows) {
+            mRecords.clear();
+            for (int id = 1; id <= rows; id++) {
+                mRecords.add(new OutboxRecord(id, "pi-zero-" + (id % 4), id * 0.5f, 1492000000L + id));
+            }
+            mWatermark = 0;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public int append(String deviceID, float value, long timestamp) {
+            int id = mRecords.size() + 1;
+            mRecords.add(new OutboxRecord(id, deviceID, value, timestamp));
+            return id;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void readPage(int afterId, int limit, List<OutboxRecord> page) {
+            page.clear();
+            // Row ids are their index plus one.
+            for (int i = afterId; i < mRecords.size() && page.size() < limit; i++) {
+                page.add(mRecords.get(i));
+            }
+        }
+
+        @Override
+        public int getWatermark() {
+            return mWatermark;
+        }
+
+        @Override
+        public long getEpoch() {
+            return 1;
+        }
+
+        @Override
+        public void setWatermark(int watermark) {
+            mWatermark = watermark;
+        }
+
+        @Override
+        public void setCompactionLimit(int id) {
+        }
+
+        @Override
+        public void compact() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Accepts connections one at a time, answers the format offer and
+     * acknowledges each row with a cumulative acknowledgement.
+     */
+    static class AcknowledgingServer implements Runnable {
+        final ServerSocket mServerSocket;
+
+        AcknowledgingServer(ServerSocket serverSocket) {
+            mServerSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try (Socket socket = mServerSocket.accept()) {
+                    socket.setTcpNoDelay(true);
+                    serve(socket.getInputStream(), socket.getOutputStream());
+                } catch (IOException | MalformedFrameException ex) {
+                    // The client closed the connection.
+                }
+            }
+        }
+
+        void serve(InputStream in, OutputStream out) throws IOException, MalformedFrameException {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            String hello = readLine(in, buffer);
+            if (hello == null) {
+                return;
+            }
+
+            String format = WireFormat.TEXT;
+            String line = hello;
+            if (hello.startsWith(WireFormat.HELLO)) {
+                format = WireFormat.negotiate(hello, WireFormat.DEFLATE, WireFormat.BINARY, WireFormat.TEXT);
+                reply(out, WireFormat.FORMAT + " " + format);
+                line = null;
+            }
+
+            if (!WireFormat.TEXT.equals(format)) {
+                BinaryRecordDecoder decoder = new BinaryRecordDecoder();
+                if (WireFormat.DEFLATE.equals(format)) {
+                    decoder.enableCompression();
+                }
+                BinaryRecordDecoder.Record record = decoder.getRecord();
+                while (true) {
+                    buffer.flip();
+                    while (decoder.next(buffer)) {
+                        reply(out, new Acknowledgement(record.mDeviceID, record.mSequence, new int[0]).toString());
+                    }
+                    buffer.compact();
+                    int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                    if (read < 0) {
+                        return;
+                    }
+                    buffer.position(buffer.position() + read);
+                }
+            }
+
+            while (true) {
+                if (line == null) {
+                    line = readLine(in, buffer);
+                    if (line == null) {
+                        return;
+                    }
+                }
+                // lux <device id> <value> <sequence> <timestamp>
+                String[] split = line.split(" ");
+                reply(out, new Acknowledgement(split[1], Integer.parseInt(split[3]), new int[0]).toString());
+                line = null;
+            }
+        }
+
+        /**
+         * Reads a line through the buffer so bytes after it are kept for the
+         * binary decoder.
+         */
+        static String readLine(InputStream in, ByteBuffer buffer) throws IOException {
+            while (true) {
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        String line = new String(buffer.array(), 0, i, StandardCharsets.UTF_8);
+                        buffer.flip();
+                        buffer.position(i + 1);
+                        buffer.compact();
+                        return line;
+                    }
+                }
+                int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    return null;
+                }
+                buffer.position(buffer.position() + read);
+            }
+        }
+
+        static void reply(OutputStream out, String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+}
@@ -1,9 +1,16 @@
 import riot.database.RIOTDatabase;
+import riot.server.ArchiveExporter;
 import riot.server.DataReceptionServer;
+import riot.server.PartitionRouter;
+import riot.stats.PipelineStats;
+import riot.util.Log;
 
+import javax.management.JMException;
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main program which will run on the Rugged Laptop. Rugged Laptop runs a Windows
@@ -11,6 +18,8 @@ import java.sql.SQLException;
  * Created by marianne on 8/04/17.
  */
 public class RuggedLaptop {
+    static final String TAG = "RuggedLaptop";
+
     static DataReceptionServer serverThread;
 
     public static void main(String[] args) {
@@ -18,12 +27,27 @@ public class RuggedLaptop {
             // SETUP
             serverThread = new DataReceptionServer(65060,
                     RIOTDatabase.getNewConnection());
+            // A table per day; a week of raw readings, then hourly aggregates.
+            // Each finished day is also archived for analysis.
+            PartitionRouter router = new PartitionRouter(24 * 60 * 60, 7, 60 * 60);
+            router.setArchiveDirectory(new File("archive"));
+            serverThread.setPartitionRouter(router);
 
             // RUN
             new Thread(serverThread).start();
+            new Thread(new ArchiveExporter(router, RIOTDatabase.getNewConnection(),
+                    10, TimeUnit.MINUTES), "ArchiveExporter").start();
+
+            // STATISTICS
+            PipelineStats.get().startReporting(1, TimeUnit.MINUTES);
+            try {
+                PipelineStats.get().registerMBean();
+            } catch (JMException ex) {
+                Log.w(TAG, "Could not register statistics with JMX: %s", ex.getMessage());
+            }
 
         } catch (IOException | SQLException ex) {
-            ex.printStackTrace();
+            Log.e(TAG, "Could not start the server.", ex);
         }
     }
 }
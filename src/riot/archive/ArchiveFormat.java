@@ -0,0 +1,158 @@
+package riot.archive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of archive files and the encodings of their columns.
+ * <p>
+ * An archive starts with {@link #MAGIC} and is followed by blocks, each
+ * holding up to a fixed number of readings of one sensor type.  Within a
+ * block the readings are stored column by column:
+ * <ul>
+ * <li>Timestamps as the first timestamp, then the change in the gap
+ * between readings, which is usually zero for a sensor sampled at a steady
+ * rate and takes one bit.</li>
+ * <li>Device ids as indices into the archive's device dictionary, using the
+ * fewest bits that hold the largest index in the block.</li>
+ * <li>Each value column as the XOR of each value with the previous one.
+ * Slowly changing readings share their sign, exponent and high mantissa
+ * bits, so only the bits that differ are written.</li>
+ * </ul>
+ * After the blocks comes the footer: the device dictionary, then an index
+ * entry for every block with its type, position, size and the minimum and
+ * maximum of its timestamps and of each column, so a reader can skip blocks
+ * outside a range without decoding them.  The file ends with the position
+ * of the footer and {@link #MAGIC} again, so a file that was not finished
+ * is recognised.
+ */
+public final class ArchiveFormat {
+
+    public static final byte[] MAGIC = "RIOTARC1".getBytes(StandardCharsets.US_ASCII);
+
+    public static final String FILE_SUFFIX = ".rca";
+
+    /**
+     * The most readings in a block.  Readers decode a whole block at a time,
+     * so this bounds their memory use.
+     */
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+
+    private ArchiveFormat() {
+    }
+
+    static void writeTimestamps(BitOutput out, long[] timestamps, int count) {
+        out.write(timestamps[0], 64);
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+
+            if (deltaOfDelta == 0) {
+                out.write(0b0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+        }
+    }
+
+    static void readTimestamps(BitInput in, long[] timestamps, int count) throws IOException {
+        timestamps[0] = in.read(64);
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.readBit()) {
+                if (!in.readBit()) {
+                    delta += in.read(7) - 63;
+                } else if (!in.readBit()) {
+                    delta += in.read(9) - 255;
+                } else if (!in.readBit()) {
+                    delta += in.read(12) - 2047;
+                } else {
+                    delta += in.read(64);
+                }
+            }
+            timestamps[i] = timestamps[i - 1] + delta;
+        }
+    }
+
+    static void writeIndices(BitOutput out, int[] indices, int count) {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, indices[i]);
+        }
+        int width = 32 - Integer.numberOfLeadingZeros(max);
+        out.write(width, 5);
+        for (int i = 0; i < count; i++) {
+            out.write(indices[i], width);
+        }
+    }
+
+    static void readIndices(BitInput in, int[] indices, int count) throws IOException {
+        int width = (int) in.read(5);
+        for (int i = 0; i < count; i++) {
+            indices[i] = (int) in.read(width);
+        }
+    }
+
+    static void writeFloats(BitOutput out, float[] values, int count) {
+        int previous = Float.floatToRawIntBits(values[0]);
+        out.write(previous, 32);
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            int bits = Float.floatToRawIntBits(values[i]);
+            int xor = bits ^ previous;
+            previous = bits;
+
+            if (xor == 0) {
+                out.write(0b0, 1);
+                continue;
+            }
+            out.write(0b1, 1);
+            int newLeading = Integer.numberOfLeadingZeros(xor);
+            int newTrailing = Integer.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                // The changed bits fit in the previous window.
+                out.write(0b0, 1);
+                out.write(xor >>> trailing, 32 - leading - trailing);
+            } else {
+                leading = newLeading;
+                trailing = newTrailing;
+                int length = 32 - leading - trailing;
+                out.write(0b1, 1);
+                out.write(leading, 5);
+                out.write(length - 1, 5);
+                out.write(xor >>> trailing, length);
+            }
+        }
+    }
+
+    static void readFloats(BitInput in, float[] values, int count) throws IOException {
+        int previous = (int) in.read(32);
+        values[0] = Float.intBitsToFloat(previous);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    trailing = 32 - leading - ((int) in.read(5) + 1);
+                }
+                int xor = (int) in.read(32 - leading - trailing) << trailing;
+                previous ^= xor;
+            }
+            values[i] = Float.intBitsToFloat(previous);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package riot.archive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads an archive file written by {@link ArchiveWriter}.
+ * <p>
+ * Opening an archive only reads its footer.  Readings are read with a
+ * {@link Cursor}, which uses the block index to skip blocks outside the
+ * range being scanned and decodes one block at a time, so memory use does
+ * not grow with the size of the archive:
+ * <pre>
+ *     try (ArchiveReader reader = new ArchiveReader(file)) {
+ *         ArchiveReader.Cursor cursor = reader.scan("lux", from, to);
+ *         while (cursor.next()) {
+ *             use(cursor.getDeviceID(), cursor.getTimestamp(), cursor.getValue(0));
+ *         }
+ *     }
+ * </pre>
+ */
+public class ArchiveReader implements AutoCloseable {
+
+    /**
+     * The index entry of one block.
+     */
+    public static class Block {
+        final String mType;
+        final int mRowCount;
+        final float[] mMin;
+        final float[] mMax;
+        long mOffset;
+        int mLength;
+        long mMinTimestamp;
+        long mMaxTimestamp;
+
+        Block(String type, int rowCount, int columnCount) {
+            mType = type;
+            mRowCount = rowCount;
+            mMin = new float[columnCount];
+            mMax = new float[columnCount];
+        }
+
+        static Block read(DataInput in) throws IOException {
+            String type = in.readUTF();
+            int rowCount = in.readInt();
+            int columnCount = in.readInt();
+            if (rowCount < 1 || columnCount < 1) {
+                throw new IOException("Invalid block in index.");
+            }
+            Block block = new Block(type, rowCount, columnCount);
+            block.mOffset = in.readLong();
+            block.mLength = in.readInt();
+            block.mMinTimestamp = in.readLong();
+            block.mMaxTimestamp = in.readLong();
+            for (int column = 0; column < columnCount; column++) {
+                block.mMin[column] = in.readFloat();
+                block.mMax[column] = in.readFloat();
+            }
+            return block;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(mType);
+            out.writeInt(mRowCount);
+            out.writeInt(mMin.length);
+            out.writeLong(mOffset);
+            out.writeInt(mLength);
+            out.writeLong(mMinTimestamp);
+            out.writeLong(mMaxTimestamp);
+            for (int column = 0; column < mMin.length; column++) {
+                out.writeFloat(mMin[column]);
+                out.writeFloat(mMax[column]);
+            }
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        public int getRowCount() {
+            return mRowCount;
+        }
+
+        public int getColumnCount() {
+            return mMin.length;
+        }
+
+        public long getMinTimestamp() {
+            return mMinTimestamp;
+        }
+
+        public long getMaxTimestamp() {
+            return mMaxTimestamp;
+        }
+
+        public float getMin(int column) {
+            return mMin[column];
+        }
+
+        public float getMax(int column) {
+            return mMax[column];
+        }
+    }
+
+    /**
+     * Steps through the readings of one type in a range of time, in the
+     * order they were written.
+     */
+    public class Cursor {
+        final String mType;
+        final long mFrom;
+        final long mTo;
+        final BitInput mBits = new BitInput();
+        int mNextBlock = 0;
+
+        Block mBlock;
+        byte[] mBytes = new byte[0];
+        long[] mTimestamps = new long[0];
+        int[] mDevices = new int[0];
+        float[][] mValues = new float[0][0];
+        int mRow = -1;
+
+        Cursor(String type, long from, long to) {
+            mType = type;
+            mFrom = from;
+            mTo = to;
+        }
+
+        /**
+         * Moves to the next reading in the range.
+         *
+         * @return false if there are no more
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                if (mBlock != null) {
+                    while (++mRow < mBlock.mRowCount) {
+                        long timestamp = mTimestamps[mRow];
+                        if (timestamp >= mFrom && timestamp <= mTo) {
+                            return true;
+                        }
+                    }
+                    mBlock = null;
+                }
+                if (!loadNextBlock()) {
+                    return false;
+                }
+            }
+        }
+
+        boolean loadNextBlock() throws IOException {
+            while (mNextBlock < mBlocks.size()) {
+                Block block = mBlocks.get(mNextBlock++);
+                if (block.mType.equals(mType) && block.mMaxTimestamp >= mFrom
+                        && block.mMinTimestamp <= mTo) {
+                    decode(block);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void decode(Block block) throws IOException {
+            int rows = block.mRowCount;
+            int columns = block.getColumnCount();
+            if (mBytes.length < block.mLength) {
+                mBytes = new byte[block.mLength];
+            }
+            if (mTimestamps.length < rows) {
+                mTimestamps = new long[rows];
+                mDevices = new int[rows];
+            }
+            if (mValues.length < columns || mValues[0].length < rows) {
+                mValues = new float[columns][Math.max(rows, mTimestamps.length)];
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(mBytes, 0, block.mLength);
+            long position = block.mOffset;
+            while (buffer.hasRemaining()) {
+                int read = mChannel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Archive ended unexpectedly.");
+                }
+                position += read;
+            }
+
+            mBits.reset(mBytes, block.mLength);
+            ArchiveFormat.readTimestamps(mBits, mTimestamps, rows);
+            ArchiveFormat.readIndices(mBits, mDevices, rows);
+            for (int column = 0; column < columns; column++) {
+                ArchiveFormat.readFloats(mBits, mValues[column], rows);
+            }
+            for (int row = 0; row < rows; row++) {
+                if (mDevices[row] >= mDeviceIDs.size()) {
+                    throw new IOException("Unknown device in block.");
+                }
+            }
+            mBlock = block;
+            mRow = -1;
+        }
+
+        public long getTimestamp() {
+            return mTimestamps[mRow];
+        }
+
+        public String getDeviceID() {
+            return mDeviceIDs.get(mDevices[mRow]);
+        }
+
+        public int getColumnCount() {
+            return mBlock.getColumnCount();
+        }
+
+        /**
+         * @param column Between 0 and the column count.
+         * @return
+         */
+        public float getValue(int column) {
+            return mValues[column][mRow];
+        }
+    }
+
+    final RandomAccessFile mFile;
+    final FileChannel mChannel;
+    final List<String> mDeviceIDs;
+    final List<Block> mBlocks;
+
+    /**
+     * Opens an archive and reads its index.
+     *
+     * @param file
+     * @throws IOException if the file cannot be read or is not a finished
+     *                     archive
+     */
+    public ArchiveReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mChannel = mFile.getChannel();
+            byte[] magic = new byte[ArchiveFormat.MAGIC.length];
+            long length = mFile.length();
+            if (length < magic.length * 2 + 8) {
+                throw new IOException("Not a RIOT archive.");
+            }
+            mFile.readFully(magic);
+            if (!Arrays.equals(magic, ArchiveFormat.MAGIC)) {
+                throw new IOException("Not a RIOT archive.");
+            }
+            mFile.seek(length - magic.length);
+            mFile.readFully(magic);
+            if (!Arrays.equals(magic, ArchiveFormat.MAGIC)) {
+                throw new IOException("Archive was not finished.");
+            }
+
+            mFile.seek(length - magic.length - 8);
+            long footer = mFile.readLong();
+            if (footer < magic.length || footer > length - magic.length - 8) {
+                throw new IOException("Invalid footer position.");
+            }
+            mFile.seek(footer);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(mChannel)));
+
+            int deviceCount = in.readInt();
+            ArrayList<String> deviceIDs = new ArrayList<>(Math.max(0, Math.min(deviceCount, 1 << 16)));
+            for (int i = 0; i < deviceCount; i++) {
+                deviceIDs.add(in.readUTF());
+            }
+            int blockCount = in.readInt();
+            ArrayList<Block> blocks = new ArrayList<>(Math.max(0, Math.min(blockCount, 1 << 16)));
+            for (int i = 0; i < blockCount; i++) {
+                Block block = Block.read(in);
+                if (block.mOffset < magic.length || block.mLength < 1
+                        || block.mOffset + block.mLength > footer) {
+                    throw new IOException("Invalid block position.");
+                }
+                blocks.add(block);
+            }
+            mDeviceIDs = Collections.unmodifiableList(deviceIDs);
+            mBlocks = Collections.unmodifiableList(blocks);
+        } catch (IOException ex) {
+            mFile.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the ids of the devices with readings in the archive
+     */
+    public List<String> getDeviceIDs() {
+        return mDeviceIDs;
+    }
+
+    /**
+     * @return the index of every block, in the order they were written
+     */
+    public List<Block> getBlocks() {
+        return mBlocks;
+    }
+
+    /**
+     * Starts reading the readings of one type taken in a range of time.
+     *
+     * @param type        The name of the sensor type.
+     * @param fromSeconds The earliest timestamp wanted.
+     * @param toSeconds   The latest timestamp wanted.
+     * @return
+     */
+    public Cursor scan(String type, long fromSeconds, long toSeconds) {
+        return new Cursor(type, fromSeconds, toSeconds);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
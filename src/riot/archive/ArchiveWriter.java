@@ -0,0 +1,190 @@
+package riot.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Writes readings to an archive file; see {@link ArchiveFormat}.
+ * <p>
+ * Readings of each sensor type are collected into a block, which is encoded
+ * and written once it is full.  Range scans are fastest when each type's
+ * readings are written in time order, as blocks then cover short ranges of
+ * time, but any order can be read back.  The file is not a valid archive
+ * until it is closed.
+ */
+public class ArchiveWriter implements AutoCloseable {
+
+    /**
+     * The readings of one type waiting to be written as a block.
+     */
+    static class PendingBlock {
+        final String mType;
+        final int mColumnCount;
+        final long[] mTimestamps;
+        final int[] mDevices;
+        final float[][] mValues;
+        int mCount = 0;
+
+        PendingBlock(String type, int columnCount, int blockRows) {
+            mType = type;
+            mColumnCount = columnCount;
+            mTimestamps = new long[blockRows];
+            mDevices = new int[blockRows];
+            mValues = new float[columnCount][blockRows];
+        }
+    }
+
+    final DataOutputStream mOut;
+    final int mBlockRows;
+    final LinkedHashMap<String, Integer> mDevices = new LinkedHashMap<>();
+    final HashMap<String, PendingBlock> mPending = new HashMap<>();
+    final ArrayList<ArchiveReader.Block> mBlocks = new ArrayList<>();
+    final BitOutput mBits = new BitOutput();
+    long mPosition;
+    boolean mClosed = false;
+
+    public ArchiveWriter(File file) throws IOException {
+        this(file, ArchiveFormat.DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * @param file
+     * @param blockRows The most readings in a block.
+     * @throws IOException
+     */
+    public ArchiveWriter(File file, int blockRows) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("Blocks must hold at least 1 reading.");
+        }
+        mBlockRows = blockRows;
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        mOut.write(ArchiveFormat.MAGIC);
+        mPosition = ArchiveFormat.MAGIC.length;
+    }
+
+    /**
+     * Adds a reading.
+     *
+     * @param type      The name of the reading's sensor type.
+     * @param deviceID
+     * @param timestamp
+     * @param values    The reading's values.  Every reading of a type must
+     *                  have the same number.
+     * @throws IOException
+     */
+    public void write(String type, String deviceID, long timestamp, float[] values)
+            throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("Archive is closed.");
+        }
+        PendingBlock block = mPending.get(type);
+        if (block == null) {
+            block = new PendingBlock(type, values.length, mBlockRows);
+            mPending.put(type, block);
+        } else if (values.length != block.mColumnCount) {
+            throw new IllegalArgumentException("Readings of " + type + " have "
+                    + block.mColumnCount + " values.");
+        }
+
+        Integer device = mDevices.get(deviceID);
+        if (device == null) {
+            device = mDevices.size();
+            mDevices.put(deviceID, device);
+        }
+
+        int row = block.mCount++;
+        block.mTimestamps[row] = timestamp;
+        block.mDevices[row] = device;
+        for (int column = 0; column < values.length; column++) {
+            block.mValues[column][row] = values[column];
+        }
+
+        if (block.mCount == mBlockRows) {
+            writeBlock(block);
+        }
+    }
+
+    void writeBlock(PendingBlock pending) throws IOException {
+        int count = pending.mCount;
+        if (count == 0) {
+            return;
+        }
+
+        ArchiveReader.Block block = new ArchiveReader.Block(pending.mType, count, pending.mColumnCount);
+        block.mOffset = mPosition;
+        block.mMinTimestamp = Long.MAX_VALUE;
+        block.mMaxTimestamp = Long.MIN_VALUE;
+        for (int row = 0; row < count; row++) {
+            block.mMinTimestamp = Math.min(block.mMinTimestamp, pending.mTimestamps[row]);
+            block.mMaxTimestamp = Math.max(block.mMaxTimestamp, pending.mTimestamps[row]);
+        }
+        for (int column = 0; column < pending.mColumnCount; column++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int row = 0; row < count; row++) {
+                min = Math.min(min, pending.mValues[column][row]);
+                max = Math.max(max, pending.mValues[column][row]);
+            }
+            block.mMin[column] = min;
+            block.mMax[column] = max;
+        }
+
+        mBits.clear();
+        ArchiveFormat.writeTimestamps(mBits, pending.mTimestamps, count);
+        ArchiveFormat.writeIndices(mBits, pending.mDevices, count);
+        for (int column = 0; column < pending.mColumnCount; column++) {
+            ArchiveFormat.writeFloats(mBits, pending.mValues[column], count);
+        }
+        block.mLength = mBits.finish();
+        mOut.write(mBits.mBytes, 0, block.mLength);
+        mPosition += block.mLength;
+
+        mBlocks.add(block);
+        pending.mCount = 0;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getSize() {
+        return mPosition;
+    }
+
+    /**
+     * Writes the remaining blocks and the footer, and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            for (PendingBlock pending : mPending.values()) {
+                writeBlock(pending);
+            }
+
+            long footer = mPosition;
+            mOut.writeInt(mDevices.size());
+            for (String device : mDevices.keySet()) {
+                mOut.writeUTF(device);
+            }
+            mOut.writeInt(mBlocks.size());
+            for (ArchiveReader.Block block : mBlocks) {
+                block.write(mOut);
+            }
+            mOut.writeLong(footer);
+            mOut.write(ArchiveFormat.MAGIC);
+        } finally {
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package riot.archive;
+
+import java.io.IOException;
+
+/**
+ * Reads values written by {@link BitOutput}.
+ */
+class BitInput {
+    byte[] mBytes;
+    int mLength;
+    // The index of the next bit to read.
+    long mPosition;
+
+    BitInput reset(byte[] bytes, int length) {
+        mBytes = bytes;
+        mLength = length;
+        mPosition = 0;
+        return this;
+    }
+
+    /**
+     * @param bits Between 0 and 64.
+     * @return the value, in the lowest bits
+     * @throws IOException if the data ends first
+     */
+    long read(int bits) throws IOException {
+        if (mPosition + bits > (long) mLength * 8) {
+            throw new IOException("Block ended unexpectedly.");
+        }
+        long value = 0;
+        while (bits > 0) {
+            int index = (int) (mPosition >>> 3);
+            int offset = (int) (mPosition & 7);
+            int take = Math.min(bits, 8 - offset);
+            int b = (mBytes[index] & 0xFF) >>> (8 - offset - take);
+            value = (value << take) | (b & ((1 << take) - 1));
+            bits -= take;
+            mPosition += take;
+        }
+        return value;
+    }
+
+    boolean readBit() throws IOException {
+        return read(1) != 0;
+    }
+}
@@ -0,0 +1,65 @@
+package riot.archive;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of any number of bits, most significant bit first, into a
+ * growing byte array.
+ */
+class BitOutput {
+    byte[] mBytes = new byte[4096];
+    int mLength = 0;
+    // Bits not yet written to the array, aligned to the right.
+    long mPending = 0;
+    int mPendingBits = 0;
+
+    /**
+     * @param value Only the lowest bits are written.
+     * @param bits  Between 0 and 64.
+     */
+    void write(long value, int bits) {
+        if (bits > 32) {
+            write(value >>> 32, bits - 32);
+            bits = 32;
+        }
+        if (bits == 0) {
+            return;
+        }
+        mPending = (mPending << bits) | (value & ((1L << bits) - 1));
+        mPendingBits += bits;
+        while (mPendingBits >= 8) {
+            mPendingBits -= 8;
+            put((byte) (mPending >>> mPendingBits));
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    void put(byte b) {
+        if (mLength == mBytes.length) {
+            mBytes = Arrays.copyOf(mBytes, mLength * 2);
+        }
+        mBytes[mLength++] = b;
+    }
+
+    /**
+     * Pads the last byte with zeros.
+     *
+     * @return the number of bytes written
+     */
+    int finish() {
+        if (mPendingBits > 0) {
+            write(0, 8 - mPendingBits);
+        }
+        mPending = 0;
+        return mLength;
+    }
+
+    void clear() {
+        mLength = 0;
+        mPending = 0;
+        mPendingBits = 0;
+    }
+}
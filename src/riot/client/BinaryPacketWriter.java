@@ -0,0 +1,53 @@
+package riot.client;
+
+import riot.data.Data;
+import riot.network.BinaryRecordEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes readings as binary frames.  Each flush sends one frame, which is
+ * compressed if the connection negotiated compression and the frame is large
+ * enough.
+ */
+class BinaryPacketWriter implements PacketWriter {
+
+    final OutputStream mOut;
+    final BinaryRecordEncoder mEncoder = new BinaryRecordEncoder();
+
+    BinaryPacketWriter(OutputStream out, boolean compress) {
+        mOut = out;
+        if (compress) {
+            mEncoder.enableCompression();
+        }
+    }
+
+    @Override
+    public void writeLux(String deviceID, float value, int sequence, long timestamp)
+            throws IOException {
+        mEncoder.addLux(deviceID, value, sequence, timestamp);
+        if (mEncoder.isFull()) {
+            mEncoder.writeFrame(mOut);
+        }
+    }
+
+    @Override
+    public void writeReading(Data data) throws IOException {
+        mEncoder.addReading(data);
+        if (mEncoder.isFull()) {
+            mEncoder.writeFrame(mOut);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mEncoder.writeFrame(mOut);
+        mOut.flush();
+    }
+
+    @Override
+    public void close() {
+        mEncoder.release();
+    }
+}
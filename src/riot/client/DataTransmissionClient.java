@@ -1,28 +1,82 @@
 package riot.client;
 
-import riot.database.RIOTDatabase;
+import riot.data.RollupData;
+import riot.network.Acknowledgement;
 import riot.network.LinuxWifiConnection;
+import riot.stats.LatencyHistogram;
+import riot.stats.PipelineStats;
+import riot.util.Backoff;
+import riot.util.Log;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.sql.*;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by marianne on 19/01/17.
  */
 public class DataTransmissionClient implements Runnable {
 
+    static final String TAG = "DataTransmissionClient";
+    static final Log.Limit LINK_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+    static final Log.Limit SERVER_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+    static final Log.Limit RESPONSE_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+    static final Log.Limit SHED_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+
+    static final LatencyHistogram OUTBOX_READ = PipelineStats.get().stage("client.outbox.read");
+    static final LatencyHistogram SERIALIZE = PipelineStats.get().stage("client.serialize");
+    static final LatencyHistogram SOCKET_WRITE = PipelineStats.get().stage("client.write");
+    static final LatencyHistogram ACK_WAIT = PipelineStats.get().stage("client.ack");
+    static final LatencyHistogram COMPACT = PipelineStats.get().stage("client.outbox.compact");
+    static final LongAdder SENT = PipelineStats.get().counter("client.sent");
+    static final LongAdder RETRANSMITTED = PipelineStats.get().counter("client.retransmitted");
+    static final LongAdder ACKNOWLEDGED = PipelineStats.get().counter("client.acknowledged");
+
+    /**
+     * Where the highest acknowledged sequence number of a stream is kept.
+     */
+    interface Watermark {
+        void set(int id) throws OutboxException;
+    }
+
     LinuxWifiConnection mNetworkConnection;
 
     String mServerIP = "169.254.72.1";
     int mServerPort = 65060;
 
-    Connection mDBConnection;
+    Connection mDatabaseConnection;
+    Outbox mOutbox;
+
+    // Optional summaries of the lux readings, sent ahead of them.  Raw rows
+    // further than the backlog limit behind the newest are not sent at all;
+    // -1 sends every row.
+    RollupStage mRollups;
+    int mRawBacklogLimit = -1;
+
+    // The most rows read from the outbox at once.
+    int mPageSize = 500;
+
+    // Sensor writers signal new rows.  The outbox is still checked this often
+    // in case rows are added by something that does not signal.
+    final OutboxSignal mOutboxSignal = new OutboxSignal();
+    long mIdlePollMillis = 60000;
+
+    // Used while the Wi-Fi link or the server is unavailable.  Reconnects to
+    // the server are jittered so nodes do not all return at once.
+    final Backoff mLinkBackoff = new Backoff(250, 30000);
+    final Backoff mServerBackoff = new Backoff(250, 30000, 0.5);
 
-    // Queries
-    String deleteFromLux = "DELETE FROM lux WHERE id = ?";
-    String deleteFromEntry = "DELETE FROM entry WHERE id = ?";
+    // Kept open across passes.
+    ServerConnection mConnection;
+
+    // Batching.  The defaults of one row per batch and one batch in flight
+    // behave like the original send-and-wait loop.
+    int mBatchSize = 1;
+    int mWindowSize = 1;
 
     /**
      * Sets up a client thread for transmitting data to the central server.
@@ -42,6 +96,24 @@ public class DataTransmissionClient implements Runnable {
                                   String serverIP,
                                   int serverPort,
                                   Connection databaseConnection) {
+        this(networkConnection, serverIP, serverPort, new SQLiteOutbox(databaseConnection));
+        mDatabaseConnection = databaseConnection;
+    }
+
+    /**
+     * Sets up a client thread which sends the readings in the given outbox,
+     * such as a {@link MappedOutbox}.  Rollups cannot be enabled, as they are
+     * read from the database.
+     *
+     * @param networkConnection
+     * @param serverIP
+     * @param serverPort
+     * @param outbox            Opened by the client when it starts.
+     */
+    public DataTransmissionClient(LinuxWifiConnection networkConnection,
+                                  String serverIP,
+                                  int serverPort,
+                                  Outbox outbox) {
 
         if (networkConnection == null) {
             throw new NullPointerException("Network connection cannot be null.");
@@ -53,14 +125,122 @@ public class DataTransmissionClient implements Runnable {
         if (serverPort < 1 || serverPort > 65535) {
             throw new IllegalArgumentException("Server port was not between 1 and 65535.");
         }
-        if (databaseConnection == null) {
-            throw new NullPointerException("Database connection cannot be null.");
+        if (outbox == null) {
+            throw new NullPointerException("Outbox cannot be null.");
         }
 
         mNetworkConnection = networkConnection;
         mServerIP = serverIP;
         mServerPort = serverPort;
-        mDBConnection = databaseConnection;
+        mOutbox = outbox;
+        mConnection = new ServerConnection(serverIP, serverPort);
+    }
+
+    /**
+     * Sets up a client which sends an outbox over connections given to
+     * {@link #transmit}, without managing a network connection.  Used by
+     * benchmarks; {@link #run()} cannot be used.
+     *
+     * @param outbox An opened outbox.
+     */
+    DataTransmissionClient(Outbox outbox) {
+        if (outbox == null) {
+            throw new NullPointerException("Outbox cannot be null.");
+        }
+        mOutbox = outbox;
+    }
+
+    /**
+     * Enables batched transmission.  Rows are written to the server
+     * {@code batchSize} at a time with a single flush, and up to
+     * {@code windowSize} batches may be waiting for acknowledgement before
+     * the client stops to wait for acknowledgements.
+     *
+     * @param batchSize  The number of rows sent in each frame.
+     * @param windowSize The number of unacknowledged batches allowed in flight.
+     */
+    public void setBatching(int batchSize, int windowSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1.");
+        }
+        mBatchSize = batchSize;
+        mWindowSize = windowSize;
+    }
+
+    /**
+     * Summarises the lux readings into per-device windows of the given
+     * sizes, which are sent before the readings themselves.  See
+     * {@link RollupStage}.
+     *
+     * @param windowSeconds For example 1, 10 and 60.
+     */
+    public void enableRollups(int... windowSeconds) {
+        if (mDatabaseConnection == null) {
+            throw new IllegalStateException("Rollups need the outbox's database connection.");
+        }
+        mRollups = new RollupStage(mDatabaseConnection, windowSeconds);
+    }
+
+    /**
+     * Limits how far the raw readings may fall behind while rollups are
+     * enabled.  Readings further than {@code rows} behind the newest
+     * summarised reading are treated as sent, so a weak link only carries the
+     * rollups and the most recent readings.  0 sends rollups alone.
+     *
+     * @param rows The most raw readings waiting to be sent, or -1 for no limit.
+     */
+    public void setRawBacklogLimit(int rows) {
+        if (rows < -1) {
+            throw new IllegalArgumentException("Backlog limit must be -1 or more.");
+        }
+        mRawBacklogLimit = rows;
+    }
+
+    /**
+     * Returns the signal that sensor writers should use to wake this client
+     * after committing new readings to the outbox.
+     *
+     * @return
+     */
+    public OutboxSignal getOutboxSignal() {
+        return mOutboxSignal;
+    }
+
+    /**
+     * Sets the most rows read from the outbox at once, which bounds the memory
+     * used while sending a backlog.
+     *
+     * @param pageSize
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1.");
+        }
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Sets whether the binary wire format is offered to the server when
+     * connecting.  Servers that do not reply to the offer are sent text.
+     *
+     * @param offerBinary
+     */
+    public void setOfferBinary(boolean offerBinary) {
+        mConnection.setOfferBinary(offerBinary);
+    }
+
+    /**
+     * Sets whether compressed binary frames are offered to the server when
+     * connecting.  Only full frames are compressed, so compression mostly
+     * applies while a backlog is being sent.
+     *
+     * @param offerCompression
+     */
+    public void setOfferCompression(boolean offerCompression) {
+        mConnection.setOfferCompression(offerCompression);
     }
 
     /**
@@ -69,12 +249,8 @@ public class DataTransmissionClient implements Runnable {
      */
     @Override
     protected void finalize() {
-        try {
-            if (mDBConnection != null) {
-                mDBConnection.close();
-            }
-        } catch (SQLException e) {
-            // Ignore problems when finalizing.
+        if (mOutbox != null) {
+            mOutbox.close();
         }
     }
 
@@ -83,116 +259,137 @@ public class DataTransmissionClient implements Runnable {
      * Try to call this whenever the thread will return.
      */
     void releaseResources() {
-        try {
-            if (mDBConnection != null) {
-                mDBConnection.close();
-            }
-        } catch (SQLException e) {
-            // Ignore problems when finalizing.
+        if (mConnection != null) {
+            mConnection.close();
+        }
+        if (mOutbox != null) {
+            mOutbox.close();
         }
     }
 
     /**
-     * Checks the connection to the database and that the structure of the
-     * database is what is expected.  If this function returns true, it
-     * should be safe to execute queries.
+     * Opens the outbox, which checks the connection to the database and that
+     * the structure of the database is what is expected.  If this function
+     * returns true, it should be safe to read from the outbox.
      *
      * @return
      */
-    boolean databaseStructureIsCorrect() {
-
-        // Verify database structure.
+    boolean outboxIsReady() {
         try {
-            if (RIOTDatabase.createTables(mDBConnection)) {
-                return true;
+            mOutbox.open();
+            if (mRollups != null) {
+                mRollups.open();
+            }
+            if (mConnection != null) {
+                mConnection.setEpoch(mOutbox.getEpoch());
             }
-        } catch (SQLException ex) {
-            System.err.println("DataTransmissionClient: Could not verify database structure.");
-            ex.printStackTrace();
+            return true;
+        } catch (OutboxException ex) {
+            Log.e(TAG, "Could not open the outbox.", ex);
         }
         return false;
     }
 
     /**
-     * 1. Check database structure is correct.
+     * 1. Open the outbox.
      * 2. Establish network connection
-     * 3. Connect to serverThread socket.
-     * 4. Send data from SQLite3 database to serverThread.
+     * 3. Connect to serverThread socket, or reuse the open connection.
+     * 4. Send data from the outbox to serverThread a page at a time.
+     * <p>
+     * Network and server problems close the connection and the thread retries
+     * with a backoff, resuming from the last acknowledged row.  Only problems
+     * with the outbox or an interrupt end the thread.
      */
     @Override
     public void run() {
 
         // If the database cannot be read or the structure is wrong there is
         // nothing this thread can do.
-        if (!databaseStructureIsCorrect()) {
+        if (!outboxIsReady()) {
             releaseResources();
             return;
         }
 
+        ArrayList<OutboxRecord> page = new ArrayList<>();
+        ArrayList<RollupData> rollupPage = new ArrayList<>();
+
         while (true) {
             try { // catches InterruptedException
 
-                // Check wireless connection
-                while (!mNetworkConnection.isConnected()) {
-                    if (mNetworkConnection.establishConnection()) {
-                        Thread.sleep(5000);
+                // Check wireless connection, backing off while it is down.
+                if (!mNetworkConnection.isConnected()) {
+                    mConnection.close();
+                    while (!mNetworkConnection.isConnected()) {
+                        try {
+                            mNetworkConnection.establishConnection();
+                        } catch (IOException ex) {
+                            Log.limited(Log.Level.WARN, LINK_LIMIT, TAG, "%s", ex.getMessage());
+                        }
+                        mLinkBackoff.sleep();
                     }
                 }
+                mLinkBackoff.reset();
+
+                if (mRollups != null) {
+                    updateRollups();
+                    mRollups.readPage(mRollups.getSentWatermark(), mPageSize, rollupPage);
+                }
 
-                int count = RIOTDatabase.getCount(mDBConnection, "lux");
-                System.out.println("DataTransmissionClient found " + count + " rows.");
-                if (count > 0) {
-
-                    // Declare all AutoCloseable resources needed to send data from
-                    // database to serverThread.
-                    try (// Socket-related declarations
-                         Socket socket = new Socket(mServerIP, mServerPort);
-                         PrintWriter socketWriter = new PrintWriter(socket.getOutputStream(), true);
-                         BufferedReader socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                         // Database-related declarations
-                         Statement luxQuery = mDBConnection.createStatement();
-                         ResultSet results = luxQuery.executeQuery(RIOTDatabase.LUX_QUERY);
-                         PreparedStatement deleteLuxStmt = mDBConnection.prepareStatement(deleteFromLux);
-                         PreparedStatement deleteEntryStmt = mDBConnection.prepareStatement(deleteFromEntry);
-                    ) {
-                        socket.setSoTimeout(1000);
-
-                        // Cursor starts at position prior to first row.
-                        while (results.next()) {
-
-                            // Transmit data.
-                            socketWriter.println("LUX " + results.getString("dev_id") +
-                                    " " + results.getInt("id") +
-                                    " " + results.getFloat("lux"));
-                            socketWriter.flush();
-
-                            // TODO: Implement an ACK from server.
-                            try {
-                                socketReader.readLine();
-                            } catch (SocketTimeoutException ex) {
-                                System.out.println("Did not receive an acknowledgement from the server.");
-                            }
-
-                            // Delete data.
-                            int id = results.getInt("id");
-                            System.out.println("Deleting id " + id);
-                            deleteLuxStmt.setInt(1, id);
-                            deleteLuxStmt.execute();
-                            deleteEntryStmt.setInt(1, id);
-                            deleteEntryStmt.execute();
+                boolean serverHealthy = true;
+                boolean retryNow = false;
+                // Rows after the watermark have not been acknowledged, so
+                // this resumes wherever the last connection stopped.
+                readPage(mOutbox.getWatermark(), page);
+                if (!page.isEmpty() || !rollupPage.isEmpty()) {
+                    boolean reused = mConnection.isOpen();
+                    try {
+                        mConnection.connect();
+                        // Rollups go first so the dashboards stay current.
+                        if (!rollupPage.isEmpty()) {
+                            serverHealthy = transmitRollups(mConnection, rollupPage);
                         }
+                        if (serverHealthy && !page.isEmpty()) {
+                            serverHealthy = transmit(mConnection, page);
+                        }
+                    } catch (IOException ex) {
+                        Log.limited(Log.Level.WARN, SERVER_LIMIT, TAG, "%s", ex.getMessage());
+                        serverHealthy = false;
+                        // The server may have dropped an idle connection;
+                        // try a fresh one before backing off.
+                        retryNow = reused;
+                    }
+                    if (!serverHealthy) {
+                        // Late acknowledgements would be confused with
+                        // those for the rows sent again, so start afresh.
+                        mConnection.close();
+                    }
+
+                    compact();
+                    if (mRollups != null) {
+                        mRollups.compact();
                     }
                 }
 
-                Thread.sleep(5000);
+                if (serverHealthy) {
+                    mServerBackoff.reset();
+
+                    // Nothing left to send; sleep until a sensor writes more
+                    // or, with rollups, until the shortest window ends.
+                    long idleMillis = mIdlePollMillis;
+                    if (mRollups != null) {
+                        idleMillis = Math.min(idleMillis, mRollups.getShortestWindowSeconds() * 1000L);
+                    }
+                    mOutboxSignal.await(idleMillis);
+                } else if (!retryNow) {
+                    mServerBackoff.sleep();
+                }
+                page.clear();
+                rollupPage.clear();
             } catch (InterruptedException ex) {
                 releaseResources();
                 return;
-            } catch (IOException ex) {
-                releaseResources();
-                return;
-            } catch (SQLException ex) {
+            } catch (OutboxException ex) {
+                Log.e(TAG, "Outbox failed, stopping.", ex);
                 releaseResources();
                 return;
             }
@@ -200,6 +397,236 @@ public class DataTransmissionClient implements Runnable {
 
     }
 
+    /**
+     * Folds new readings into the rollups, keeps the readings the rollup stage
+     * still needs in the outbox and sheds raw readings beyond the backlog
+     * limit.  Only readings which have been summarised are shed.
+     *
+     * @throws OutboxException
+     */
+    void updateRollups() throws OutboxException {
+        mRollups.update(System.currentTimeMillis() / 1000L);
+        // Ids start at 1, so 0 keeps every reading.
+        mOutbox.setCompactionLimit(Math.max(mRollups.getRestartWatermark(), 0));
+
+        if (mRawBacklogLimit >= 0) {
+            int shedTo = mRollups.getProcessed() - mRawBacklogLimit;
+            if (shedTo > mOutbox.getWatermark()) {
+                Log.limited(Log.Level.INFO, SHED_LIMIT, TAG, "Shedding raw readings up to %d.", shedTo);
+                mOutbox.setWatermark(shedTo);
+            }
+        }
+    }
+
+    /**
+     * Sends the queued rollups to the server over an open connection,
+     * starting with the page already read, until none are left or the server
+     * stops responding.
+     *
+     * @param connection
+     * @param page       The first page to send.  Used for the following pages.
+     * @return false if the server stopped responding
+     */
+    boolean transmitRollups(ServerConnection connection, ArrayList<RollupData> page)
+            throws IOException, OutboxException {
+
+        PacketWriter packetWriter = connection.getPacketWriter();
+        BufferedReader socketReader = connection.getReader();
+        InFlightWindow window = new InFlightWindow();
+        Watermark watermark = mRollups::setSentWatermark;
+        int highestSent = mRollups.getSentWatermark();
+        int windowLimit = mBatchSize * mWindowSize;
+        int unflushed = 0;
+        long serializeStart = 0;
+        boolean serverResponding = true;
+
+        while (serverResponding && !page.isEmpty()) {
+            for (int i = 0; serverResponding && i < page.size(); i++) {
+                RollupData rollup = page.get(i);
+                if (unflushed == 0) {
+                    serializeStart = System.nanoTime();
+                }
+                packetWriter.writeReading(rollup);
+                window.sent(rollup);
+                highestSent = rollup.getSequence();
+
+                if (++unflushed == mBatchSize) {
+                    SERIALIZE.recordSince(serializeStart);
+                    flush(packetWriter, unflushed);
+                    unflushed = 0;
+                    while (serverResponding && window.size() >= windowLimit) {
+                        serverResponding = awaitAcknowledgement(socketReader,
+                                packetWriter, window, highestSent, watermark);
+                    }
+                }
+            }
+            if (serverResponding) {
+                mRollups.readPage(highestSent, mPageSize, page);
+            }
+        }
+
+        flush(packetWriter, unflushed);
+        while (serverResponding && !window.isEmpty()) {
+            serverResponding = awaitAcknowledgement(socketReader,
+                    packetWriter, window, highestSent, watermark);
+        }
+        if (!window.isEmpty()) {
+            Log.w(TAG, "%d rollups were not acknowledged.", window.size());
+        }
+        return serverResponding;
+    }
+
+    /**
+     * Sends the outbox to the server over an open connection, starting with
+     * the page already read, until the outbox is empty or the server stops
+     * responding.
+     *
+     * @param connection
+     * @param page       The first page to send.  Used for the following pages.
+     * @return false if the server stopped responding
+     */
+    boolean transmit(ServerConnection connection, ArrayList<OutboxRecord> page)
+            throws IOException, OutboxException {
+
+        PacketWriter packetWriter = connection.getPacketWriter();
+        BufferedReader socketReader = connection.getReader();
+        InFlightWindow window = new InFlightWindow();
+        Watermark watermark = mOutbox::setWatermark;
+        int highestSent = mOutbox.getWatermark();
+        int windowLimit = mBatchSize * mWindowSize;
+        int unflushed = 0;
+        long serializeStart = 0;
+        boolean serverResponding = true;
+
+        while (serverResponding && !page.isEmpty()) {
+            for (int i = 0; serverResponding && i < page.size(); i++) {
+
+                // Queue data for transmission.
+                OutboxRecord record = page.get(i);
+                if (unflushed == 0) {
+                    serializeStart = System.nanoTime();
+                }
+                packetWriter.writeLux(record.mDeviceID, record.mValue,
+                        record.mId, record.mTimestamp);
+                window.sent(record.mDeviceID, record.mId,
+                        record.mValue, record.mTimestamp);
+                highestSent = record.mId;
+
+                if (++unflushed == mBatchSize) {
+                    SERIALIZE.recordSince(serializeStart);
+                    flush(packetWriter, unflushed);
+                    unflushed = 0;
+
+                    // Only wait on the server once the window is full.
+                    while (serverResponding && window.size() >= windowLimit) {
+                        serverResponding = awaitAcknowledgement(socketReader,
+                                packetWriter, window, highestSent, watermark);
+                    }
+                }
+            }
+
+            // Discard what has been acknowledged between pages so
+            // the outbox shrinks while a backlog is sent.
+            compact();
+            if (serverResponding) {
+                readPage(highestSent, page);
+            }
+        }
+
+        // Send the final partial batch and drain the window.  Rows
+        // that are never acknowledged stay in the outbox and are
+        // sent again on the next pass.
+        if (unflushed > 0) {
+            SERIALIZE.recordSince(serializeStart);
+        }
+        flush(packetWriter, unflushed);
+        while (serverResponding && !window.isEmpty()) {
+            serverResponding = awaitAcknowledgement(socketReader,
+                    packetWriter, window, highestSent, watermark);
+        }
+        if (!window.isEmpty()) {
+            Log.w(TAG, "%d rows were not acknowledged.", window.size());
+        }
+        return serverResponding;
+    }
+
+    void readPage(int afterId, ArrayList<OutboxRecord> page) throws OutboxException {
+        long start = System.nanoTime();
+        mOutbox.readPage(afterId, mPageSize, page);
+        OUTBOX_READ.recordSince(start);
+    }
+
+    void compact() throws OutboxException {
+        long start = System.nanoTime();
+        mOutbox.compact();
+        COMPACT.recordSince(start);
+    }
+
+    /**
+     * Flushes the writer, counting the rows written since the last flush as
+     * sent.
+     */
+    void flush(PacketWriter packetWriter, int rows) throws IOException {
+        long start = System.nanoTime();
+        packetWriter.flush();
+        SOCKET_WRITE.recordSince(start);
+        SENT.add(rows);
+    }
+
+    /**
+     * Waits for the next acknowledgement from the server, advances the sent
+     * watermark past every row it covers and retransmits any rows the server
+     * skipped.
+     *
+     * @param watermark The watermark of the rows in the window.
+     * @return false if the server did not respond in time
+     */
+    boolean awaitAcknowledgement(BufferedReader socketReader, PacketWriter packetWriter,
+                                 InFlightWindow window, int highestSent, Watermark watermark)
+            throws IOException, OutboxException {
+
+        String line;
+        long waitStart = System.nanoTime();
+        try {
+            line = socketReader.readLine();
+            ACK_WAIT.recordSince(waitStart);
+        } catch (SocketTimeoutException ex) {
+            Log.w(TAG, "Did not receive an acknowledgement from the server.");
+            return false;
+        }
+        if (line == null) {
+            throw new IOException("Server closed the connection.");
+        }
+
+        Acknowledgement ack = Acknowledgement.parse(line);
+        if (ack == null) {
+            Log.limited(Log.Level.WARN, RESPONSE_LIMIT, TAG, "Unexpected response from server: %s", line);
+            return true;
+        }
+
+        ArrayList<InFlightWindow.Row> retransmit = new ArrayList<>();
+        int acknowledged = window.apply(ack, retransmit);
+
+        if (!retransmit.isEmpty()) {
+            for (InFlightWindow.Row row : retransmit) {
+                if (row.mData != null) {
+                    packetWriter.writeReading(row.mData);
+                } else {
+                    packetWriter.writeLux(row.mDeviceID, row.mValue, row.mId, row.mTimestamp);
+                }
+            }
+            RETRANSMITTED.add(retransmit.size());
+            flush(packetWriter, 0);
+        }
+
+        if (acknowledged > 0) {
+            ACKNOWLEDGED.add(acknowledged);
+            // Everything below the lowest row still in flight has been acknowledged.
+            watermark.set(window.isEmpty() ? highestSent : window.getLowestId() - 1);
+        }
+        return true;
+    }
+
     /**
      * FOR TESTING ONLY.
      *
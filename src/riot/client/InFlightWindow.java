@@ -0,0 +1,115 @@
+package riot.client;
+
+import riot.data.Data;
+import riot.network.Acknowledgement;
+
+import java.util.ArrayList;
+
+/**
+ * The readings which have been sent to the server but not yet acknowledged,
+ * in the order they were sent.
+ * <p>
+ * Created for the sequence-number acknowledgement protocol; see
+ * {@link Acknowledgement}.
+ */
+public class InFlightWindow {
+
+    static class Row {
+        // The acknowledgement stream: the device id for lux rows.
+        final String mDeviceID;
+        final int mId;
+        final float mValue;
+        final long mTimestamp;
+        // Set for rows of other types, which are retransmitted as they are.
+        final Data mData;
+        boolean mRetransmitted = false;
+
+        Row(String deviceID, int id, float value, long timestamp, Data data) {
+            mDeviceID = deviceID;
+            mId = id;
+            mValue = value;
+            mTimestamp = timestamp;
+            mData = data;
+        }
+    }
+
+    ArrayList<Row> mRows = new ArrayList<>();
+
+    /**
+     * Records a reading that has been written to the server.
+     *
+     * The reading is kept so that it can be retransmitted.
+     *
+     * @param deviceID
+     * @param id        The sequence number of the reading.
+     * @param value
+     * @param timestamp
+     */
+    public void sent(String deviceID, int id, float value, long timestamp) {
+        mRows.add(new Row(deviceID, id, value, timestamp, null));
+    }
+
+    /**
+     * Records a reading of any type that has been written to the server,
+     * under its stream and sequence number.
+     *
+     * @param data
+     */
+    public void sent(Data data) {
+        mRows.add(new Row(data.getStreamID(), data.getSequence(), 0, data.getTimestamp(), data));
+    }
+
+    public int size() {
+        return mRows.size();
+    }
+
+    public boolean isEmpty() {
+        return mRows.isEmpty();
+    }
+
+    /**
+     * Rows are sent in increasing id order and retransmissions keep their
+     * place, so the first row has the lowest id.
+     *
+     * @return the lowest unacknowledged id, or -1 if the window is empty
+     */
+    public int getLowestId() {
+        return mRows.isEmpty() ? -1 : mRows.get(0).mId;
+    }
+
+    /**
+     * Removes every row covered by the acknowledgement and collects the rows
+     * which the server has skipped over.  Each skipped row is only handed out
+     * for retransmission once; if it is still missing at the end of the pass
+     * it stays in the database and is sent again on the next pass.
+     *
+     * @param ack
+     * @param retransmit Receives the rows that should be sent again.
+     * @return the number of rows acknowledged
+     */
+    public int apply(Acknowledgement ack, ArrayList<Row> retransmit) {
+        int highest = ack.getHighest();
+        // Compacts the rows in one pass: removing acknowledged rows one at a
+        // time would shift the tail of the list for every one of them.
+        int size = mRows.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Row row = mRows.get(i);
+            if (row.mDeviceID.equals(ack.mDeviceID)) {
+                if (ack.covers(row.mId)) {
+                    continue;
+                }
+                if (row.mId < highest && !row.mRetransmitted) {
+                    row.mRetransmitted = true;
+                    retransmit.add(row);
+                }
+            }
+            if (kept != i) {
+                mRows.set(kept, row);
+            }
+            kept++;
+        }
+        mRows.subList(kept, size).clear();
+        return size - kept;
+    }
+}
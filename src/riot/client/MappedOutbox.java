@@ -0,0 +1,459 @@
+package riot.client;
+
+import riot.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An outbox stored as an append-only log of memory-mapped segment files, for
+ * devices which only keep readings until they are sent.
+ * <p>
+ * Unlike {@link SQLiteOutbox}, appending a reading is a write into a mapped
+ * page, and acknowledged readings are discarded by deleting whole segment
+ * files, so there are no B-tree updates, no write ahead log and no deletes of
+ * single rows.  The kernel writes dirty pages back in the background;
+ * {@link #flush()} forces them to the card.
+ * <p>
+ * The directory holds:
+ * <ul>
+ * <li>Segments named {@code <first id>.seg}, each holding a fixed number of
+ * {@value #RECORD_LENGTH} byte records: id, timestamp, value, device index
+ * and a check word.  Ids are consecutive, so the segment and offset of a
+ * reading follow from its id.  After a crash the last segment is read up to
+ * the first record whose check word does not match.</li>
+ * <li>{@code devices}, the device ids, one per line.  A record's device index
+ * is a line number.</li>
+ * <li>{@code cursor}, the sent watermark and the next id, each followed by
+ * its complement.  The next id is kept here as well as implied by the
+ * segments so that ids are not handed out again after the segments are
+ * lost.</li>
+ * <li>{@code epoch}, the outbox's epoch and its complement.  A new epoch is
+ * started when the outbox cannot tell whether ids it is about to hand out
+ * have been sent before: when the cursor is new or damaged, or when readings
+ * after the end of the recovered log had been appended.</li>
+ * </ul>
+ * Only lux readings can be stored, and the {@link RollupStage} cannot be used
+ * with this outbox as it reads the database tables.
+ * <p>
+ * The outbox may be appended to by one thread while another sends it.
+ */
+public class MappedOutbox implements Outbox {
+
+    static final String TAG = "MappedOutbox";
+
+    static final int RECORD_LENGTH = 24;
+    static final int CHECK_SEED = 0x52494F54;  // "RIOT"
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String DEVICES_FILE = "devices";
+    static final String CURSOR_FILE = "cursor";
+    static final String EPOCH_FILE = "epoch";
+    static final int CURSOR_LENGTH = 16;
+    static final int EPOCH_LENGTH = 16;
+
+    /**
+     * One segment file and its mapping.
+     */
+    static class Segment {
+        final File mFile;
+        final int mFirstId;
+        final MappedByteBuffer mBuffer;
+
+        Segment(File file, int firstId, MappedByteBuffer buffer) {
+            mFile = file;
+            mFirstId = firstId;
+            mBuffer = buffer;
+        }
+    }
+
+    final File mDirectory;
+    final int mRecordsPerSegment;
+
+    // Oldest first.  The last segment is the one being appended to.
+    final ArrayList<Segment> mSegments = new ArrayList<>();
+    final ArrayList<String> mDevices = new ArrayList<>();
+    final HashMap<String, Integer> mDeviceIndexes = new HashMap<>();
+    FileOutputStream mDevicesOut;
+    MappedByteBuffer mCursor;
+
+    int mNextId = 1;
+    int mWatermark = -1;
+    long mEpoch = 0;
+    int mCompactionLimit = -1;
+
+    /**
+     * @param directory         Created if it does not exist.
+     * @param recordsPerSegment The number of readings in each segment file.
+     *                          Must not change while the directory holds
+     *                          segments.
+     */
+    public MappedOutbox(File directory, int recordsPerSegment) {
+        if (directory == null) {
+            throw new NullPointerException("Directory cannot be null.");
+        }
+        if (recordsPerSegment < 1) {
+            throw new IllegalArgumentException("Segments must hold at least one record.");
+        }
+        mDirectory = directory;
+        mRecordsPerSegment = recordsPerSegment;
+    }
+
+    /**
+     * Maps the segments and loads the device ids, the sent watermark and the
+     * epoch.  Does nothing if the outbox is already open, so a sampler and the
+     * client can share it.
+     *
+     * @throws OutboxException
+     */
+    @Override
+    public synchronized void open() throws OutboxException {
+        if (mCursor != null) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new OutboxException("Could not create the outbox directory: " + mDirectory);
+        }
+
+        try {
+            loadDevices();
+            mDevicesOut = new FileOutputStream(new File(mDirectory, DEVICES_FILE), true);
+
+            mCursor = map(new File(mDirectory, CURSOR_FILE), CURSOR_LENGTH);
+            int watermark = mCursor.getInt(0);
+            // A new or damaged cursor resends everything; the server discards
+            // what it already has.
+            mWatermark = (mCursor.getInt(4) == ~watermark && watermark > 0) ? watermark : -1;
+            int nextId = mCursor.getInt(8);
+            boolean nextIdKnown = mCursor.getInt(12) == ~nextId && nextId > 0;
+
+            loadSegments(nextIdKnown ? nextId : 1);
+            writeNextId();
+
+            // Readings past the end of the log may have been sent with the ids
+            // about to be handed out again.
+            boolean idsMayRepeat = !nextIdKnown || nextId > mNextId;
+            mEpoch = readEpoch();
+            if (mEpoch == 0 || idsMayRepeat) {
+                if (mEpoch != 0) {
+                    Log.w(TAG, "Readings from %d to %d were lost, starting a new epoch.", mNextId, nextId - 1);
+                }
+                mEpoch = Outbox.newEpoch();
+                writeEpoch(mEpoch);
+            }
+        } catch (IOException ex) {
+            throw new OutboxException("Could not open the outbox.", ex);
+        }
+    }
+
+    void loadDevices() throws IOException {
+        File file = new File(mDirectory, DEVICES_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mDeviceIndexes.put(line, mDevices.size());
+                mDevices.add(line);
+            }
+        }
+    }
+
+    /**
+     * @param nextId The next id recorded in the cursor, used when there are no
+     *               segments to find it from.
+     */
+    void loadSegments(int nextId) throws IOException {
+        ArrayList<Integer> firstIds = new ArrayList<>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        firstIds.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        Log.w(TAG, "Ignoring %s", name);
+                    }
+                }
+            }
+        }
+        firstIds.sort(null);
+
+        for (int firstId : firstIds) {
+            File file = segmentFile(firstId);
+            mSegments.add(new Segment(file, firstId, map(file, (long) mRecordsPerSegment * RECORD_LENGTH)));
+        }
+
+        if (mSegments.isEmpty()) {
+            mNextId = Math.max(Math.max(mWatermark, 0) + 1, nextId);
+            return;
+        }
+
+        // Find the end of the log in the last segment.
+        Segment last = mSegments.get(mSegments.size() - 1);
+        int count = 0;
+        while (count < mRecordsPerSegment && isValid(last, count)) {
+            count++;
+        }
+        mNextId = last.mFirstId + count;
+    }
+
+    /**
+     * @return the epoch in the epoch file, or 0 if there is none or it is
+     * damaged
+     */
+    long readEpoch() throws IOException {
+        File file = new File(mDirectory, EPOCH_FILE);
+        if (file.length() != EPOCH_LENGTH) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            long epoch = in.readLong();
+            return in.readLong() == ~epoch ? epoch : 0;
+        }
+    }
+
+    void writeEpoch(long epoch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(EPOCH_LENGTH);
+        buffer.putLong(epoch).putLong(~epoch);
+        try (FileOutputStream out = new FileOutputStream(new File(mDirectory, EPOCH_FILE))) {
+            out.write(buffer.array());
+            // The epoch must be on the card before any reading is sent in it.
+            out.getFD().sync();
+        }
+    }
+
+    void writeNextId() {
+        mCursor.putInt(8, mNextId);
+        mCursor.putInt(12, ~mNextId);
+    }
+
+    /**
+     * Appends a reading.  It is visible to {@link #readPage} straight away
+     * but may not be on the card until {@link #flush()}.
+     *
+     * @param deviceID
+     * @param value
+     * @param timestamp
+     * @return the reading's id
+     * @throws OutboxException
+     */
+    @Override
+    public synchronized int append(String deviceID, float value, long timestamp) throws OutboxException {
+        try {
+            int device = getDeviceIndex(deviceID);
+            Segment segment = getSegment(mNextId);
+            if (segment == null) {
+                segment = addSegment(mNextId);
+            }
+
+            int id = mNextId;
+            int position = (id - segment.mFirstId) * RECORD_LENGTH;
+            int valueBits = Float.floatToIntBits(value);
+            segment.mBuffer.putInt(position, id);
+            segment.mBuffer.putLong(position + 4, timestamp);
+            segment.mBuffer.putInt(position + 12, valueBits);
+            segment.mBuffer.putInt(position + 16, device);
+            segment.mBuffer.putInt(position + 20, check(id, timestamp, valueBits, device));
+            mNextId++;
+            writeNextId();
+            return id;
+        } catch (IOException ex) {
+            throw new OutboxException("Could not append to the outbox.", ex);
+        }
+    }
+
+    /**
+     * Forces the segment being appended to and the cursor to the card.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!mSegments.isEmpty()) {
+            mSegments.get(mSegments.size() - 1).mBuffer.force();
+        }
+        if (mCursor != null) {
+            mCursor.force();
+        }
+    }
+
+    @Override
+    public synchronized void readPage(int afterId, int limit, List<OutboxRecord> page) {
+        page.clear();
+        int id = afterId + 1;
+        if (!mSegments.isEmpty()) {
+            // Readings before the oldest segment have been discarded.
+            id = Math.max(id, mSegments.get(0).mFirstId);
+        }
+
+        while (id < mNextId && page.size() < limit) {
+            Segment segment = getSegment(id);
+            int position = (id - segment.mFirstId) * RECORD_LENGTH;
+            page.add(new OutboxRecord(id,
+                    mDevices.get(segment.mBuffer.getInt(position + 16)),
+                    Float.intBitsToFloat(segment.mBuffer.getInt(position + 12)),
+                    segment.mBuffer.getLong(position + 4)));
+            id++;
+        }
+    }
+
+    @Override
+    public synchronized int getWatermark() {
+        return mWatermark;
+    }
+
+    @Override
+    public synchronized long getEpoch() {
+        return mEpoch;
+    }
+
+    /**
+     * Writes the watermark into the mapped cursor.  It reaches the card with
+     * the next {@link #flush()} or when the kernel writes the page back.
+     */
+    @Override
+    public synchronized void setWatermark(int watermark) {
+        if (watermark <= mWatermark) {
+            return;
+        }
+        mCursor.putInt(0, watermark);
+        mCursor.putInt(4, ~watermark);
+        mWatermark = watermark;
+    }
+
+    @Override
+    public synchronized void setCompactionLimit(int id) {
+        mCompactionLimit = id;
+    }
+
+    /**
+     * Deletes every full segment whose readings have all been acknowledged.
+     */
+    @Override
+    public synchronized void compact() {
+        int compactTo = mCompactionLimit < 0 ? mWatermark : Math.min(mWatermark, mCompactionLimit);
+        int deleted = 0;
+        while (!mSegments.isEmpty()) {
+            Segment oldest = mSegments.get(0);
+            int lastId = oldest.mFirstId + mRecordsPerSegment - 1;
+            // The newest reading's segment is kept so its id is known after
+            // a restart.
+            if (lastId > compactTo || lastId >= mNextId - 1) {
+                break;
+            }
+            // The mapping is released when the buffer is collected.
+            mSegments.remove(0);
+            if (!oldest.mFile.delete()) {
+                Log.w(TAG, "Could not delete %s", oldest.mFile);
+            }
+            deleted++;
+        }
+        if (deleted > 0) {
+            Log.d(TAG, "Compacted %d acknowledged segments.", deleted);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (mDevicesOut != null) {
+            try {
+                mDevicesOut.close();
+            } catch (IOException ex) {
+                // Ignore problems when closing.
+            }
+        }
+        mSegments.clear();
+        mCursor = null;
+    }
+
+    int getDeviceIndex(String deviceID) throws IOException {
+        Integer index = mDeviceIndexes.get(deviceID);
+        if (index != null) {
+            return index;
+        }
+        if (deviceID.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Device ID cannot contain a line break.");
+        }
+
+        // The device must be on the card before any reading that uses it.
+        mDevicesOut.write((deviceID + "\n").getBytes(StandardCharsets.UTF_8));
+        mDevicesOut.getFD().sync();
+
+        index = mDevices.size();
+        mDevices.add(deviceID);
+        mDeviceIndexes.put(deviceID, index);
+        return index;
+    }
+
+    /**
+     * @return the segment holding the id, or null if it is past the last one
+     */
+    Segment getSegment(int id) {
+        if (mSegments.isEmpty()) {
+            return null;
+        }
+        int index = (id - mSegments.get(0).mFirstId) / mRecordsPerSegment;
+        if (index < 0 || index >= mSegments.size()) {
+            return null;
+        }
+        return mSegments.get(index);
+    }
+
+    Segment addSegment(int firstId) throws IOException {
+        if (!mSegments.isEmpty()) {
+            // The full segment will not change again.
+            mSegments.get(mSegments.size() - 1).mBuffer.force();
+        }
+        File file = segmentFile(firstId);
+        Segment segment = new Segment(file, firstId, map(file, (long) mRecordsPerSegment * RECORD_LENGTH));
+        mSegments.add(segment);
+        return segment;
+    }
+
+    File segmentFile(int firstId) {
+        return new File(mDirectory, String.format("%010d%s", firstId, SEGMENT_SUFFIX));
+    }
+
+    boolean isValid(Segment segment, int index) {
+        int position = index * RECORD_LENGTH;
+        int id = segment.mBuffer.getInt(position);
+        long timestamp = segment.mBuffer.getLong(position + 4);
+        int valueBits = segment.mBuffer.getInt(position + 12);
+        int device = segment.mBuffer.getInt(position + 16);
+        return id == segment.mFirstId + index
+                && device >= 0 && device < mDevices.size()
+                && segment.mBuffer.getInt(position + 20) == check(id, timestamp, valueBits, device);
+    }
+
+    static int check(int id, long timestamp, int valueBits, int device) {
+        int check = CHECK_SEED;
+        check = 31 * check + id;
+        check = 31 * check + (int) (timestamp ^ (timestamp >>> 32));
+        check = 31 * check + valueBits;
+        check = 31 * check + device;
+        return check;
+    }
+
+    static MappedByteBuffer map(File file, long length) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            // Mapping beyond the end of the file extends it with zeros.
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package riot.client;
+
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Stores readings on the device until the server has acknowledged them.
+ * <p>
+ * Readings have increasing ids.  The outbox keeps a sent watermark: every
+ * reading with an id up to the watermark has been acknowledged and may be
+ * discarded by {@link #compact()}.
+ * <p>
+ * Ids are the readings' sequence numbers, so the server remembers them to
+ * recognise retransmissions.  If an outbox cannot rule out giving an id to a
+ * second reading, for example because it was wiped, it starts a new epoch,
+ * and the server only compares sequence numbers within an epoch.
+ * <p>
+ * {@link SQLiteOutbox} keeps readings in the database tables and
+ * {@link MappedOutbox} in memory-mapped log files.
+ */
+public interface Outbox {
+
+    /**
+     * Prepares the outbox for use.  Must be called before anything else.
+     *
+     * @throws OutboxException
+     */
+    void open() throws OutboxException;
+
+    /**
+     * Adds a lux reading.
+     *
+     * @param deviceID
+     * @param value
+     * @param timestamp
+     * @return the reading's id
+     * @throws OutboxException
+     */
+    int append(String deviceID, float value, long timestamp) throws OutboxException;
+
+    /**
+     * Makes sure everything appended so far survives a power cut.
+     *
+     * @throws OutboxException
+     */
+    void flush() throws OutboxException;
+
+    /**
+     * Reads the next page of readings in id order.
+     *
+     * @param afterId Only readings with a larger id are returned.
+     * @param limit   The most readings to return.
+     * @param page    Cleared and filled with the readings.
+     * @throws OutboxException
+     */
+    void readPage(int afterId, int limit, List<OutboxRecord> page) throws OutboxException;
+
+    /**
+     * @return the id of the last reading known to be acknowledged, or -1
+     */
+    int getWatermark();
+
+    /**
+     * @return a random number chosen when the outbox started numbering its
+     * readings from its current ids; never 0
+     */
+    long getEpoch();
+
+    /**
+     * Records that every reading up to and including the given id has been
+     * acknowledged.  Ignored if it is not above the current watermark.
+     *
+     * @param watermark
+     * @throws OutboxException
+     */
+    void setWatermark(int watermark) throws OutboxException;
+
+    /**
+     * Keeps readings above the given id when compacting, even once they have
+     * been acknowledged, because something else on the device still needs to
+     * read them.  -1 removes the limit.
+     *
+     * @param id
+     */
+    void setCompactionLimit(int id);
+
+    /**
+     * Discards the acknowledged readings, up to the compaction limit.
+     *
+     * @throws OutboxException
+     */
+    void compact() throws OutboxException;
+
+    void close();
+
+    /**
+     * @return a new epoch for an outbox
+     */
+    static long newEpoch() {
+        SecureRandom random = new SecureRandom();
+        long epoch;
+        do {
+            epoch = random.nextLong();
+        } while (epoch == 0);
+        return epoch;
+    }
+}
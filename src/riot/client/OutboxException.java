@@ -0,0 +1,15 @@
+package riot.client;
+
+/**
+ * Indicates that the outbox could not be read from or written to.
+ */
+public class OutboxException extends Exception {
+
+    public OutboxException(String s) {
+        super(s);
+    }
+
+    public OutboxException(String s, Throwable cause) {
+        super(s, cause);
+    }
+}
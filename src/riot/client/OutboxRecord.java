@@ -0,0 +1,18 @@
+package riot.client;
+
+/**
+ * A reading waiting in the outbox to be sent to the server.
+ */
+public class OutboxRecord {
+    public final int mId;
+    public final String mDeviceID;
+    public final float mValue;
+    public final long mTimestamp;
+
+    public OutboxRecord(int id, String deviceID, float value, long timestamp) {
+        mId = id;
+        mDeviceID = deviceID;
+        mValue = value;
+        mTimestamp = timestamp;
+    }
+}
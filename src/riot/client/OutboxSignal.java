@@ -0,0 +1,41 @@
+package riot.client;
+
+/**
+ * Wakes the transmission client when new readings have been committed to the
+ * outbox, so they are sent straight away instead of at the next poll.
+ * <p>
+ * A signal sent while the client is busy is remembered, so readings committed
+ * during a pass are picked up as soon as the pass finishes.
+ */
+public class OutboxSignal {
+
+    boolean mPending = false;
+
+    /**
+     * Called by sensor writers after committing new readings.
+     */
+    public synchronized void signal() {
+        mPending = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until a signal arrives or the timeout passes, and clears it.
+     *
+     * @param timeoutMillis
+     * @return true if a signal arrived
+     * @throws InterruptedException
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (!mPending && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        boolean signalled = mPending;
+        mPending = false;
+        return signalled;
+    }
+}
@@ -0,0 +1,34 @@
+package riot.client;
+
+import riot.data.Data;
+
+import java.io.IOException;
+
+/**
+ * Writes readings to the server in the format negotiated for the connection.
+ */
+interface PacketWriter {
+
+    void writeLux(String deviceID, float value, int sequence, long timestamp)
+            throws IOException;
+
+    /**
+     * Writes a reading of any registered sensor type.
+     *
+     * @param data
+     * @throws IOException
+     */
+    void writeReading(Data data) throws IOException;
+
+    /**
+     * Sends everything written so far to the server.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * Frees anything held for the connection.  Does not close the socket.
+     */
+    void close();
+}
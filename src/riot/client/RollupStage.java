@@ -0,0 +1,405 @@
+package riot.client;
+
+import riot.data.RollupData;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarises the lux readings in the outbox into per-device windows of
+ * minimum, maximum, mean and count, so that a weak link can carry summaries
+ * when it cannot keep up with every reading.
+ * <p>
+ * New readings are read from the outbox with the same keyset query the client
+ * uses, after a watermark of its own, and folded into the open window of each
+ * size.  A window is closed once a reading after its end arrives or the clock
+ * passes its end, and is then queued in the rollup_outbox table to be sent.
+ * Readings that arrive for a window which has already closed are not counted.
+ * <p>
+ * Open windows are only held in memory.  The saved watermark stays behind the
+ * first reading of every open window, so after a restart the readings are
+ * folded in again; the rollup_closed table stops windows that had already
+ * closed from being produced twice.  The outbox must not discard readings
+ * above {@link #getRestartWatermark()}.
+ */
+public class RollupStage {
+
+    // Queries
+    static final String selectWatermark = "SELECT value FROM outbox WHERE name = ?";
+    static final String updateWatermark = "INSERT OR REPLACE INTO outbox VALUES (?, ?)";
+    static final String selectClosed = "SELECT dev_id, seconds, start FROM rollup_closed";
+    static final String updateClosed = "INSERT OR REPLACE INTO rollup_closed VALUES (?, ?, ?)";
+    static final String insertRollup = "INSERT INTO rollup_outbox (dev_id, seconds, start, min, max, mean, count) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    static final String selectRollups = "SELECT dev_id, seconds, start, min, max, mean, count, id " +
+            "FROM rollup_outbox WHERE id > ? ORDER BY id LIMIT ?";
+    static final String compactRollups = "DELETE FROM rollup_outbox WHERE id <= ?";
+
+    static final String ROLLED = "rolled";
+    static final String ROLLUPS_SENT = "rollups_sent";
+
+    static final int PAGE_SIZE = 500;
+
+    /**
+     * The readings of one device in one window.
+     */
+    static class Window {
+        final int mSeconds;
+        long mStart = Long.MIN_VALUE;  // no readings yet
+        long mLastClosed = Long.MIN_VALUE;
+        int mFirstId;
+        float mMin;
+        float mMax;
+        double mSum;
+        int mCount;
+
+        Window(int seconds) {
+            mSeconds = seconds;
+        }
+
+        boolean isOpen() {
+            return mCount > 0;
+        }
+
+        long getEnd() {
+            return mStart + mSeconds;
+        }
+
+        void add(int id, float value) {
+            if (mCount == 0) {
+                mFirstId = id;
+                mMin = value;
+                mMax = value;
+                mSum = 0;
+            }
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+            mSum += value;
+            mCount++;
+        }
+    }
+
+    final Connection mDBConnection;
+    final int[] mWindowSeconds;
+
+    // Device id to its windows, in the order of mWindowSeconds.
+    final HashMap<String, Window[]> mDevices = new HashMap<>();
+
+    // The last reading folded in, and where to start again after a restart.
+    int mProcessed = -1;
+    int mRestartWatermark = -1;
+    int mSentWatermark = -1;
+    int mCompactedTo = -1;
+
+    long mLateReadings = 0;
+
+    /**
+     * @param databaseConnection The outbox's database.
+     * @param windowSeconds      The window sizes, for example 1, 10 and 60.
+     */
+    public RollupStage(Connection databaseConnection, int... windowSeconds) {
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        if (windowSeconds.length == 0) {
+            throw new IllegalArgumentException("At least one window size is needed.");
+        }
+        for (int seconds : windowSeconds) {
+            if (seconds < 1) {
+                throw new IllegalArgumentException("Windows must be at least one second.");
+            }
+        }
+        mDBConnection = databaseConnection;
+        mWindowSeconds = windowSeconds.clone();
+    }
+
+    /**
+     * Creates the tables if needed and loads the saved state.
+     *
+     * @throws OutboxException
+     */
+    public void open() throws OutboxException {
+        try {
+            RIOTDatabase.createTables(mDBConnection);
+            mRestartWatermark = readWatermark(ROLLED);
+            mProcessed = mRestartWatermark;
+            mSentWatermark = readWatermark(ROLLUPS_SENT);
+
+            try (Statement statement = mDBConnection.createStatement();
+                 ResultSet results = statement.executeQuery(selectClosed)) {
+                while (results.next()) {
+                    Window window = getWindow(results.getString(1), results.getInt(2));
+                    if (window != null) {
+                        window.mLastClosed = results.getLong(3);
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not load the rollup state.", ex);
+        }
+    }
+
+    /**
+     * @return the id of the last reading folded into a window
+     */
+    public int getProcessed() {
+        return mProcessed;
+    }
+
+    /**
+     * @return the id after which readings are still needed to rebuild the
+     * open windows
+     */
+    public int getRestartWatermark() {
+        return mRestartWatermark;
+    }
+
+    /**
+     * @return the size of the smallest window
+     */
+    public int getShortestWindowSeconds() {
+        int shortest = Integer.MAX_VALUE;
+        for (int seconds : mWindowSeconds) {
+            shortest = Math.min(shortest, seconds);
+        }
+        return shortest;
+    }
+
+    /**
+     * @return the number of readings skipped because their window had
+     * closed, including readings folded in again after a restart
+     */
+    public long getLateReadings() {
+        return mLateReadings;
+    }
+
+    /**
+     * Folds every new reading in the outbox into its windows, closes the
+     * windows that have ended and queues them to be sent.  Each page of
+     * readings is committed in one transaction.
+     *
+     * @param nowSeconds The current time, in the units of the readings'
+     *                   timestamps.
+     * @throws OutboxException
+     */
+    public void update(long nowSeconds) throws OutboxException {
+        try (PreparedStatement query = mDBConnection.prepareStatement(RIOTDatabase.LUX_PAGE_QUERY);
+             PreparedStatement insert = mDBConnection.prepareStatement(insertRollup);
+             PreparedStatement closed = mDBConnection.prepareStatement(updateClosed);
+             PreparedStatement watermark = mDBConnection.prepareStatement(updateWatermark)) {
+
+            boolean more = true;
+            while (more) {
+                mDBConnection.setAutoCommit(false);
+                try {
+                    int read = 0;
+                    query.setInt(1, mProcessed);
+                    query.setInt(2, PAGE_SIZE);
+                    try (ResultSet results = query.executeQuery()) {
+                        while (results.next()) {
+                            fold(insert, closed, results.getString("dev_id"), results.getInt("id"),
+                                    results.getFloat("lux"), results.getLong("real_date"));
+                            read++;
+                        }
+                    }
+                    more = read == PAGE_SIZE;
+                    if (!more) {
+                        closeEnded(insert, closed, nowSeconds);
+                    }
+
+                    int restart = restartPoint();
+                    watermark.setString(1, ROLLED);
+                    watermark.setInt(2, restart);
+                    watermark.executeUpdate();
+                    mDBConnection.commit();
+                    mRestartWatermark = restart;
+                } catch (SQLException ex) {
+                    mDBConnection.rollback();
+                    // The windows in memory no longer match what was saved.
+                    mDevices.clear();
+                    mProcessed = mRestartWatermark;
+                    open();
+                    throw ex;
+                } finally {
+                    mDBConnection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not update the rollups.", ex);
+        }
+    }
+
+    /**
+     * Reads the next page of queued rollups in id order.
+     *
+     * @param afterId
+     * @param limit
+     * @param page    Cleared and filled with the rollups.
+     * @throws OutboxException
+     */
+    public void readPage(int afterId, int limit, List<RollupData> page) throws OutboxException {
+        page.clear();
+        try (PreparedStatement query = mDBConnection.prepareStatement(selectRollups)) {
+            query.setInt(1, afterId);
+            query.setInt(2, limit);
+            try (ResultSet results = query.executeQuery()) {
+                while (results.next()) {
+                    page.add(new RollupData(results.getString(1), results.getInt(2),
+                            results.getFloat(4), results.getFloat(5), results.getFloat(6),
+                            results.getInt(7), results.getInt(8), results.getLong(3)));
+                }
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not read the rollups.", ex);
+        }
+    }
+
+    /**
+     * @return the id of the last rollup known to be acknowledged, or -1
+     */
+    public int getSentWatermark() {
+        return mSentWatermark;
+    }
+
+    /**
+     * Records that every rollup up to the given id has been acknowledged.
+     *
+     * @param watermark
+     * @throws OutboxException
+     */
+    public void setSentWatermark(int watermark) throws OutboxException {
+        if (watermark <= mSentWatermark) {
+            return;
+        }
+        try (PreparedStatement statement = mDBConnection.prepareStatement(updateWatermark)) {
+            statement.setString(1, ROLLUPS_SENT);
+            statement.setInt(2, watermark);
+            statement.executeUpdate();
+            mSentWatermark = watermark;
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not update the rollup watermark.", ex);
+        }
+    }
+
+    /**
+     * Deletes the acknowledged rollups.
+     *
+     * @throws OutboxException
+     */
+    public void compact() throws OutboxException {
+        if (mSentWatermark <= mCompactedTo) {
+            return;
+        }
+        try (PreparedStatement statement = mDBConnection.prepareStatement(compactRollups)) {
+            statement.setInt(1, mSentWatermark);
+            statement.executeUpdate();
+            mCompactedTo = mSentWatermark;
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not compact the rollups.", ex);
+        }
+    }
+
+    void fold(PreparedStatement insert, PreparedStatement closed, String deviceID, int id,
+              float value, long timestamp) throws SQLException {
+        Window[] windows = getWindows(deviceID);
+        for (Window window : windows) {
+            long start = timestamp - Math.floorMod(timestamp, (long) window.mSeconds);
+            if (start <= window.mLastClosed || (window.isOpen() && start < window.mStart)) {
+                mLateReadings++;
+                continue;
+            }
+            if (window.isOpen() && start > window.mStart) {
+                close(insert, closed, deviceID, window);
+            }
+            if (!window.isOpen()) {
+                window.mStart = start;
+            }
+            window.add(id, value);
+        }
+        mProcessed = id;
+    }
+
+    void closeEnded(PreparedStatement insert, PreparedStatement closed, long nowSeconds)
+            throws SQLException {
+        for (Map.Entry<String, Window[]> device : mDevices.entrySet()) {
+            for (Window window : device.getValue()) {
+                if (window.isOpen() && window.getEnd() <= nowSeconds) {
+                    close(insert, closed, device.getKey(), window);
+                }
+            }
+        }
+    }
+
+    void close(PreparedStatement insert, PreparedStatement closed, String deviceID, Window window)
+            throws SQLException {
+        insert.setString(1, deviceID);
+        insert.setInt(2, window.mSeconds);
+        insert.setLong(3, window.mStart);
+        insert.setFloat(4, window.mMin);
+        insert.setFloat(5, window.mMax);
+        insert.setFloat(6, (float) (window.mSum / window.mCount));
+        insert.setInt(7, window.mCount);
+        insert.executeUpdate();
+
+        closed.setString(1, deviceID);
+        closed.setInt(2, window.mSeconds);
+        closed.setLong(3, window.mStart);
+        closed.executeUpdate();
+
+        window.mLastClosed = window.mStart;
+        window.mCount = 0;
+    }
+
+    /**
+     * @return the id before the first reading of any open window, or the
+     * last reading folded in if no window is open
+     */
+    int restartPoint() {
+        int restart = mProcessed;
+        for (Window[] windows : mDevices.values()) {
+            for (Window window : windows) {
+                if (window.isOpen()) {
+                    restart = Math.min(restart, window.mFirstId - 1);
+                }
+            }
+        }
+        return restart;
+    }
+
+    Window[] getWindows(String deviceID) {
+        Window[] windows = mDevices.get(deviceID);
+        if (windows == null) {
+            windows = new Window[mWindowSeconds.length];
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = new Window(mWindowSeconds[i]);
+            }
+            mDevices.put(deviceID, windows);
+        }
+        return windows;
+    }
+
+    Window getWindow(String deviceID, int seconds) {
+        for (Window window : getWindows(deviceID)) {
+            if (window.mSeconds == seconds) {
+                return window;
+            }
+        }
+        return null;
+    }
+
+    int readWatermark(String name) throws SQLException {
+        try (PreparedStatement statement = mDBConnection.prepareStatement(selectWatermark)) {
+            statement.setString(1, name);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getInt(1) : -1;
+            }
+        }
+    }
+}
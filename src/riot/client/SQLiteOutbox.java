@@ -0,0 +1,215 @@
+package riot.client;
+
+import riot.database.RIOTDatabase;
+import riot.util.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * An outbox stored in the entry and lux tables of the RIOT database.
+ * <p>
+ * Pages are read with a keyset query on the entry id so no read cursor is
+ * held open between pages, and the write ahead log can be checkpointed while
+ * a backlog is being sent.
+ */
+public class SQLiteOutbox implements Outbox {
+
+    static final String TAG = "SQLiteOutbox";
+
+    // Queries
+    static final String selectWatermark = "SELECT value FROM outbox WHERE name = 'sent'";
+    static final String updateWatermark = "INSERT OR REPLACE INTO outbox VALUES ('sent', ?)";
+    static final String selectEpoch = "SELECT value FROM outbox WHERE name = 'epoch'";
+    static final String insertEpoch = "INSERT OR IGNORE INTO outbox VALUES ('epoch', ?)";
+    static final String compactLux = "DELETE FROM lux WHERE id <= ?";
+    static final String compactEntry = "DELETE FROM entry WHERE id <= ?";
+    static final String insertEntry = "INSERT INTO entry VALUES (?, ?, ?, ?)";
+    static final String insertLux = "INSERT INTO lux VALUES (?, ?)";
+
+    final Connection mDBConnection;
+
+    int mWatermark = -1;
+    long mEpoch = 0;
+    int mCompactedTo = -1;
+    int mCompactionLimit = -1;
+    int mNextId = -1;
+
+    public SQLiteOutbox(Connection databaseConnection) {
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        mDBConnection = databaseConnection;
+    }
+
+    /**
+     * Checks the structure of the database and loads the sent watermark and
+     * the epoch.  A new database gets a new epoch.  Ids are kept above the
+     * watermark (see {@link RIOTDatabase#getNextEntryId}), so they only start
+     * again along with the database.
+     *
+     * @throws OutboxException
+     */
+    @Override
+    public void open() throws OutboxException {
+        try {
+            RIOTDatabase.createTables(mDBConnection);
+            try (Statement statement = mDBConnection.createStatement();
+                 ResultSet results = statement.executeQuery(selectWatermark)) {
+                mWatermark = results.next() ? results.getInt(1) : -1;
+            }
+            try (PreparedStatement statement = mDBConnection.prepareStatement(insertEpoch)) {
+                statement.setLong(1, Outbox.newEpoch());
+                statement.executeUpdate();
+            }
+            try (Statement statement = mDBConnection.createStatement();
+                 ResultSet results = statement.executeQuery(selectEpoch)) {
+                mEpoch = results.next() ? results.getLong(1) : 0;
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not verify database structure.", ex);
+        }
+    }
+
+    /**
+     * Inserts the entry and lux rows in one transaction.  The readings of a
+     * {@link riot.pizero.SampleWriter} go straight into the tables instead.
+     */
+    @Override
+    public int append(String deviceID, float value, long timestamp) throws OutboxException {
+        try (PreparedStatement entryStatement = mDBConnection.prepareStatement(insertEntry);
+             PreparedStatement luxStatement = mDBConnection.prepareStatement(insertLux)) {
+            try {
+                mDBConnection.setAutoCommit(false);
+                RIOTDatabase.registerDevice(mDBConnection, deviceID);
+                int id = mNextId < 0 ? RIOTDatabase.getNextEntryId(mDBConnection) : mNextId;
+
+                entryStatement.setLong(1, System.currentTimeMillis() / 1000L);
+                entryStatement.setLong(2, timestamp);
+                entryStatement.setString(3, deviceID);
+                entryStatement.setInt(4, id);
+                entryStatement.executeUpdate();
+                luxStatement.setFloat(1, value);
+                luxStatement.setInt(2, id);
+                luxStatement.executeUpdate();
+                mDBConnection.commit();
+
+                mNextId = id + 1;
+                return id;
+            } catch (SQLException ex) {
+                mDBConnection.rollback();
+                throw ex;
+            } finally {
+                mDBConnection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not append to the outbox.", ex);
+        }
+    }
+
+    /**
+     * Does nothing, as every append is committed.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void readPage(int afterId, int limit, List<OutboxRecord> page) throws OutboxException {
+        page.clear();
+
+        // The result set is closed before returning so the read transaction
+        // only lasts as long as the page.
+        try (PreparedStatement query = mDBConnection.prepareStatement(RIOTDatabase.LUX_PAGE_QUERY)) {
+            query.setInt(1, afterId);
+            query.setInt(2, limit);
+            try (ResultSet results = query.executeQuery()) {
+                while (results.next()) {
+                    page.add(new OutboxRecord(results.getInt("id"),
+                            results.getString("dev_id"),
+                            results.getFloat("lux"),
+                            results.getLong("real_date")));
+                }
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not read from the outbox.", ex);
+        }
+    }
+
+    @Override
+    public int getWatermark() {
+        return mWatermark;
+    }
+
+    @Override
+    public long getEpoch() {
+        return mEpoch;
+    }
+
+    @Override
+    public void setWatermark(int watermark) throws OutboxException {
+        if (watermark <= mWatermark) {
+            return;
+        }
+
+        try (PreparedStatement statement = mDBConnection.prepareStatement(updateWatermark)) {
+            statement.setInt(1, watermark);
+            statement.executeUpdate();
+            mWatermark = watermark;
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not update the sent watermark.", ex);
+        }
+    }
+
+    @Override
+    public void setCompactionLimit(int id) {
+        mCompactionLimit = id;
+    }
+
+    /**
+     * Deletes every acknowledged row in a single transaction.  Both tables are
+     * indexed on id so this takes time proportional to the rows deleted.
+     */
+    @Override
+    public void compact() throws OutboxException {
+        int compactTo = mCompactionLimit < 0 ? mWatermark : Math.min(mWatermark, mCompactionLimit);
+        if (compactTo <= mCompactedTo) {
+            return;
+        }
+
+        try (PreparedStatement compactLuxStmt = mDBConnection.prepareStatement(compactLux);
+             PreparedStatement compactEntryStmt = mDBConnection.prepareStatement(compactEntry)) {
+            try {
+                mDBConnection.setAutoCommit(false);
+                compactLuxStmt.setInt(1, compactTo);
+                int deleted = compactLuxStmt.executeUpdate();
+                compactEntryStmt.setInt(1, compactTo);
+                compactEntryStmt.executeUpdate();
+                mDBConnection.commit();
+
+                mCompactedTo = compactTo;
+                Log.d(TAG, "Compacted %d acknowledged rows.", deleted);
+            } catch (SQLException ex) {
+                mDBConnection.rollback();
+                throw ex;
+            } finally {
+                mDBConnection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            throw new OutboxException("Could not compact the outbox.", ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            mDBConnection.close();
+        } catch (SQLException e) {
+            // Ignore problems when closing.
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package riot.client;
+
+import riot.network.WireFormat;
+import riot.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connection to the data reception server which is kept open across
+ * transmission passes.
+ * <p>
+ * Connecting opens the socket with Nagle's algorithm disabled, so small
+ * batches are not held back, and TCP keepalive enabled, so a server which
+ * disappears while the client is idle is noticed.  The wire format is
+ * negotiated once per connection.  After any error the connection is closed
+ * and the next {@link #connect()} opens a new one.
+ */
+class ServerConnection implements AutoCloseable {
+
+    static final String TAG = "ServerConnection";
+
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int READ_TIMEOUT_MILLIS = 1000;
+
+    final String mServerIP;
+    final int mServerPort;
+    boolean mOfferBinary = true;
+    boolean mOfferCompression = true;
+    // Sent in the hello line; see WireFormat.
+    long mEpoch = 0;
+
+    Socket mSocket;
+    BufferedReader mReader;
+    PacketWriter mPacketWriter;
+
+    ServerConnection(String serverIP, int serverPort) {
+        mServerIP = serverIP;
+        mServerPort = serverPort;
+    }
+
+    void setOfferBinary(boolean offerBinary) {
+        mOfferBinary = offerBinary;
+    }
+
+    void setOfferCompression(boolean offerCompression) {
+        mOfferCompression = offerCompression;
+    }
+
+    /**
+     * @param epoch The epoch of the outbox the readings are numbered by.
+     */
+    void setEpoch(long epoch) {
+        mEpoch = epoch;
+    }
+
+    boolean isOpen() {
+        return mSocket != null;
+    }
+
+    /**
+     * Opens the connection and negotiates the format, unless it is already
+     * open.
+     *
+     * @throws IOException
+     */
+    void connect() throws IOException {
+        if (isOpen()) {
+            return;
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(mServerIP, mServerPort), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+
+            OutputStream socketOut = new BufferedOutputStream(socket.getOutputStream());
+            PrintWriter socketWriter = new PrintWriter(new OutputStreamWriter(
+                    socketOut, StandardCharsets.UTF_8), false);
+            BufferedReader socketReader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+
+            mPacketWriter = negotiateFormat(socketOut, socketWriter, socketReader);
+            mReader = socketReader;
+            mSocket = socket;
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    PacketWriter getPacketWriter() {
+        return mPacketWriter;
+    }
+
+    BufferedReader getReader() {
+        return mReader;
+    }
+
+    /**
+     * Offers the binary format, with compression if enabled, to the server and
+     * returns a writer for the format the server chose.  Servers that do not
+     * understand the offer do not reply, so a timeout falls back to text.
+     */
+    PacketWriter negotiateFormat(OutputStream socketOut, PrintWriter socketWriter,
+                                 BufferedReader socketReader) throws IOException {
+        TextPacketWriter textWriter = new TextPacketWriter(socketWriter);
+        if (!mOfferBinary) {
+            return textWriter;
+        }
+
+        if (mOfferCompression) {
+            socketWriter.println(WireFormat.hello(mEpoch, WireFormat.DEFLATE, WireFormat.BINARY, WireFormat.TEXT));
+        } else {
+            socketWriter.println(WireFormat.hello(mEpoch, WireFormat.BINARY, WireFormat.TEXT));
+        }
+        textWriter.flush();
+
+        String format = null;
+        try {
+            format = WireFormat.parseFormatReply(socketReader.readLine());
+        } catch (SocketTimeoutException ex) {
+            Log.i(TAG, "Server did not negotiate a format, sending text.");
+        }
+
+        if (WireFormat.DEFLATE.equals(format)) {
+            return new BinaryPacketWriter(socketOut, true);
+        }
+        if (WireFormat.BINARY.equals(format)) {
+            return new BinaryPacketWriter(socketOut, false);
+        }
+        return textWriter;
+    }
+
+    /**
+     * Closes the connection.  Does nothing if it is not open.
+     */
+    @Override
+    public void close() {
+        if (mSocket != null) {
+            try {
+                mSocket.close();
+            } catch (IOException ex) {
+                // Ignore problems when closing.
+            }
+        }
+        if (mPacketWriter != null) {
+            mPacketWriter.close();
+        }
+        mSocket = null;
+        mReader = null;
+        mPacketWriter = null;
+    }
+}
@@ -0,0 +1,41 @@
+package riot.client;
+
+import riot.data.Data;
+import riot.data.LuxData;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes readings as lines of text, the original transmission format.
+ */
+class TextPacketWriter implements PacketWriter {
+
+    final PrintWriter mWriter;
+
+    TextPacketWriter(PrintWriter writer) {
+        mWriter = writer;
+    }
+
+    @Override
+    public void writeLux(String deviceID, float value, int sequence, long timestamp) {
+        mWriter.println(LuxData.formatPacket(deviceID, value, sequence, timestamp));
+    }
+
+    @Override
+    public void writeReading(Data data) {
+        mWriter.println(data.getType().formatPacket(data));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+        if (mWriter.checkError()) {
+            throw new IOException("Could not write to the server.");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
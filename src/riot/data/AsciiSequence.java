@@ -0,0 +1,66 @@
+package riot.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a range of bytes in a buffer as characters, so that text packets
+ * can be parsed where they were received without first being copied into a
+ * String.  Each byte is one character, which is correct for the ASCII that
+ * packets are made of.
+ * <p>
+ * The view does not copy the bytes, so it is only valid until the buffer is
+ * changed.  It is meant to be re-wrapped for each packet.
+ */
+public class AsciiSequence implements CharSequence {
+    ByteBuffer mBuffer;
+    int mStart;
+    int mEnd;
+
+    /**
+     * Points the view at a range of the buffer, using absolute positions.
+     *
+     * @param buffer
+     * @param start  The index of the first byte.
+     * @param end    The index after the last byte.
+     * @return this view
+     */
+    public AsciiSequence wrap(ByteBuffer buffer, int start, int end) {
+        if (start < 0 || end < start || end > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Invalid range: " + start + " to " + end);
+        }
+        mBuffer = buffer;
+        mStart = start;
+        mEnd = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return mEnd - mStart;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return (char) (mBuffer.get(mStart + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("Invalid range: " + start + " to " + end);
+        }
+        return new AsciiSequence().wrap(mBuffer, mStart + start, mStart + end);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(length());
+        for (int i = mStart; i < mEnd; i++) {
+            builder.append((char) (mBuffer.get(i) & 0xFF));
+        }
+        return builder.toString();
+    }
+}
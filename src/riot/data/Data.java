@@ -1,6 +1,9 @@
 package riot.data;
 
+import riot.database.BatchInserter;
+
 import java.sql.Connection;
+import java.sql.SQLException;
 
 /**
  * Created by marianne on 24/01/17.
@@ -9,10 +12,78 @@ public abstract class Data {
     long mTime;
     String mDeviceID;
     int mSequence;
+    long mEpoch;
+
+    /**
+     * @return the kind of reading
+     */
+    public abstract SensorType getType();
+
+    /**
+     * Returns one of the reading's values, in the order of its type's
+     * columns.
+     *
+     * @param column Between 0 and the type's value count.
+     * @return
+     */
+    public abstract float getValue(int column);
+
+    /**
+     * Inserts the reading into the database.
+     *
+     * @param connection
+     * @return true if the reading was committed
+     */
+    public abstract boolean insertIntoDatabase(Connection connection);
+
+    /**
+     * Adds the reading's sensor values to batched insert statements.  The
+     * entry row with the given id is added by the caller.
+     *
+     * @param inserter Supplies the cached statements for the batch.
+     * @param entryID  The id of the reading's entry row.
+     * @throws SQLException
+     */
+    public abstract void addToBatch(BatchInserter inserter, int entryID) throws SQLException;
+
+    public String getDeviceID() {
+        return mDeviceID;
+    }
 
-    public abstract void insertIntoDatabase(Connection connection);
+    /**
+     * @return the time the reading was taken
+     */
+    public long getTimestamp() {
+        return mTime;
+    }
 
     public int getSequence() {
         return mSequence;
     }
+
+    /**
+     * Sequence numbers are only unique within the epoch of the client that
+     * numbered them, which changes when the client's outbox starts again.
+     *
+     * @return the client's epoch, or 0 if the client did not send one
+     */
+    public long getEpoch() {
+        return mEpoch;
+    }
+
+    public void setEpoch(long epoch) {
+        mEpoch = epoch;
+    }
+
+    /**
+     * Returns the key that the reading's sequence number is counted under
+     * for acknowledgements and duplicate detection.  Readings which are
+     * numbered separately from a device's raw readings, such as rollups, use a
+     * different stream from the device.
+     *
+     * @return the device id, unless the type has its own sequence
+     */
+    public String getStreamID() {
+        return mDeviceID;
+    }
 }
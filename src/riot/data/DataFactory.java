@@ -1,9 +1,17 @@
 package riot.data;
 
+import riot.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
 /**
  * Examines a line of data and interprets it, wrapping it in the appropriate
  * data class.
- *
+ * <p>
+ * The first field of a packet is its type, which selects the
+ * {@link PacketParser} used for the remaining fields.  Further packet types
+ * can be added with {@link #register}.
+ * <p>
  * Supported packet types:
  * LUX
  *
@@ -11,25 +19,97 @@ package riot.data;
  */
 public class DataFactory {
 
+    static final String TAG = "DataFactory";
+    static final Log.Limit PACKET_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+
+    // Registered packet types and their parsers, at matching indices.  The
+    // arrays are replaced rather than modified so they can be read without
+    // locking.
+    static volatile String[] sTypes = new String[0];
+    static volatile PacketParser[] sParsers = new PacketParser[0];
+
+    static final ThreadLocal<PacketScanner> sScanner = new ThreadLocal<PacketScanner>() {
+        @Override
+        protected PacketScanner initialValue() {
+            return new PacketScanner();
+        }
+    };
+
+    static {
+        for (SensorType type : SensorType.getTypes()) {
+            register(type.getName(), type);
+        }
+    }
+
+    /**
+     * Adds a packet type, or replaces the parser of an existing one.
+     *
+     * @param type   The first field of packets of this type.
+     * @param parser
+     */
+    public static synchronized void register(String type, PacketParser parser) {
+        if (type == null) {
+            throw new NullPointerException("Packet type cannot be null.");
+        }
+        if (parser == null) {
+            throw new NullPointerException("Parser cannot be null.");
+        }
+        if (type.isEmpty() || type.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Packet type must be a single field.");
+        }
+
+        String[] types = sTypes;
+        PacketParser[] parsers = sParsers;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].equals(type)) {
+                parsers = parsers.clone();
+                parsers[i] = parser;
+                sParsers = parsers;
+                return;
+            }
+        }
+
+        String[] newTypes = new String[types.length + 1];
+        PacketParser[] newParsers = new PacketParser[parsers.length + 1];
+        System.arraycopy(types, 0, newTypes, 0, types.length);
+        System.arraycopy(parsers, 0, newParsers, 0, parsers.length);
+        newTypes[types.length] = type;
+        newParsers[parsers.length] = parser;
+        sParsers = newParsers;
+        sTypes = newTypes;
+    }
+
     /**
      * Returns the appropriate data type by examining the format of the
-     * packet.
+     * packet.  The packet is read in place, so it may be a reused view such as
+     * an {@link AsciiSequence}.
      * @param packet
-     * @return
+     * @return the reading, or null if the packet could not be interpreted
      */
-    public static Data getData(String packet) {
-        String[] split = packet.split(" ");
-
-        // check if lux packet
-        if (split[0].compareTo("lux") == 0
-                && split.length == LuxData.mPacketLength) {
-
-            return new LuxData(split[1], Float.valueOf(split[2]),
-                    Integer.valueOf(split[3]), Long.valueOf(split[4]));
-        } else {
-            System.err.println("Could not determine packet type.");
-            System.err.println("\t" + packet);
-            return null;
+    public static Data getData(CharSequence packet) {
+        PacketScanner scanner = sScanner.get().reset(packet);
+
+        String[] types = sTypes;
+        PacketParser[] parsers = sParsers;
+        for (int i = 0; i < types.length && i < parsers.length; i++) {
+            if (!scanner.nextEquals(types[i])) {
+                continue;
+            }
+
+            try {
+                Data data = parsers[i].parse(scanner);
+                if (!scanner.atEnd()) {
+                    throw new MalformedPacketException("Unexpected fields after " + types[i] + " packet.");
+                }
+                return data;
+            } catch (MalformedPacketException ex) {
+                Log.limited(Log.Level.WARN, PACKET_LIMIT, TAG, "Could not interpret packet: %s (%s)",
+                        ex.getMessage(), packet);
+                return null;
+            }
         }
+
+        Log.limited(Log.Level.WARN, PACKET_LIMIT, TAG, "Could not determine packet type: %s", packet);
+        return null;
     }
 }
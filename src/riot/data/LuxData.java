@@ -1,101 +1,69 @@
 package riot.data;
 
+import riot.database.BatchInserter;
+
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Calendar;
 
 /**
- * Represents lux data received from a sensor and the query used to insert it into
- * the database.
+ * Represents lux data received from a sensor.  It is stored in the lux table
+ * by {@link SensorType#LUX}.
  * Created by marianne on 24/01/17.
  */
 public class LuxData extends Data {
     static final String mPacketType = "lux";
-    static final int mPacketLength = 5;
-    static final String mLuxInsertQuery = "INSERT INTO lux VALUES (?)";
-    static final String mEntryInsertQuery = "INSERT INTO entry VALUES (?, ?, ?, 0)";
 
-    String mDeviceID;
     float mValue;
-    long mTimestamp;
 
     public LuxData(String deviceID, float value, int sequence, long timestamp) {
         mDeviceID = deviceID;
         mValue = value;
         mSequence = sequence;
-        mTimestamp = timestamp;
+        mTime = timestamp;
     }
 
     /**
-     * Inserts data into the given database using PreparedStatements.
+     * Formats a reading as a text packet which {@link DataFactory#getData}
+     * can interpret:
+     * <pre>
+     *     lux &lt;device id&gt; &lt;value&gt; &lt;sequence&gt; &lt;timestamp&gt;
+     * </pre>
      *
-     * @param connection
-     * @throws SQLException See https://docs.oracle.com/javase/tutorial/jdbc/basics/transactions.html
+     * @param deviceID
+     * @param value
+     * @param sequence
+     * @param timestamp
+     * @return
      */
-    public void insertIntoDatabase(Connection connection) {
-
-        PreparedStatement luxStatement = null;
-        PreparedStatement entryStatement = null;
-
-        // Both statements need to be committed, otherwise a rollback will
-        // be neccessary.
-        try {
-            connection.setAutoCommit(false);
-
-            // lux table insert
-            luxStatement = connection.prepareStatement(mLuxInsertQuery);
-            luxStatement.setFloat(1, mValue);
-            luxStatement.executeUpdate();
-
-            entryStatement = connection.prepareStatement(mEntryInsertQuery);
-            entryStatement.setLong(1, getCurrentTimeStamp());
-            entryStatement.setLong(2, mTimestamp);
-            entryStatement.setString(3, mDeviceID);
-            entryStatement.executeUpdate();
+    public static String formatPacket(String deviceID, float value, int sequence, long timestamp) {
+        return mPacketType + " " + deviceID + " " + value + " " + sequence + " " + timestamp;
+    }
 
-            // commit both statements
-            connection.commit();
-        } catch (SQLException ex) {
-            // rollback any transactions that have been done
-            if (connection != null) {
-                try {
-                    System.err.print("Transaction is being rolled back.");
-                    connection.rollback();
-                } catch (SQLException ex2) {
-                    System.err.print("Could not rollback transactions.");
-                    ex2.printStackTrace();
-                }
-            }
-        } finally {
-            try {
-                if (luxStatement != null) {
-                    luxStatement.close();
-                }
-            } catch (SQLException ex) {
-                // ignore: ending transaction
-            }
+    /**
+     * Inserts the reading and its entry in one transaction.
+     *
+     * @param connection
+     * @return true if both rows were committed
+     */
+    @Override
+    public boolean insertIntoDatabase(Connection connection) {
+        return SensorType.LUX.insert(connection, this);
+    }
 
-            try {
-                if (entryStatement != null) {
-                    entryStatement.close();
-                }
-            } catch (SQLException ex) {
-                // ignore: ending transaction
-            }
+    @Override
+    public SensorType getType() {
+        return SensorType.LUX;
+    }
 
-            try {
-                connection.setAutoCommit(true);
-            } catch (SQLException ex) {
-                System.err.println("Could not re-enable auto-commit.");
-            }
+    @Override
+    public float getValue(int column) {
+        if (column != 0) {
+            throw new IndexOutOfBoundsException("Lux readings have one value.");
         }
+        return mValue;
     }
 
-    // TODO: Find better place for this function.
-    long getCurrentTimeStamp() {
-        Calendar calendar = Calendar.getInstance();
-        return calendar.getTimeInMillis() / 1000L;
+    @Override
+    public void addToBatch(BatchInserter inserter, int entryID) {
+        SensorType.LUX.addToBatch(inserter, this, entryID);
     }
 }
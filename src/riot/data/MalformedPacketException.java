@@ -0,0 +1,11 @@
+package riot.data;
+
+/**
+ * Indicates that a text packet could not be interpreted.
+ */
+public class MalformedPacketException extends Exception {
+
+    public MalformedPacketException(String s) {
+        super(s);
+    }
+}
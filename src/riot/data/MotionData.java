@@ -0,0 +1,65 @@
+package riot.data;
+
+import riot.database.BatchInserter;
+import riot.database.ColumnBatch;
+
+import java.sql.Connection;
+
+/**
+ * Represents one sample from an inertial measurement unit: gyroscope and
+ * accelerometer on three axes, two magnetometer axes and an intensity value,
+ * in the columns of the motion table.
+ * <p>
+ * IMUs are sampled at tens to hundreds of times a second, so readings are
+ * normally stored through {@link #addToBatch}, which adds them to a
+ * {@link ColumnBatch} that is inserted many rows per statement.
+ */
+public class MotionData extends Data {
+    static final String[] COLUMNS = {"gx", "gy", "gz", "ax", "ay", "az", "mx", "my", "int"};
+
+    final float[] mValues = new float[COLUMNS.length];
+
+    /**
+     * @param deviceID
+     * @param values    The values in the order of the motion table's columns.
+     *                  Only the first nine are used; they are copied.
+     * @param sequence
+     * @param timestamp
+     */
+    public MotionData(String deviceID, float[] values, int sequence, long timestamp) {
+        if (values.length < COLUMNS.length) {
+            throw new IllegalArgumentException("Motion readings have " + COLUMNS.length + " values.");
+        }
+        mDeviceID = deviceID;
+        System.arraycopy(values, 0, mValues, 0, COLUMNS.length);
+        mSequence = sequence;
+        mTime = timestamp;
+    }
+
+    @Override
+    public SensorType getType() {
+        return SensorType.MOTION;
+    }
+
+    @Override
+    public float getValue(int column) {
+        return mValues[column];
+    }
+
+    /**
+     * Inserts the reading and its entry in one transaction.  Prefer batching
+     * through the ingestion writer for streams of readings.
+     *
+     * @param connection
+     * @return true if both rows were committed
+     */
+    @Override
+    public boolean insertIntoDatabase(Connection connection) {
+        return SensorType.MOTION.insert(connection, this);
+    }
+
+    @Override
+    public void addToBatch(BatchInserter inserter, int entryID) {
+        SensorType.MOTION.addToBatch(inserter, this, entryID);
+    }
+}
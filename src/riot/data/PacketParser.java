@@ -0,0 +1,19 @@
+package riot.data;
+
+/**
+ * Interprets the fields of one type of text packet.  Parsers are registered
+ * with {@link DataFactory#register} under the packet type, which is the first
+ * field of the packet.
+ */
+public interface PacketParser {
+
+    /**
+     * Reads the fields following the packet type.  The factory checks that
+     * nothing is left over afterwards.
+     *
+     * @param scanner Positioned after the packet type.
+     * @return the reading
+     * @throws MalformedPacketException if a field is missing or invalid
+     */
+    Data parse(PacketScanner scanner) throws MalformedPacketException;
+}
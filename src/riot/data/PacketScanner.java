@@ -0,0 +1,285 @@
+package riot.data;
+
+/**
+ * Reads the space separated fields of a text packet directly into primitive
+ * values, without splitting the packet into strings.
+ * <p>
+ * The only allocation is for device ids: the most recently seen ids are
+ * cached so that packets from known devices reuse the same String.
+ * <p>
+ * A scanner is not thread safe; use one per thread.
+ */
+public class PacketScanner {
+
+    // Powers of ten which are exactly representable as floats.
+    static final float[] FLOAT_POW10 = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    // Integers up to this size are exactly representable as floats.
+    static final long FLOAT_EXACT_LIMIT = 1L << 24;
+
+    static final int DEVICE_CACHE_SIZE = 64; // power of two
+
+    CharSequence mPacket;
+    int mPosition;
+    int mLength;
+
+    // Start and end of the token found by the last call to nextToken().
+    int mTokenStart;
+    int mTokenEnd;
+
+    final String[] mDeviceCache = new String[DEVICE_CACHE_SIZE];
+
+    // Holds the values of one reading while it is parsed.
+    final float[] mValues = new float[SensorType.MAX_VALUES];
+
+    /**
+     * Starts scanning a new packet.
+     *
+     * @param packet
+     * @return this scanner
+     */
+    public PacketScanner reset(CharSequence packet) {
+        mPacket = packet;
+        mPosition = 0;
+        mLength = packet.length();
+        return this;
+    }
+
+    /**
+     * @return the packet being scanned
+     */
+    public CharSequence getPacket() {
+        return mPacket;
+    }
+
+    /**
+     * Returns an array which parsers may use to collect the values of one
+     * reading.  Its contents are overwritten by the next packet.
+     *
+     * @return an array of {@link SensorType#MAX_VALUES} floats
+     */
+    public float[] getValueScratch() {
+        return mValues;
+    }
+
+    /**
+     * @return true if there are no fields left
+     */
+    public boolean atEnd() {
+        skipSpaces();
+        return mPosition == mLength;
+    }
+
+    /**
+     * Checks whether the next field is the given text, and moves past it if
+     * it is.
+     *
+     * @param text
+     * @return true if the next field was the text
+     */
+    public boolean nextEquals(String text) {
+        int start = mPosition;
+        if (!nextToken() || !tokenEquals(text)) {
+            mPosition = start;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next field as a device id.
+     *
+     * @return the device id, shared with earlier packets from the same device
+     * @throws MalformedPacketException if there are no fields left
+     */
+    public String nextDeviceID() throws MalformedPacketException {
+        require("device id");
+
+        int hash = 0;
+        for (int i = mTokenStart; i < mTokenEnd; i++) {
+            hash = 31 * hash + mPacket.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (DEVICE_CACHE_SIZE - 1);
+
+        String cached = mDeviceCache[slot];
+        if (cached != null && tokenEquals(cached)) {
+            return cached;
+        }
+        String deviceID = mPacket.subSequence(mTokenStart, mTokenEnd).toString();
+        mDeviceCache[slot] = deviceID;
+        return deviceID;
+    }
+
+    /**
+     * Reads the next field as a decimal integer.
+     *
+     * @return
+     * @throws MalformedPacketException if the field is missing, not a number
+     *                                  or out of range
+     */
+    public int nextInt() throws MalformedPacketException {
+        long value = parseLong("integer");
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw malformed("integer");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the next field as a decimal long.
+     *
+     * @return
+     * @throws MalformedPacketException if the field is missing, not a number
+     *                                  or out of range
+     */
+    public long nextLong() throws MalformedPacketException {
+        return parseLong("long");
+    }
+
+    /**
+     * Reads the next field as a float.  Plain decimals with up to seven
+     * significant digits, which covers what sensors send, are converted
+     * directly.  Anything else, such as exponents, is given to
+     * {@link Float#parseFloat}.
+     *
+     * @return
+     * @throws MalformedPacketException if the field is missing or not a number
+     */
+    public float nextFloat() throws MalformedPacketException {
+        require("float");
+
+        int i = mTokenStart;
+        boolean negative = false;
+        char c = mPacket.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; // -1 until the decimal point
+        for (; i < mTokenEnd; i++) {
+            c = mPacket.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (++digits > 18) {
+                    return parseFloatFallback();
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseFloatFallback();
+            }
+        }
+        if (digits == 0) {
+            throw malformed("float");
+        }
+        if (fractionDigits < 0) {
+            fractionDigits = 0;
+        }
+
+        // Both operands are exact, so the division rounds correctly.
+        if (mantissa > FLOAT_EXACT_LIMIT || fractionDigits >= FLOAT_POW10.length) {
+            return parseFloatFallback();
+        }
+        float value = mantissa / FLOAT_POW10[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    float parseFloatFallback() throws MalformedPacketException {
+        try {
+            return Float.parseFloat(mPacket.subSequence(mTokenStart, mTokenEnd).toString());
+        } catch (NumberFormatException ex) {
+            throw malformed("float");
+        }
+    }
+
+    long parseLong(String description) throws MalformedPacketException {
+        require(description);
+
+        int i = mTokenStart;
+        boolean negative = false;
+        char c = mPacket.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        if (i == mTokenEnd) {
+            throw malformed(description);
+        }
+
+        // Accumulate negatively so that Long.MIN_VALUE can be read.
+        long value = 0;
+        for (; i < mTokenEnd; i++) {
+            c = mPacket.charAt(i);
+            if (c < '0' || c > '9') {
+                throw malformed(description);
+            }
+            int digit = c - '0';
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw malformed(description);
+            }
+            value = value * 10 - digit;
+        }
+        if (negative) {
+            return value;
+        }
+        if (value == Long.MIN_VALUE) {
+            throw malformed(description);
+        }
+        return -value;
+    }
+
+    void require(String description) throws MalformedPacketException {
+        if (!nextToken()) {
+            throw new MalformedPacketException("Missing " + description + ".");
+        }
+    }
+
+    MalformedPacketException malformed(String description) {
+        return new MalformedPacketException("Invalid " + description + ": "
+                + mPacket.subSequence(mTokenStart, mTokenEnd));
+    }
+
+    boolean tokenEquals(String text) {
+        if (text.length() != mTokenEnd - mTokenStart) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (mPacket.charAt(mTokenStart + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the next field.
+     *
+     * @return false if there are no fields left
+     */
+    boolean nextToken() {
+        skipSpaces();
+        if (mPosition == mLength) {
+            return false;
+        }
+        mTokenStart = mPosition;
+        while (mPosition < mLength && mPacket.charAt(mPosition) != ' ') {
+            mPosition++;
+        }
+        mTokenEnd = mPosition;
+        return true;
+    }
+
+    void skipSpaces() {
+        while (mPosition < mLength && mPacket.charAt(mPosition) == ' ') {
+            mPosition++;
+        }
+    }
+}
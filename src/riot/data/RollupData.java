@@ -0,0 +1,91 @@
+package riot.data;
+
+import riot.database.BatchInserter;
+
+import java.sql.Connection;
+
+/**
+ * A summary of one device's lux readings over a window of time: the minimum,
+ * maximum, mean and number of readings.  The timestamp is the start of the
+ * window.
+ * <p>
+ * Rollups are numbered separately from the device's raw readings, so they are
+ * acknowledged on their own stream, the device id followed by
+ * {@value #STREAM_SUFFIX}.
+ */
+public class RollupData extends Data {
+    static final String[] COLUMNS = {"seconds", "min", "max", "mean", "count"};
+
+    public static final String STREAM_SUFFIX = "/lux_rollup";
+
+    final float[] mValues = new float[COLUMNS.length];
+    final String mStreamID;
+
+    /**
+     * @param deviceID
+     * @param values    The values in the order of the lux_rollup table's
+     *                  columns.  They are copied.
+     * @param sequence
+     * @param timestamp
+     */
+    public RollupData(String deviceID, float[] values, int sequence, long timestamp) {
+        if (values.length < COLUMNS.length) {
+            throw new IllegalArgumentException("Rollups have " + COLUMNS.length + " values.");
+        }
+        mDeviceID = deviceID;
+        System.arraycopy(values, 0, mValues, 0, COLUMNS.length);
+        mSequence = sequence;
+        mTime = timestamp;
+        mStreamID = deviceID + STREAM_SUFFIX;
+    }
+
+    public RollupData(String deviceID, int windowSeconds, float min, float max, float mean,
+                      int count, int sequence, long windowStart) {
+        this(deviceID, new float[]{windowSeconds, min, max, mean, count}, sequence, windowStart);
+    }
+
+    @Override
+    public SensorType getType() {
+        return SensorType.LUX_ROLLUP;
+    }
+
+    @Override
+    public float getValue(int column) {
+        return mValues[column];
+    }
+
+    @Override
+    public String getStreamID() {
+        return mStreamID;
+    }
+
+    public int getWindowSeconds() {
+        return (int) mValues[0];
+    }
+
+    public float getMin() {
+        return mValues[1];
+    }
+
+    public float getMax() {
+        return mValues[2];
+    }
+
+    public float getMean() {
+        return mValues[3];
+    }
+
+    public int getCount() {
+        return (int) mValues[4];
+    }
+
+    @Override
+    public boolean insertIntoDatabase(Connection connection) {
+        return SensorType.LUX_ROLLUP.insert(connection, this);
+    }
+
+    @Override
+    public void addToBatch(BatchInserter inserter, int entryID) {
+        SensorType.LUX_ROLLUP.addToBatch(inserter, this, entryID);
+    }
+}
@@ -0,0 +1,341 @@
+package riot.data;
+
+import riot.database.BatchInserter;
+import riot.database.ColumnBatch;
+import riot.database.RIOTDatabase;
+import riot.util.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes one kind of sensor reading: its packet type and binary tag on the
+ * wire, the table its values are stored in and how readings are created from
+ * decoded values.
+ * <p>
+ * Every reading is a fixed number of float values, one per column of the
+ * sensor's table, plus the device, sequence number and timestamp that every
+ * reading has.  That is enough for the text and binary codecs and the batched
+ * inserts to handle any registered type without knowing about it.
+ * <p>
+ * Text packets list the values between the device id and the sequence number:
+ * <pre>
+ *     &lt;name&gt; &lt;device id&gt; &lt;value&gt;... &lt;sequence&gt; &lt;timestamp&gt;
+ * </pre>
+ */
+public final class SensorType implements PacketParser {
+
+    static final String TAG = "SensorType";
+
+    /**
+     * The most values a reading may have.
+     */
+    public static final int MAX_VALUES = 16;
+
+    static final String ENTRY_INSERT = "INSERT INTO entry VALUES (?, ?, ?, " +
+            "(SELECT IFNULL(MAX(id), 0) + 1 FROM entry))";
+
+    /**
+     * Creates a reading from decoded values.
+     */
+    public interface Factory {
+
+        /**
+         * @param deviceID
+         * @param values    Only the first {@link SensorType#getValueCount()}
+         *                  values are used.  Must be copied if kept.
+         * @param sequence
+         * @param timestamp
+         * @return
+         */
+        Data create(String deviceID, float[] values, int sequence, long timestamp);
+    }
+
+    // The tags match riot.network.WireFormat.
+    public static final SensorType LUX = new SensorType("lux", (byte) 2, "lux",
+            RIOTDatabase.LUX_TABLE, new String[]{"lux"},
+            (deviceID, values, sequence, timestamp) ->
+                    new LuxData(deviceID, values[0], sequence, timestamp));
+
+    public static final SensorType MOTION = new SensorType("motion", (byte) 3, "motion",
+            RIOTDatabase.MOTION_TABLE, MotionData.COLUMNS, MotionData::new);
+
+    public static final SensorType LUX_ROLLUP = new SensorType("lux_rollup", (byte) 4, "lux_rollup",
+            RIOTDatabase.LUX_ROLLUP_TABLE, RollupData.COLUMNS, RollupData::new);
+
+    // Indexed by tag.  Replaced rather than modified so it can be read
+    // without locking.
+    static volatile SensorType[] sByTag = new SensorType[128];
+    static final ArrayList<SensorType> sTypes = new ArrayList<>();
+
+    static {
+        add(LUX);
+        add(MOTION);
+        add(LUX_ROLLUP);
+    }
+
+    final String mName;
+    final byte mTag;
+    final String mTable;
+    final String mTableDefinition;
+    final String[] mColumns;
+    final Factory mFactory;
+
+    /**
+     * @param name            The packet type used in text packets.
+     * @param tag             The record tag used in binary frames, between 2
+     *                        and 127.  Tag 1 defines devices.
+     * @param table           The table the values are stored in.
+     * @param tableDefinition Creates the table if it does not exist.  The
+     *                        table's columns are the value columns followed
+     *                        by the entry id.
+     * @param columns         The names of the value columns, in order.
+     * @param factory
+     */
+    public SensorType(String name, byte tag, String table, String tableDefinition,
+                      String[] columns, Factory factory) {
+        if (name == null || table == null || tableDefinition == null
+                || columns == null || factory == null) {
+            throw new NullPointerException("Sensor type fields cannot be null.");
+        }
+        if (tag < 2) {
+            throw new IllegalArgumentException("Tag must be between 2 and 127.");
+        }
+        if (columns.length < 1 || columns.length > MAX_VALUES) {
+            throw new IllegalArgumentException("A sensor type must have between 1 and "
+                    + MAX_VALUES + " columns.");
+        }
+        mName = name;
+        mTag = tag;
+        mTable = table;
+        mTableDefinition = tableDefinition;
+        mColumns = columns.clone();
+        mFactory = factory;
+    }
+
+    /**
+     * Makes a sensor type known to the packet parser, the binary decoder and
+     * the ingestion writer.  Its table must be created with
+     * {@link #createTable} before readings are stored.
+     *
+     * @param type
+     */
+    public static void register(SensorType type) {
+        add(type);
+        DataFactory.register(type.mName, type);
+    }
+
+    static synchronized void add(SensorType type) {
+        SensorType existing = sByTag[type.mTag];
+        if (existing != null && !existing.mName.equals(type.mName)) {
+            throw new IllegalArgumentException("Tag " + type.mTag + " is already used by "
+                    + existing.mName + ".");
+        }
+
+        SensorType[] byTag = sByTag.clone();
+        for (int i = 0; i < sTypes.size(); i++) {
+            if (sTypes.get(i).mName.equals(type.mName)) {
+                byTag[sTypes.get(i).mTag] = null;
+                sTypes.remove(i);
+                break;
+            }
+        }
+        byTag[type.mTag] = type;
+        sTypes.add(type);
+        sByTag = byTag;
+    }
+
+    /**
+     * @param tag
+     * @return the sensor type with the given binary tag, or null
+     */
+    public static SensorType forTag(byte tag) {
+        return tag < 0 ? null : sByTag[tag];
+    }
+
+    /**
+     * @return every registered sensor type
+     */
+    public static synchronized List<SensorType> getTypes() {
+        return new ArrayList<>(sTypes);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public byte getTag() {
+        return mTag;
+    }
+
+    public String getTable() {
+        return mTable;
+    }
+
+    public int getValueCount() {
+        return mColumns.length;
+    }
+
+    /**
+     * @param column Between 0 and the value count.
+     * @return the name of a value column
+     */
+    public String getColumn(int column) {
+        return mColumns[column];
+    }
+
+    /**
+     * Creates the sensor's table if it does not exist.
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public void createTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(mTableDefinition);
+        }
+    }
+
+    /**
+     * Creates one partition of the sensor's table if it does not exist.  It
+     * has the same value columns followed by an entry id which references the
+     * given partition of the entry table.
+     *
+     * @param connection
+     * @param table      The name of the partition.
+     * @param entryTable The partition of the entry table its rows belong to.
+     * @throws SQLException
+     */
+    public void createPartition(Connection connection, String table, String entryTable)
+            throws SQLException {
+        StringBuilder definition = new StringBuilder("CREATE TABLE IF NOT EXISTS ")
+                .append(table).append('(');
+        for (String column : mColumns) {
+            definition.append(column).append(" REAL NOT NULL,");
+        }
+        definition.append("id INT NOT NULL,foreign key(id) references ")
+                .append(entryTable).append("(id));");
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(definition.toString());
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + table + "_id_index ON "
+                    + table + "(id);");
+        }
+    }
+
+    /**
+     * Inserts one reading and its entry in a single transaction.  Used by
+     * {@link Data#insertIntoDatabase} for readings stored one at a time;
+     * streams of readings should go through the ingestion writer's batches.
+     *
+     * @param connection
+     * @param data
+     * @return true if both rows were committed
+     */
+    boolean insert(Connection connection, Data data) {
+        StringBuilder query = new StringBuilder("INSERT INTO ").append(mTable).append(" VALUES (");
+        for (int i = 0; i < mColumns.length; i++) {
+            query.append("?, ");
+        }
+        query.append("(SELECT MAX(id) FROM entry))");
+
+        try {
+            connection.setAutoCommit(false);
+            RIOTDatabase.registerDevice(connection, data.getDeviceID());
+
+            try (PreparedStatement entryStatement = connection.prepareStatement(ENTRY_INSERT);
+                 PreparedStatement valueStatement = connection.prepareStatement(query.toString())) {
+                entryStatement.setLong(1, System.currentTimeMillis() / 1000L);
+                entryStatement.setLong(2, data.getTimestamp());
+                entryStatement.setString(3, data.getDeviceID());
+                entryStatement.executeUpdate();
+
+                for (int i = 0; i < mColumns.length; i++) {
+                    valueStatement.setFloat(i + 1, data.getValue(i));
+                }
+                valueStatement.executeUpdate();
+            }
+
+            connection.commit();
+            return true;
+        } catch (SQLException ex) {
+            try {
+                Log.w(TAG, "Transaction is being rolled back.");
+                connection.rollback();
+            } catch (SQLException ex2) {
+                Log.e(TAG, "Could not rollback transactions.", ex2);
+            }
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Log.e(TAG, "Could not re-enable auto-commit.");
+            }
+        }
+    }
+
+    /**
+     * Adds a reading to the column batch for this type's table.  The entry
+     * row with the given id is added by the caller.
+     *
+     * @param inserter
+     * @param data
+     * @param entryID
+     */
+    void addToBatch(BatchInserter inserter, Data data, int entryID) {
+        ColumnBatch batch = inserter.getColumnBatch(mTable, mColumns.length);
+        int row = batch.addRow(entryID);
+        for (int column = 0; column < mColumns.length; column++) {
+            batch.set(row, column, data.getValue(column));
+        }
+    }
+
+    /**
+     * Creates a reading of this type.
+     *
+     * @param deviceID
+     * @param values
+     * @param sequence
+     * @param timestamp
+     * @return
+     */
+    public Data create(String deviceID, float[] values, int sequence, long timestamp) {
+        return mFactory.create(deviceID, values, sequence, timestamp);
+    }
+
+    /**
+     * Formats a reading of this type as a text packet.
+     *
+     * @param data
+     * @return
+     */
+    public String formatPacket(Data data) {
+        StringBuilder builder = new StringBuilder(mName).append(' ').append(data.getDeviceID());
+        for (int i = 0; i < mColumns.length; i++) {
+            builder.append(' ').append(data.getValue(i));
+        }
+        return builder.append(' ').append(data.getSequence())
+                .append(' ').append(data.getTimestamp()).toString();
+    }
+
+    /**
+     * Reads the fields of a text packet of this type following the packet
+     * type.
+     */
+    @Override
+    public Data parse(PacketScanner scanner) throws MalformedPacketException {
+        String deviceID = scanner.nextDeviceID();
+        float[] values = scanner.getValueScratch();
+        for (int i = 0; i < mColumns.length; i++) {
+            values[i] = scanner.nextFloat();
+        }
+        int sequence = scanner.nextInt();
+        long timestamp = scanner.nextLong();
+        return mFactory.create(deviceID, values, sequence, timestamp);
+    }
+}
@@ -0,0 +1,115 @@
+package riot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches the prepared statements used to insert batches of readings so they
+ * are only prepared once per connection.
+ * <p>
+ * Batches are executed in the order the statements were first requested, so
+ * statements for parent tables must be requested before statements for the
+ * tables that reference them.  {@link ColumnBatch}es are executed after all the
+ * statements, as they only hold sensor rows which reference entries.
+ */
+public class BatchInserter implements AutoCloseable {
+
+    final Connection mConnection;
+    final LinkedHashMap<String, PreparedStatement> mStatements = new LinkedHashMap<>();
+    final LinkedHashMap<String, ColumnBatch> mColumnBatches = new LinkedHashMap<>();
+
+    public BatchInserter(Connection connection) {
+        if (connection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        mConnection = connection;
+    }
+
+    public Connection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Returns the cached statement for the query, preparing it the first time.
+     *
+     * @param query
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement getStatement(String query) throws SQLException {
+        PreparedStatement statement = mStatements.get(query);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(query);
+            mStatements.put(query, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the cached column batch for a table, creating it the first time.
+     *
+     * @param table
+     * @param columnCount The number of value columns, before the entry id.
+     * @return
+     */
+    public ColumnBatch getColumnBatch(String table, int columnCount) {
+        ColumnBatch batch = mColumnBatches.get(table);
+        if (batch == null) {
+            batch = new ColumnBatch(mConnection, table, columnCount);
+            mColumnBatches.put(table, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Executes every statement's batch in order, then the column batches.
+     *
+     * @throws SQLException
+     */
+    public void executeBatches() throws SQLException {
+        for (PreparedStatement statement : mStatements.values()) {
+            statement.executeBatch();
+        }
+        for (ColumnBatch batch : mColumnBatches.values()) {
+            batch.execute();
+        }
+    }
+
+    /**
+     * Discards anything added to the batches since they were last executed.
+     */
+    public void clearBatches() {
+        for (PreparedStatement statement : mStatements.values()) {
+            try {
+                statement.clearBatch();
+            } catch (SQLException ex) {
+                // ignore: the batch is being discarded
+            }
+        }
+        for (ColumnBatch batch : mColumnBatches.values()) {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Closes every cached statement.  The inserter can still be used; the
+     * statements are prepared again when they are next requested.
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement statement : mStatements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                // Ignore problems when closing.
+            }
+        }
+        mStatements.clear();
+        for (ColumnBatch batch : mColumnBatches.values()) {
+            batch.close();
+        }
+        mColumnBatches.clear();
+    }
+}
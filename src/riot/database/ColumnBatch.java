@@ -0,0 +1,183 @@
+package riot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Collects rows of float values for one table, column by column, and inserts
+ * them with multi-row INSERT statements.
+ * <p>
+ * High-rate sensors produce many small rows.  Binding a whole block of rows
+ * to one statement means SQLite parses and steps once per block instead of
+ * once per row.  Each row is the table's value columns followed by the id of
+ * its entry row.
+ */
+public class ColumnBatch {
+
+    // SQLite allows 999 parameters in a statement by default.
+    static final int MAX_PARAMETERS = 999;
+
+    final Connection mConnection;
+    final String mTable;
+    final int mColumnCount;
+    final int mRowsPerStatement;
+
+    // Column-major: mValues[column][row].
+    float[][] mValues;
+    int[] mEntryIDs;
+    int mRowCount = 0;
+
+    // The full block statement, and one for the final partial block which is
+    // re-prepared only when its size changes.
+    PreparedStatement mBlockStatement;
+    PreparedStatement mTailStatement;
+    int mTailRows = 0;
+
+    /**
+     * @param connection
+     * @param table       The table to insert into.
+     * @param columnCount The number of value columns, before the entry id.
+     */
+    public ColumnBatch(Connection connection, String table, int columnCount) {
+        if (connection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        if (table == null) {
+            throw new NullPointerException("Table cannot be null.");
+        }
+        if (columnCount < 1 || columnCount + 1 > MAX_PARAMETERS) {
+            throw new IllegalArgumentException("Invalid column count: " + columnCount);
+        }
+        mConnection = connection;
+        mTable = table;
+        mColumnCount = columnCount;
+        mRowsPerStatement = Math.min(64, MAX_PARAMETERS / (columnCount + 1));
+        mValues = new float[columnCount][64];
+        mEntryIDs = new int[64];
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * Starts a new row.  Its values are set with {@link #set}.
+     *
+     * @param entryID
+     * @return the index of the row
+     */
+    public int addRow(int entryID) {
+        if (mRowCount == mEntryIDs.length) {
+            int capacity = mRowCount * 2;
+            for (int column = 0; column < mColumnCount; column++) {
+                float[] values = new float[capacity];
+                System.arraycopy(mValues[column], 0, values, 0, mRowCount);
+                mValues[column] = values;
+            }
+            int[] entryIDs = new int[capacity];
+            System.arraycopy(mEntryIDs, 0, entryIDs, 0, mRowCount);
+            mEntryIDs = entryIDs;
+        }
+        mEntryIDs[mRowCount] = entryID;
+        return mRowCount++;
+    }
+
+    /**
+     * @param row
+     * @param column
+     * @param value
+     */
+    public void set(int row, int column, float value) {
+        mValues[column][row] = value;
+    }
+
+    /**
+     * Inserts every row and empties the batch.
+     *
+     * @throws SQLException
+     */
+    public void execute() throws SQLException {
+        int row = 0;
+        try {
+            if (mRowCount >= mRowsPerStatement && mBlockStatement == null) {
+                mBlockStatement = mConnection.prepareStatement(insertQuery(mRowsPerStatement));
+            }
+            while (mRowCount - row >= mRowsPerStatement) {
+                bind(mBlockStatement, row, mRowsPerStatement);
+                mBlockStatement.executeUpdate();
+                row += mRowsPerStatement;
+            }
+
+            int tail = mRowCount - row;
+            if (tail > 0) {
+                if (tail != mTailRows) {
+                    closeTail();
+                    mTailStatement = mConnection.prepareStatement(insertQuery(tail));
+                    mTailRows = tail;
+                }
+                bind(mTailStatement, row, tail);
+                mTailStatement.executeUpdate();
+            }
+        } finally {
+            mRowCount = 0;
+        }
+    }
+
+    /**
+     * Discards the rows added since the batch was last executed.
+     */
+    public void clear() {
+        mRowCount = 0;
+    }
+
+    public void close() {
+        try {
+            if (mBlockStatement != null) {
+                mBlockStatement.close();
+            }
+        } catch (SQLException ex) {
+            // Ignore problems when closing.
+        }
+        closeTail();
+    }
+
+    void closeTail() {
+        try {
+            if (mTailStatement != null) {
+                mTailStatement.close();
+            }
+        } catch (SQLException ex) {
+            // Ignore problems when closing.
+        }
+        mTailStatement = null;
+        mTailRows = 0;
+    }
+
+    void bind(PreparedStatement statement, int from, int rows) throws SQLException {
+        int parameter = 1;
+        for (int row = from; row < from + rows; row++) {
+            for (int column = 0; column < mColumnCount; column++) {
+                statement.setFloat(parameter++, mValues[column][row]);
+            }
+            statement.setInt(parameter++, mEntryIDs[row]);
+        }
+    }
+
+    String insertQuery(int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int column = 0; column <= mColumnCount; column++) {
+            row.append(column == 0 ? "?" : ", ?");
+        }
+        row.append(')');
+
+        StringBuilder query = new StringBuilder("INSERT INTO ").append(mTable).append(" VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append(row);
+        }
+        return query.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package riot.database;
 
+import riot.util.Log;
+
 import org.sqlite.SQLiteConfig;
 
 import java.io.IOException;
@@ -19,6 +21,8 @@ import java.sql.*;
  */
 public class RIOTDatabase {
 
+    static final String TAG = "RIOTDatabase";
+
     /**
      * Get a new connection to the default RIOT database on this device with the correct
      * configuration.
@@ -27,7 +31,19 @@ public class RIOTDatabase {
      * @throws SQLException
      */
     public static Connection getNewConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + DB_NAME, config.toProperties());
+        return getNewConnection(DB_NAME);
+    }
+
+    /**
+     * Get a new connection to a RIOT database in the given file with the correct
+     * configuration.
+     *
+     * @param fileName
+     * @return
+     * @throws SQLException
+     */
+    public static Connection getNewConnection(String fileName) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + fileName, config.toProperties());
     }
 
     static class Table {
@@ -46,13 +62,13 @@ public class RIOTDatabase {
             "user_id INT PRIMARY KEY NOT NULL);";
     static final String DEV_TABLE = "CREATE TABLE IF NOT EXISTS dev(_id INT NOT NULL," +
             "dev_id TEXT PRIMARY KEY NOT NULL," +
-            "foreign key(_id) references user(id));";
+            "foreign key(_id) references user(user_id));";
     static final String ENTRY_TABLE = "CREATE TABLE IF NOT EXISTS entry (entry_date DATE NOT NULL," +
             "real_date DATE NOT NULL," +
             "dev_id TEXT NOT NULL," +
             "id INT PRIMARY KEY NOT NULL," +
             "foreign key(dev_id) references dev(dev_id));";
-    static final String MOTION_TABLE = "CREATE TABLE IF NOT EXISTS motion(gx REAL NOT NULL," +
+    public static final String MOTION_TABLE = "CREATE TABLE IF NOT EXISTS motion(gx REAL NOT NULL," +
             "gy REAL NOT NULL," +
             "gz REAL NOT NULL," +
             "ax REAL NOT NULL," +
@@ -67,23 +83,77 @@ public class RIOTDatabase {
             "id INT NOT NULL," +
             "foreign key(id) references entry(id));";
 
+    // Summaries of lux readings received from devices.
+    public static final String LUX_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS lux_rollup(seconds REAL NOT NULL," +
+            "min REAL NOT NULL," +
+            "max REAL NOT NULL," +
+            "mean REAL NOT NULL," +
+            "count REAL NOT NULL," +
+            "id INT NOT NULL," +
+            "foreign key(id) references entry(id));";
+
+    public static final String OUTBOX_TABLE = "CREATE TABLE IF NOT EXISTS outbox(name TEXT PRIMARY KEY NOT NULL," +
+            "value INT NOT NULL);";
+    // Used by the server to recognise readings that were retransmitted.
+    // Sequence numbers are only unique within a client's epoch.
+    public static final String RECEIVED_TABLE = "CREATE TABLE IF NOT EXISTS received(dev_id TEXT NOT NULL," +
+            "epoch INT NOT NULL," +
+            "seq INT NOT NULL," +
+            "entry_id INT NOT NULL," +
+            "PRIMARY KEY(dev_id, epoch, seq));";
+    // Used by a device to queue rollups until they are sent.  Ids are never
+    // reused, as they are the rollups' sequence numbers.
+    public static final String ROLLUP_OUTBOX_TABLE = "CREATE TABLE IF NOT EXISTS rollup_outbox(" +
+            "dev_id TEXT NOT NULL," +
+            "seconds INT NOT NULL," +
+            "start INT NOT NULL," +
+            "min REAL NOT NULL," +
+            "max REAL NOT NULL," +
+            "mean REAL NOT NULL," +
+            "count INT NOT NULL," +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT);";
+    // The start of the last rollup window closed for each device and window
+    // size, so windows are not produced twice.
+    public static final String ROLLUP_CLOSED_TABLE = "CREATE TABLE IF NOT EXISTS rollup_closed(" +
+            "dev_id TEXT NOT NULL," +
+            "seconds INT NOT NULL," +
+            "start INT NOT NULL," +
+            "PRIMARY KEY(dev_id, seconds));";
+    static final String LUX_ID_INDEX = "CREATE INDEX IF NOT EXISTS lux_id_index ON lux(id);";
+    static final String MOTION_ID_INDEX = "CREATE INDEX IF NOT EXISTS motion_id_index ON motion(entry_id);";
+
     public static final String LUX_QUERY = "SELECT real_date, dev_id, lux, lux.id " +
             "from lux inner join entry on lux.id = entry.id;";
+    public static final String LUX_PAGE_QUERY = "SELECT real_date, dev_id, lux, lux.id " +
+            "from lux inner join entry on lux.id = entry.id " +
+            "WHERE entry.id > ? ORDER BY entry.id LIMIT ?;";
     public static final String LUX_COUNT = "SELECT COUNT (*) FROM lux";
 
+    public static final String SENT_WATERMARK_QUERY = "SELECT value FROM outbox WHERE name = 'sent';";
+
+    public static final String DEFAULT_USER_INSERT = "INSERT OR IGNORE INTO user VALUES ('default', 0);";
+    public static final String DEV_INSERT = "INSERT OR IGNORE INTO dev VALUES (0, ?);";
+
     public static final String ENTRY_INSERT = "INSERT INTO entry VALUES (%s, %s, %s);";
     public static final String LUX_INSERT = "INSERT INTO lux VALUES (%s, %s)";
 
     /**
-     * The tables required in the database and their corresponding
-     * CREATE statements.
+     * The tables and indexes required in the database and their corresponding
+     * CREATE statements.  Indexes are listed after the tables they cover.
      */
     static Table[] tables = {
             new Table("user", USER_TABLE),
             new Table("dev", DEV_TABLE),
             new Table("entry", ENTRY_TABLE),
             new Table("motion", MOTION_TABLE),
-            new Table("lux", LUX_TABLE)
+            new Table("lux", LUX_TABLE),
+            new Table("lux_rollup", LUX_ROLLUP_TABLE),
+            new Table("outbox", OUTBOX_TABLE),
+            new Table("received", RECEIVED_TABLE),
+            new Table("rollup_outbox", ROLLUP_OUTBOX_TABLE),
+            new Table("rollup_closed", ROLLUP_CLOSED_TABLE),
+            new Table("lux_id_index", LUX_ID_INDEX),
+            new Table("motion_id_index", MOTION_ID_INDEX)
     };
 
     /**
@@ -110,12 +180,65 @@ public class RIOTDatabase {
             try {
                 statement.executeUpdate(table.mCreateStatement);
             } catch (SQLException ex) {
-                System.err.println("Could not create table: " + table.mName);
+                Log.e(TAG, "Could not create table: %s", table.mName);
             }
         }
         return true;
     }
 
+    /**
+     * Makes sure a device exists so that entries referencing it satisfy the
+     * foreign key.  New devices belong to the default user.
+     *
+     * @param connection
+     * @param deviceID
+     * @throws SQLException
+     */
+    public static void registerDevice(Connection connection, String deviceID) throws SQLException {
+        try (Statement userStatement = connection.createStatement();
+             PreparedStatement devStatement = connection.prepareStatement(DEV_INSERT)) {
+            userStatement.executeUpdate(DEFAULT_USER_INSERT);
+            devStatement.setString(1, deviceID);
+            devStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Finds the largest id in a table.
+     *
+     * @param connection
+     * @param tableName
+     * @return the largest id, or 0 if the table is empty
+     * @throws SQLException
+     */
+    public static int getMaxId(Connection connection, String tableName) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT IFNULL(MAX(id), 0) FROM " + tableName + ";")) {
+            return results.next() ? results.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Finds the id to give the next entry.  On a device which sends its
+     * readings, acknowledged entries are deleted from the outbox, so the id
+     * is kept above the sent watermark as well as above the remaining entries.
+     * Otherwise new entries could be taken as already sent.
+     *
+     * @param connection
+     * @return
+     * @throws SQLException
+     */
+    public static int getNextEntryId(Connection connection) throws SQLException {
+        int next = getMaxId(connection, "entry") + 1;
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery(SENT_WATERMARK_QUERY)) {
+            if (results.next()) {
+                next = Math.max(next, results.getInt(1) + 1);
+            }
+        }
+        return next;
+    }
+
     /**
      * Counts the number of rows in a table.
      *
@@ -130,7 +253,6 @@ public class RIOTDatabase {
             ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM " + tableName + ";");
             while (results.next()) {
                 count = results.getInt(1);
-                System.out.println("count: " + count);
             }
         }
 
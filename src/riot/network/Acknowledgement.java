@@ -0,0 +1,119 @@
+package riot.network;
+
+/**
+ * An acknowledgement sent by the server for the readings of one device.
+ * <p>
+ * Acknowledgements are sent as a single line of text:
+ * <pre>
+ *     ACK &lt;device id&gt; &lt;cumulative&gt; [&lt;low&gt;-&lt;high&gt; ...]
+ * </pre>
+ * Every reading from the device with a sequence number less than or equal to
+ * the cumulative sequence number has been stored.  The optional selective
+ * ranges list readings after the cumulative sequence number which have also
+ * been stored, so the client only has to retransmit the readings between them.
+ * <p>
+ * A cumulative sequence number of -1 means nothing has been stored yet.
+ */
+public class Acknowledgement {
+    public static final String PACKET_TYPE = "ACK";
+
+    public final String mDeviceID;
+    public final int mCumulative;
+
+    // Inclusive (low, high) pairs of selectively acknowledged sequence numbers.
+    final int[] mRanges;
+
+    public Acknowledgement(String deviceID, int cumulative, int[] ranges) {
+        if (deviceID == null) {
+            throw new NullPointerException("Device ID cannot be null.");
+        }
+        if (ranges == null || ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("Ranges must be (low, high) pairs.");
+        }
+        mDeviceID = deviceID;
+        mCumulative = cumulative;
+        mRanges = ranges;
+    }
+
+    /**
+     * Checks if the reading with the given sequence number has been stored by
+     * the server.
+     *
+     * @param sequence
+     * @return true if the reading has been acknowledged
+     */
+    public boolean covers(int sequence) {
+        if (sequence <= mCumulative) {
+            return true;
+        }
+        for (int i = 0; i < mRanges.length; i += 2) {
+            if (sequence >= mRanges[i] && sequence <= mRanges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The highest sequence number acknowledged.  Unacknowledged readings below
+     * this number were lost by the server and should be retransmitted.
+     *
+     * @return
+     */
+    public int getHighest() {
+        if (mRanges.length > 0) {
+            return Math.max(mCumulative, mRanges[mRanges.length - 1]);
+        }
+        return mCumulative;
+    }
+
+    /**
+     * Formats the acknowledgement as a line of text, without the line
+     * terminator.
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(PACKET_TYPE).append(' ').append(mDeviceID)
+                .append(' ').append(mCumulative);
+        for (int i = 0; i < mRanges.length; i += 2) {
+            builder.append(' ').append(mRanges[i]).append('-').append(mRanges[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parses a line received from the server.
+     *
+     * @param line
+     * @return the acknowledgement, or null if the line is not a valid
+     * acknowledgement
+     */
+    public static Acknowledgement parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] split = line.trim().split(" ");
+        if (split.length < 3 || !split[0].equals(PACKET_TYPE)) {
+            return null;
+        }
+
+        try {
+            int cumulative = Integer.parseInt(split[2]);
+            int[] ranges = new int[(split.length - 3) * 2];
+            for (int i = 3; i < split.length; i++) {
+                int dash = split[i].indexOf('-', 1);
+                if (dash < 0) {
+                    return null;
+                }
+                ranges[(i - 3) * 2] = Integer.parseInt(split[i].substring(0, dash));
+                ranges[(i - 3) * 2 + 1] = Integer.parseInt(split[i].substring(dash + 1));
+            }
+            return new Acknowledgement(split[1], cumulative, ranges);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
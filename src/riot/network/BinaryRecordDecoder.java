@@ -0,0 +1,263 @@
+package riot.network;
+
+import riot.data.Data;
+import riot.data.SensorType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes binary frames received from a client.  See {@link WireFormat} for
+ * the layout.
+ * <p>
+ * Decoding does not allocate: each call to {@link #next(ByteBuffer)} fills in
+ * the same {@link Record}, which must be copied before the next call if it is
+ * kept.  The only allocation is the device id string when a device is first
+ * defined on the connection.  Compressed frames are inflated into a buffer
+ * owned by the decoder and decoded from there.
+ * <p>
+ * A decoder holds the state of one connection.
+ */
+public class BinaryRecordDecoder {
+
+    /**
+     * The most recently decoded record.
+     */
+    public static class Record {
+        public SensorType mType;
+        public String mDeviceID;
+        public int mSequence;
+        public long mTimestamp;
+        // Only the first mType.getValueCount() values belong to the record.
+        public final float[] mValues = new float[SensorType.MAX_VALUES];
+
+        /**
+         * @return a reading holding a copy of the record
+         */
+        public Data toData() {
+            return mType.create(mDeviceID, mValues, mSequence, mTimestamp);
+        }
+    }
+
+    final Record mRecord = new Record();
+
+    String[] mDevices = new String[16];
+    byte[] mScratch = new byte[WireFormat.MAX_DEVICE_ID_LENGTH];
+    long mLastTimestamp = 0;
+
+    // Bytes of the current frame's payload which have not been decoded yet,
+    // and where they are: the input, or mInflated for a compressed frame.
+    int mFrameRemaining = 0;
+    ByteBuffer mFrame;
+
+    Inflater mInflater;
+    byte[] mDeflated;
+    ByteBuffer mInflated;
+
+    public Record getRecord() {
+        return mRecord;
+    }
+
+    /**
+     * Accepts compressed frames, for a connection which negotiated
+     * {@link WireFormat#DEFLATE}.
+     */
+    public void enableCompression() {
+        if (mInflater != null) {
+            return;
+        }
+        mInflater = new Inflater(true);
+        mInflater.setDictionary(WireFormat.getDeflateDictionary());
+        // Room for the end of the sync flush, which is not sent.
+        mDeflated = new byte[WireFormat.MAX_DEFLATED_FRAME_LENGTH + 4];
+        // One byte spare so an oversized payload is noticed.
+        mInflated = ByteBuffer.allocate(WireFormat.MAX_FRAME_LENGTH + 1);
+    }
+
+    /**
+     * Frees the decompressor.  The decoder cannot be used afterwards.
+     */
+    public void release() {
+        if (mInflater != null) {
+            mInflater.end();
+        }
+    }
+
+    /**
+     * Decodes the next record from the buffer.  A frame is only started once
+     * it has been completely received, so when this returns false the buffer
+     * position is left at the start of the incomplete frame.
+     *
+     * @param in A buffer in read mode.
+     * @return true if a record was decoded into {@link #getRecord()}
+     * @throws MalformedFrameException if the data is not a valid frame
+     */
+    public boolean next(ByteBuffer in) throws MalformedFrameException {
+        while (true) {
+            if (mFrameRemaining == 0 && !startFrame(in)) {
+                return false;
+            }
+
+            ByteBuffer frame = mFrame;
+            int start = frame.position();
+            byte tag = frame.get();
+            switch (tag) {
+                case WireFormat.TAG_DEVICE:
+                    int index = (int) readVarint(frame);
+                    int length = (int) readVarint(frame);
+                    if (length > WireFormat.MAX_DEVICE_ID_LENGTH || length > frame.remaining()) {
+                        throw new MalformedFrameException("Invalid device ID length: " + length);
+                    }
+                    frame.get(mScratch, 0, length);
+                    defineDevice(index, new String(mScratch, 0, length, StandardCharsets.UTF_8));
+                    consumed(frame, start);
+                    break;
+
+                default:
+                    SensorType type = SensorType.forTag(tag);
+                    if (type == null) {
+                        throw new MalformedFrameException("Unknown record tag: " + tag);
+                    }
+                    mRecord.mType = type;
+                    mRecord.mDeviceID = getDevice((int) readVarint(frame));
+                    mRecord.mSequence = (int) readVarint(frame);
+                    mLastTimestamp += unZigZag(readVarint(frame));
+                    mRecord.mTimestamp = mLastTimestamp;
+                    if (frame.remaining() < 4 * type.getValueCount()) {
+                        throw new MalformedFrameException("Record overran the buffer.");
+                    }
+                    for (int i = 0; i < type.getValueCount(); i++) {
+                        mRecord.mValues[i] = frame.getFloat();
+                    }
+                    consumed(frame, start);
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Reads a frame header if the whole frame is available.
+     */
+    boolean startFrame(ByteBuffer in) throws MalformedFrameException {
+        int start = in.position();
+        if (in.remaining() < 2) {
+            return false;
+        }
+
+        int version = in.get() & 0xFF;
+        boolean deflated = version == WireFormat.VERSION_DEFLATE && mInflater != null;
+        if (version != WireFormat.VERSION && !deflated) {
+            throw new MalformedFrameException("Unsupported frame version: " + version);
+        }
+        int maxLength = deflated ? WireFormat.MAX_DEFLATED_FRAME_LENGTH : WireFormat.MAX_FRAME_LENGTH;
+
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            if (!in.hasRemaining()) {
+                in.position(start);
+                return false;
+            }
+            byte b = in.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 21) {
+                throw new MalformedFrameException("Frame length is too long.");
+            }
+        }
+
+        if (length == 0 || length > maxLength) {
+            throw new MalformedFrameException("Invalid frame length: " + length);
+        }
+        if (in.remaining() < length) {
+            in.position(start);
+            return false;
+        }
+
+        if (deflated) {
+            mFrameRemaining = inflate(in, length);
+            mFrame = mInflated;
+        } else {
+            mFrameRemaining = length;
+            mFrame = in;
+        }
+        return true;
+    }
+
+    /**
+     * Inflates a compressed payload from the input into mInflated.
+     *
+     * @return the length of the payload
+     */
+    int inflate(ByteBuffer in, int length) throws MalformedFrameException {
+        in.get(mDeflated, 0, length);
+        mDeflated[length] = 0;
+        mDeflated[length + 1] = 0;
+        mDeflated[length + 2] = (byte) 0xFF;
+        mDeflated[length + 3] = (byte) 0xFF;
+        mInflater.setInput(mDeflated, 0, length + 4);
+
+        int inflated;
+        try {
+            inflated = mInflater.inflate(mInflated.array(), 0, mInflated.capacity());
+        } catch (DataFormatException ex) {
+            throw new MalformedFrameException("Could not inflate frame: " + ex.getMessage());
+        }
+        if (!mInflater.needsInput() || inflated == 0 || inflated > WireFormat.MAX_FRAME_LENGTH) {
+            throw new MalformedFrameException("Invalid compressed frame.");
+        }
+        mInflated.clear();
+        mInflated.limit(inflated);
+        return inflated;
+    }
+
+    void consumed(ByteBuffer in, int start) throws MalformedFrameException {
+        mFrameRemaining -= in.position() - start;
+        if (mFrameRemaining < 0) {
+            throw new MalformedFrameException("Record overran its frame.");
+        }
+    }
+
+    void defineDevice(int index, String deviceID) throws MalformedFrameException {
+        if (index < 0 || index > 0xFFFF) {
+            throw new MalformedFrameException("Invalid device index: " + index);
+        }
+        if (index >= mDevices.length) {
+            String[] devices = new String[Math.max(index + 1, mDevices.length * 2)];
+            System.arraycopy(mDevices, 0, devices, 0, mDevices.length);
+            mDevices = devices;
+        }
+        mDevices[index] = deviceID;
+    }
+
+    String getDevice(int index) throws MalformedFrameException {
+        if (index < 0 || index >= mDevices.length || mDevices[index] == null) {
+            throw new MalformedFrameException("Undefined device index: " + index);
+        }
+        return mDevices[index];
+    }
+
+    static long readVarint(ByteBuffer in) throws MalformedFrameException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new MalformedFrameException("Varint overran the buffer.");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MalformedFrameException("Varint is too long.");
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
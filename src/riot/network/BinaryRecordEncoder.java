@@ -0,0 +1,205 @@
+package riot.network;
+
+import riot.data.Data;
+import riot.data.SensorType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes readings into binary frames.  See {@link WireFormat} for the
+ * layout.
+ * <p>
+ * An encoder holds the device dictionary, the previous timestamp and, when
+ * compressing, the DEFLATE stream for one connection, so a new encoder must be
+ * used for every connection.
+ */
+public class BinaryRecordEncoder {
+
+    // Leaves room for the largest record so a frame never overflows.
+    static final int FLUSH_THRESHOLD = WireFormat.MAX_FRAME_LENGTH
+            - (WireFormat.MAX_DEVICE_ID_LENGTH + 32 + 4 * SensorType.MAX_VALUES);
+
+    byte[] mPayload = new byte[WireFormat.MAX_FRAME_LENGTH];
+    int mLength = 0;
+    int mRecordCount = 0;
+
+    HashMap<String, Integer> mDevices = new HashMap<>();
+    long mLastTimestamp = 0;
+
+    Deflater mDeflater;
+    byte[] mDeflated;
+
+    /**
+     * Compresses the frames which are large enough to benefit, for a
+     * connection which negotiated {@link WireFormat#DEFLATE}.  Must be called
+     * before the first frame is written.
+     */
+    public void enableCompression() {
+        if (mDeflater != null) {
+            return;
+        }
+        mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        mDeflater.setDictionary(WireFormat.getDeflateDictionary());
+        mDeflated = new byte[WireFormat.MAX_DEFLATED_FRAME_LENGTH];
+    }
+
+    /**
+     * Frees the compressor.  The encoder cannot be used afterwards.
+     */
+    public void release() {
+        if (mDeflater != null) {
+            mDeflater.end();
+        }
+    }
+
+    /**
+     * @return true if the frame should be written before more records are added
+     */
+    public boolean isFull() {
+        return mLength >= FLUSH_THRESHOLD;
+    }
+
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Adds a lux reading to the current frame.
+     *
+     * @param deviceID
+     * @param value
+     * @param sequence
+     * @param timestamp
+     */
+    public void addLux(String deviceID, float value, int sequence, long timestamp) {
+        writeRecordHeader(WireFormat.TAG_LUX, deviceID, sequence, timestamp);
+        writeFloat(value);
+    }
+
+    /**
+     * Adds a reading of any registered sensor type to the current frame.
+     *
+     * @param data
+     */
+    public void addReading(Data data) {
+        SensorType type = data.getType();
+        writeRecordHeader(type.getTag(), data.getDeviceID(), data.getSequence(), data.getTimestamp());
+        for (int i = 0; i < type.getValueCount(); i++) {
+            writeFloat(data.getValue(i));
+        }
+    }
+
+    void writeRecordHeader(byte tag, String deviceID, int sequence, long timestamp) {
+        int deviceIndex = getDeviceIndex(deviceID);
+
+        mPayload[mLength++] = tag;
+        writeVarint(deviceIndex);
+        writeVarint(sequence & 0xFFFFFFFFL);
+        writeVarint(zigZag(timestamp - mLastTimestamp));
+
+        mLastTimestamp = timestamp;
+        mRecordCount++;
+    }
+
+    /**
+     * Writes the current frame to the stream and starts a new one.  Does
+     * nothing if the frame is empty.  The stream is not flushed.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeFrame(OutputStream out) throws IOException {
+        if (mLength == 0) {
+            return;
+        }
+
+        if (mDeflater != null && mLength >= WireFormat.MIN_DEFLATE_PAYLOAD) {
+            int deflatedLength = deflate();
+            writeFrameHeader(out, WireFormat.VERSION_DEFLATE, deflatedLength);
+            out.write(mDeflated, 0, deflatedLength);
+        } else {
+            writeFrameHeader(out, WireFormat.VERSION, mLength);
+            out.write(mPayload, 0, mLength);
+        }
+        mLength = 0;
+        mRecordCount = 0;
+    }
+
+    static void writeFrameHeader(OutputStream out, int version, int length) throws IOException {
+        byte[] header = new byte[6];
+        int headerLength = 0;
+        header[headerLength++] = (byte) version;
+        while ((length & ~0x7F) != 0) {
+            header[headerLength++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        header[headerLength++] = (byte) length;
+        out.write(header, 0, headerLength);
+    }
+
+    /**
+     * Compresses the payload into mDeflated, continuing the connection's
+     * stream, and drops the empty block which ends the sync flush.
+     *
+     * @return the compressed length
+     */
+    int deflate() {
+        mDeflater.setInput(mPayload, 0, mLength);
+        int length = mDeflater.deflate(mDeflated, 0, mDeflated.length, Deflater.SYNC_FLUSH);
+        if (length == mDeflated.length) {
+            // The output filled up, so the flush may not be complete.
+            throw new IllegalStateException("Compressed frame is too long.");
+        }
+        return length - 4;
+    }
+
+    /**
+     * Returns the dictionary index for a device, defining it in the current
+     * frame the first time it is used.
+     */
+    int getDeviceIndex(String deviceID) {
+        Integer index = mDevices.get(deviceID);
+        if (index != null) {
+            return index;
+        }
+
+        byte[] bytes = deviceID.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > WireFormat.MAX_DEVICE_ID_LENGTH) {
+            throw new IllegalArgumentException("Device ID is too long: " + deviceID);
+        }
+
+        index = mDevices.size();
+        mDevices.put(deviceID, index);
+
+        mPayload[mLength++] = WireFormat.TAG_DEVICE;
+        writeVarint(index);
+        writeVarint(bytes.length);
+        System.arraycopy(bytes, 0, mPayload, mLength, bytes.length);
+        mLength += bytes.length;
+        return index;
+    }
+
+    void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mPayload[mLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mPayload[mLength++] = (byte) value;
+    }
+
+    void writeFloat(float value) {
+        int bits = Float.floatToIntBits(value);
+        mPayload[mLength++] = (byte) (bits >>> 24);
+        mPayload[mLength++] = (byte) (bits >>> 16);
+        mPayload[mLength++] = (byte) (bits >>> 8);
+        mPayload[mLength++] = (byte) bits;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
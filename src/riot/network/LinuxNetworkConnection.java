@@ -0,0 +1,37 @@
+package riot.network;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A network link managed through a Linux network interface.
+ * <p>
+ * Interface names end up in shell commands, so subclasses only accept the
+ * names of interfaces which exist.
+ */
+public abstract class LinuxNetworkConnection extends NetworkConnection {
+
+    static final String INTERFACES_DIRECTORY = "/sys/class/net";
+
+    /**
+     * @return the names of the network interfaces on this machine, sorted
+     */
+    protected static ArrayList<String> getInterfaceNames() {
+        ArrayList<String> names = new ArrayList<>();
+        String[] entries = new File(INTERFACES_DIRECTORY).list();
+        if (entries != null) {
+            Collections.addAll(names, entries);
+            Collections.sort(names);
+        }
+        return names;
+    }
+
+    /**
+     * @param name
+     * @return true if the name is that of a network interface on this machine
+     */
+    protected static boolean isValidInterfaceName(String name) {
+        return name != null && getInterfaceNames().contains(name);
+    }
+}
@@ -1,12 +1,14 @@
 package riot.network;
 
-import riot.util.DebuggingStatement;
+import riot.util.Log;
 import riot.util.WPA_CLI_Interface;
+import riot.util.WPA_CLI_Session;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Monitors a Wifi connection using the Linux command line.
@@ -17,13 +19,35 @@ import java.util.ArrayList;
  */
 public class LinuxWifiConnection extends LinuxNetworkConnection {
 
+    static final String TAG = "LinuxWifiConnection";
+
+    // How often a session which has ended, or could not be started, is
+    // started again.
+    static final long MONITOR_RETRY_MILLIS = 30000;
+    static final long STATUS_TIMEOUT_MILLIS = 2000;
+    static final Log.Limit MONITOR_LIMIT = new Log.Limit(10, TimeUnit.MINUTES);
+
+    /**
+     * Starts wpa_cli sessions; replaced in tests.
+     */
+    interface SessionStarter {
+        WPA_CLI_Session start(String interfaceName) throws IOException;
+    }
+
     public final String mAdapterName;
     public final String mTargetSSID;    // SSID that we wish to monitor connection to
     public final String mPSK;
 
+    // When running, link checks use the monitor's cached state instead of
+    // iwgetid and commands go through the session instead of new processes.
+    final SessionStarter mSessionStarter;
+    volatile WifiLinkMonitor mLinkMonitor;
+    long mMonitorStartedMillis;
+    long mMonitorRetryMillis = MONITOR_RETRY_MILLIS;
+
     /**
      * Creates a wifi connection instance with a desired AP SSID to connect to
-     * and monitors the connection status.
+     * and starts monitoring the connection status.
      *
      * @param adapterName
      * @param targetSSID
@@ -31,14 +55,68 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
      */
     public LinuxWifiConnection(String adapterName, String targetSSID, String PSK)
             throws InvalidNetworkAdapterException {
+        this(checkAdapterName(adapterName), targetSSID, PSK, WPA_CLI_Session::start);
+    }
 
-        if (isValidInterfaceName(adapterName)) {
-            mAdapterName = adapterName;
-            mTargetSSID = targetSSID;
-            mPSK = PSK;
-        } else {
+    LinuxWifiConnection(String adapterName, String targetSSID, String PSK,
+                        SessionStarter sessionStarter) {
+        mAdapterName = adapterName;
+        mTargetSSID = targetSSID;
+        mPSK = PSK;
+        mSessionStarter = sessionStarter;
+        startLinkMonitor();
+    }
+
+    static String checkAdapterName(String adapterName) throws InvalidNetworkAdapterException {
+        if (!isValidInterfaceName(adapterName)) {
             throw new InvalidNetworkAdapterException();
         }
+        return adapterName;
+    }
+
+    /**
+     * Starts a wpa_cli session and monitors its events so that
+     * {@link #isConnected()} and {@link #establishConnection()} do not need to
+     * start processes, and waits briefly for the current link state.  While
+     * there is no session, link checks fall back to iwgetid and commands fall
+     * back to {@link WPA_CLI_Interface}.
+     *
+     * @return the monitor, or null if wpa_cli could not be started
+     */
+    synchronized WifiLinkMonitor startLinkMonitor() {
+        mMonitorStartedMillis = System.currentTimeMillis();
+        try {
+            WPA_CLI_Session session = mSessionStarter.start(mAdapterName);
+            WifiLinkMonitor monitor = new WifiLinkMonitor(mTargetSSID, session);
+            if (!monitor.awaitStatus(STATUS_TIMEOUT_MILLIS)) {
+                Log.w(TAG, "wpa_cli did not report the status of %s in time.", mAdapterName);
+            }
+            mLinkMonitor = monitor;
+            return monitor;
+        } catch (IOException ex) {
+            Log.limited(Log.Level.WARN, MONITOR_LIMIT, TAG,
+                    "Could not start wpa_cli, checking the link with iwgetid: %s", ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * @return the running link monitor, restarting it if it has stopped and
+     * was last started long enough ago, or null
+     */
+    WifiLinkMonitor getLinkMonitor() {
+        WifiLinkMonitor monitor = mLinkMonitor;
+        if (monitor != null && monitor.isRunning()) {
+            return monitor;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() - mMonitorStartedMillis < mMonitorRetryMillis) {
+                return null;
+            }
+            return startLinkMonitor();
+        }
     }
 
     /**
@@ -49,6 +127,11 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
      * @throws IOException if the process cannot start
      */
     public String getConnectionSSID() {
+        WifiLinkMonitor monitor = getLinkMonitor();
+        if (monitor != null) {
+            return monitor.getSSID();
+        }
+
         String line = null;
         ProcessBuilder getWirelessSSID = new ProcessBuilder("/bin/sh", "-c",
                 "iwgetid " + mAdapterName + " -r");
@@ -60,12 +143,10 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
                          new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                 line = processReader.readLine();
             } catch (IOException ex) {
-                ex.printStackTrace();
-                DebuggingStatement.println("Could not read from process.");
+                Log.e(TAG, "Could not read from process.", ex);
             }
         } catch (IOException ex) {
-            ex.printStackTrace();
-            DebuggingStatement.println("Could not start process.");
+            Log.e(TAG, "Could not start process.", ex);
         }
 
         return line;
@@ -73,12 +154,17 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
 
     /**
      * Checks if the SSID of the network that the adapter is connected to
-     * is the same as the target SSID of this instance.
+     * is the same as the target SSID of this instance.  Reads the state cached
+     * by the link monitor unless wpa_cli is unavailable.
      *
      * @return true if they are the same
      */
     public boolean isConnected() {
-        return getConnectionSSID().equals(mTargetSSID);
+        WifiLinkMonitor monitor = getLinkMonitor();
+        if (monitor != null) {
+            return monitor.isConnected();
+        }
+        return mTargetSSID.equals(getConnectionSSID());
     }
 
     /**
@@ -88,43 +174,47 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
      * @throws IOException
      */
     public boolean establishConnection() throws InterruptedException, IOException {
+        WifiLinkMonitor monitor = getLinkMonitor();
+        if (monitor != null) {
+            return establishConnection(monitor.mSession);
+        }
+
         int index = WPA_CLI_Interface.getIndexOfNetwork(mAdapterName, mTargetSSID);  // network index
         if (index == -1) {
-            System.out.println("Adding network " + mTargetSSID);
+            Log.i(TAG, "Adding network %s", mTargetSSID);
             // add network to wpa_supplicant.conf file
             index = WPA_CLI_Interface.add_network(mAdapterName);
             if (index == -1) {
-                System.err.println("Failed to add network to wpa_supplicant.conf");
-                System.err.println("\t" + mAdapterName);
+                Log.e(TAG, "Failed to add network to wpa_supplicant.conf on %s", mAdapterName);
                 return false;
             }
 
             // set desired network
             if (!WPA_CLI_Interface.set_network(mAdapterName, index, "ssid", mTargetSSID)) {
-                System.err.println("Failed to set network SSID...");
+                Log.e(TAG, "Failed to set network SSID...");
                 return false;
             }
 
             // set password
             if (!WPA_CLI_Interface.set_network(mAdapterName, index, "psk", mPSK)) {
-                System.err.println("Failed to set pre-shared key...");
+                Log.e(TAG, "Failed to set pre-shared key...");
                 return false;
             }
         }
 
         // If the SSID is not the target SSID disable that network
         String SSID = getConnectionSSID();
-        if (!isConnected() && !SSID.isEmpty()) {
-            System.out.println("Disabling network: " + SSID);
+        if (!isConnected() && SSID != null && !SSID.isEmpty()) {
+            Log.i(TAG, "Disabling network: %s", SSID);
             if (!WPA_CLI_Interface.disable_network(mAdapterName, SSID)) {
-                System.err.println("Could not disable network: " + SSID);
+                Log.e(TAG, "Could not disable network: %s", SSID);
             }
         }
 
         // Enable target SSID network.
-        System.out.println("Enabling network " + mTargetSSID);
+        Log.i(TAG, "Enabling network %s", mTargetSSID);
         if (!WPA_CLI_Interface.enable_network(mAdapterName, index)) {
-            System.err.println("Network could not be enabled...");
+            Log.e(TAG, "Network could not be enabled...");
 
             // Attempt to connect failed.
             return false;
@@ -134,6 +224,50 @@ public class LinuxWifiConnection extends LinuxNetworkConnection {
         return true;
     }
 
+    /**
+     * Same as {@link #establishConnection()} but sends the commands through a
+     * running session, sending those that do not depend on each other
+     * together.
+     */
+    boolean establishConnection(WPA_CLI_Session session) throws InterruptedException, IOException {
+        int index = session.getIndexOfNetwork(mTargetSSID);
+        if (index == -1) {
+            Log.i(TAG, "Adding network %s", mTargetSSID);
+            index = session.add_network();
+            if (index == -1) {
+                Log.e(TAG, "Failed to add network to wpa_supplicant.conf on %s", mAdapterName);
+                return false;
+            }
+
+            if (!session.commandsOK(
+                    WPA_CLI_Session.set_network_command(index, "ssid", mTargetSSID),
+                    WPA_CLI_Session.set_network_command(index, "psk", mPSK))) {
+                Log.e(TAG, "Failed to set network SSID and pre-shared key...");
+                return false;
+            }
+        }
+
+        // If the SSID is not the target SSID disable that network
+        String SSID = getConnectionSSID();
+        if (!isConnected() && SSID != null && !SSID.isEmpty()) {
+            int current = session.getIndexOfNetwork(SSID);
+            Log.i(TAG, "Disabling network: %s", SSID);
+            if (current == -1 || !session.disable_network(current)) {
+                Log.e(TAG, "Could not disable network: %s", SSID);
+            }
+        }
+
+        // Enable target SSID network.
+        Log.i(TAG, "Enabling network %s", mTargetSSID);
+        if (!session.enable_network(index)) {
+            Log.e(TAG, "Network could not be enabled...");
+            return false;
+        }
+
+        // Currently connecting.
+        return true;
+    }
+
     /**
      * FOR TESTING THIS CLASS ONLY.
      * @param args
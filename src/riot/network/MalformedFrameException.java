@@ -0,0 +1,11 @@
+package riot.network;
+
+/**
+ * Indicates that binary data received from a peer could not be decoded.
+ */
+public class MalformedFrameException extends Exception {
+
+    public MalformedFrameException(String s) {
+        super(s);
+    }
+}
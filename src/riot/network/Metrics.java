@@ -1,21 +1,174 @@
 package riot.network;
 
-import java.util.ArrayList;
+import riot.data.Data;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * TODO: Implement metrics class.
+ * Tracks the quality of the link to each client from the sequence numbers of
+ * the packets received: how many were missed, duplicated or arrived out of
+ * order.
+ * <p>
+ * A client numbers the readings of all its devices from one sequence, so the
+ * sequence numbers are tracked per client rather than per device; otherwise
+ * the readings of a client's other devices would look like gaps.  Streams
+ * numbered separately, such as rollups, are tracked apart from the client's
+ * raw readings.
+ * <p>
+ * Recording a packet takes constant time and does not allocate, except the
+ * first time a client or stream is seen.  Each window has a single writer:
+ * the server records packets on its selector thread, in the order they
+ * arrived, so no lock is taken.  Any thread can read the counters, which are
+ * {@link LongAdder}s and volatile fields, without locking.
+ * <p>
  * Created by marianne on 8/04/17.
  */
 public class Metrics {
-    class DeviceMetrics {
-        String mDeviceName;
+
+    // How many recent sequence numbers are remembered for each client.
+    static final int WINDOW_SIZE = 4096;
+
+    public static class DeviceMetrics {
+        final String mDeviceName;
+        final SequenceWindow mSeqNums = new SequenceWindow(WINDOW_SIZE);
 
         // When no packets have been received, is -1.
-        int mMostRecentSeq = -1;
-        int mMissedPackets = 0;
-        int mDuplicatedPackets = 0;
-        int mOutOfOrderPackets = 0;
-        int mTotalPackets = 0;
-        ArrayList<Integer> mSeqNums = new ArrayList<Integer>();
+        volatile int mMostRecentSeq = -1;
+        final LongAdder mMissedPackets = new LongAdder();
+        final LongAdder mDuplicatedPackets = new LongAdder();
+        final LongAdder mOutOfOrderPackets = new LongAdder();
+        final LongAdder mTotalPackets = new LongAdder();
+
+        DeviceMetrics(String deviceName) {
+            mDeviceName = deviceName;
+        }
+
+        /**
+         * Records a received packet's sequence number.  Must only be called
+         * by one thread at a time, such as the server's selector thread.
+         *
+         * @param sequence
+         */
+        public void record(int sequence) {
+            switch (mSeqNums.mark(sequence)) {
+                case SequenceWindow.IN_ORDER:
+                    mMissedPackets.add(mSeqNums.getLastGap());
+                    mMostRecentSeq = sequence;
+                    break;
+                case SequenceWindow.LATE:
+                    // It was counted as missed when a later packet arrived.
+                    mMissedPackets.decrement();
+                    mOutOfOrderPackets.increment();
+                    break;
+                case SequenceWindow.DUPLICATE:
+                    mDuplicatedPackets.increment();
+                    break;
+                case SequenceWindow.TOO_OLD:
+                    mOutOfOrderPackets.increment();
+                    break;
+                default:
+                    mMostRecentSeq = sequence;
+                    break;
+            }
+            mTotalPackets.increment();
+        }
+
+        /**
+         * @return the client and, for separately numbered streams, the
+         * stream's suffix
+         */
+        public String getDeviceName() {
+            return mDeviceName;
+        }
+
+        public int getMostRecentSeq() {
+            return mMostRecentSeq;
+        }
+
+        public long getMissedPackets() {
+            return mMissedPackets.sum();
+        }
+
+        public long getDuplicatedPackets() {
+            return mDuplicatedPackets.sum();
+        }
+
+        public long getOutOfOrderPackets() {
+            return mOutOfOrderPackets.sum();
+        }
+
+        public long getTotalPackets() {
+            return mTotalPackets.sum();
+        }
+
+        @Override
+        public String toString() {
+            return mDeviceName + ": total=" + getTotalPackets() + " missed=" + getMissedPackets()
+                    + " duplicated=" + getDuplicatedPackets() + " outOfOrder=" + getOutOfOrderPackets()
+                    + " last=" + mMostRecentSeq;
+        }
+    }
+
+    final ConcurrentHashMap<String, DeviceMetrics> mDevices = new ConcurrentHashMap<>();
+
+    /**
+     * Records a received packet.  Like {@link DeviceMetrics#record}, must only
+     * be called by one thread at a time.
+     *
+     * @param client Identifies the client which numbered the reading, such as
+     *               its address.
+     * @param data
+     */
+    public void record(String client, Data data) {
+        getStreamMetrics(client, data).record(data.getSequence());
+    }
+
+    /**
+     * Finds the metrics that a client's readings like the given one are
+     * recorded in, so that callers can keep them rather than look them up for
+     * every packet.
+     *
+     * @param client Identifies the client which numbered the reading.
+     * @param data
+     * @return the metrics, created the first time the stream is seen
+     */
+    public DeviceMetrics getStreamMetrics(String client, Data data) {
+        String key = getKey(client, data);
+        DeviceMetrics metrics = mDevices.get(key);
+        if (metrics == null) {
+            metrics = mDevices.computeIfAbsent(key, DeviceMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the client, followed by the part of the stream id after the
+     * device id for streams numbered separately from the raw readings
+     */
+    static String getKey(String client, Data data) {
+        String streamID = data.getStreamID();
+        String deviceID = data.getDeviceID();
+        if (streamID.equals(deviceID)) {
+            return client;
+        }
+        if (streamID.startsWith(deviceID)) {
+            return client + streamID.substring(deviceID.length());
+        }
+        return client + "/" + streamID;
+    }
+
+    /**
+     * @param key The client, as given to {@link #record}, and the suffix of a
+     *            separately numbered stream if any.
+     * @return the metrics, or null if nothing has been received under the key
+     */
+    public DeviceMetrics getDeviceMetrics(String key) {
+        return mDevices.get(key);
+    }
+
+    public Collection<DeviceMetrics> getAllDeviceMetrics() {
+        return mDevices.values();
     }
 }
@@ -0,0 +1,26 @@
+package riot.network;
+
+import java.io.IOException;
+
+/**
+ * A network link between components of the RIOT project, such as the Wi-Fi
+ * link from a Pi to the rugged laptop.
+ */
+public abstract class NetworkConnection {
+
+    /**
+     * @return true if the link is up
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public abstract boolean isConnected() throws InterruptedException, IOException;
+
+    /**
+     * Starts bringing the link up.  May return before it is up.
+     *
+     * @return false if the attempt could not be started
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public abstract boolean establishConnection() throws InterruptedException, IOException;
+}
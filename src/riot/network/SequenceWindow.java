@@ -0,0 +1,130 @@
+package riot.network;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which of the most recent sequence numbers from one source have
+ * been seen, using a fixed-size bitmap that slides forward with the highest
+ * sequence number.  Memory use does not grow with the number of packets.
+ * <p>
+ * Not thread safe; each window must only be updated by one thread at a time.
+ */
+public class SequenceWindow {
+
+    // Results of mark().
+    public static final int FIRST = 0;
+    public static final int IN_ORDER = 1;
+    public static final int LATE = 2;
+    public static final int DUPLICATE = 3;
+    public static final int TOO_OLD = 4;
+
+    final long[] mBits;
+    final int mSize;
+
+    int mHighest = -1;
+    boolean mEmpty = true;
+
+    // Sequence numbers skipped by the last IN_ORDER result.
+    int mLastGap = 0;
+
+    /**
+     * @param size The number of sequence numbers remembered; rounded up to a
+     *             power of two of at least 64.
+     */
+    public SequenceWindow(int size) {
+        if (size < 1 || size > (1 << 24)) {
+            throw new IllegalArgumentException("Window size must be between 1 and 2^24.");
+        }
+        int bits = 64;
+        while (bits < size) {
+            bits <<= 1;
+        }
+        mBits = new long[bits / 64];
+        mSize = bits;
+    }
+
+    /**
+     * Records that a sequence number has been seen.
+     *
+     * @param sequence
+     * @return how the sequence number relates to those already seen:
+     * {@link #FIRST}, {@link #IN_ORDER} (see {@link #getLastGap()}),
+     * {@link #LATE} for a number below the highest that had not been seen,
+     * {@link #DUPLICATE}, or {@link #TOO_OLD} if it is below the window and
+     * cannot be checked
+     */
+    public int mark(int sequence) {
+        if (mEmpty) {
+            mEmpty = false;
+            mHighest = sequence;
+            set(sequence);
+            return FIRST;
+        }
+
+        if (sequence > mHighest) {
+            long gap = (long) sequence - mHighest - 1;
+            if (gap >= mSize) {
+                Arrays.fill(mBits, 0L);
+            } else {
+                for (int skipped = mHighest + 1; skipped < sequence; skipped++) {
+                    clear(skipped);
+                }
+            }
+            mLastGap = (int) Math.min(gap, Integer.MAX_VALUE);
+            mHighest = sequence;
+            set(sequence);
+            return IN_ORDER;
+        }
+
+        if ((long) mHighest - sequence >= mSize) {
+            return TOO_OLD;
+        }
+        if (isSet(sequence)) {
+            return DUPLICATE;
+        }
+        set(sequence);
+        return LATE;
+    }
+
+    /**
+     * Checks if a sequence number has been seen without recording it.
+     *
+     * @param sequence
+     * @return true if it is in the window and has been seen; sequence numbers
+     * below the window are never reported as seen
+     */
+    public boolean contains(int sequence) {
+        if (mEmpty || sequence > mHighest || (long) mHighest - sequence >= mSize) {
+            return false;
+        }
+        return isSet(sequence);
+    }
+
+    /**
+     * @return the number of sequence numbers skipped by the last
+     * {@link #IN_ORDER} result
+     */
+    public int getLastGap() {
+        return mLastGap;
+    }
+
+    public int getHighest() {
+        return mHighest;
+    }
+
+    int index(int sequence) {
+        return (sequence & (mSize - 1)) >>> 6;
+    }
+
+    void set(int sequence) {
+        mBits[index(sequence)] |= 1L << (sequence & 63);
+    }
+
+    void clear(int sequence) {
+        mBits[index(sequence)] &= ~(1L << (sequence & 63));
+    }
+
+    boolean isSet(int sequence) {
+        return (mBits[index(sequence)] & (1L << (sequence & 63))) != 0;
+    }
+}
@@ -0,0 +1,128 @@
+package riot.network;
+
+import riot.util.Log;
+import riot.util.WPA_CLI_Session;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps track of whether the Wi-Fi adapter is connected to the target network
+ * by listening to wpa_supplicant events, so that checking the link does not
+ * start a process.
+ * <p>
+ * Events arrive through a {@link WPA_CLI_Session}, for example:
+ * <pre>
+ *     CTRL-EVENT-CONNECTED - Connection to 00:11:22:33:44:55 completed [id=0 id_str=]
+ *     CTRL-EVENT-DISCONNECTED bssid=00:11:22:33:44:55 reason=3
+ * </pre>
+ * Connection events do not name the network, so the monitor asks for the
+ * status after each one and reads the ssid from the reply.
+ * <p>
+ * The session can be given any reader and writer, so anything that speaks
+ * the same text can stand in for wpa_cli.
+ */
+public class WifiLinkMonitor implements WPA_CLI_Session.EventListener,
+        WPA_CLI_Session.ReplyListener {
+
+    static final String TAG = "WifiLinkMonitor";
+
+    static final String EVENT_CONNECTED = "CTRL-EVENT-CONNECTED";
+    static final String EVENT_DISCONNECTED = "CTRL-EVENT-DISCONNECTED";
+    static final String EVENT_TERMINATING = "CTRL-EVENT-TERMINATING";
+    static final String STATUS_COMMAND = "status";
+
+    final String mTargetSSID;
+    final WPA_CLI_Session mSession;
+    final WPA_CLI_Session.Request mFirstStatus;
+
+    // Read by any thread without locking.
+    volatile boolean mConnected = false;
+    volatile String mSSID = null;
+
+    /**
+     * Starts monitoring the session and requests the current status.
+     *
+     * @param targetSSID The network that counts as connected.
+     * @param session
+     * @throws IOException if the status cannot be requested
+     */
+    public WifiLinkMonitor(String targetSSID, WPA_CLI_Session session) throws IOException {
+        if (targetSSID == null) {
+            throw new NullPointerException("Target SSID cannot be null.");
+        }
+        mTargetSSID = targetSSID;
+        mSession = session;
+        mSession.addEventListener(this);
+        mFirstStatus = mSession.send(STATUS_COMMAND, this);
+    }
+
+    /**
+     * Waits for the reply to the first status request, before which the
+     * monitor reports the link as down.
+     *
+     * @param timeoutMillis
+     * @return true if the link state is known
+     * @throws InterruptedException
+     */
+    public boolean awaitStatus(long timeoutMillis) throws InterruptedException {
+        return mFirstStatus.await(timeoutMillis) != null;
+    }
+
+    /**
+     * @return true if the adapter is connected to the target network
+     */
+    public boolean isConnected() {
+        return mConnected && mSession.isRunning();
+    }
+
+    /**
+     * @return the network the adapter is connected to, or null
+     */
+    public String getSSID() {
+        return mSSID;
+    }
+
+    /**
+     * @return false once the session has ended, after which the cached state
+     * is no longer updated
+     */
+    public boolean isRunning() {
+        return mSession.isRunning();
+    }
+
+    @Override
+    public void onEvent(String event) {
+        if (event.startsWith(EVENT_CONNECTED)) {
+            try {
+                mSession.send(STATUS_COMMAND, this);
+            } catch (IOException ex) {
+                Log.d(TAG, "Could not request status: %s", ex.getMessage());
+            }
+        } else if (event.startsWith(EVENT_DISCONNECTED) || event.startsWith(EVENT_TERMINATING)) {
+            setLink(null);
+        }
+    }
+
+    /**
+     * Reads the link state from the reply to a status command.
+     */
+    @Override
+    public void onReply(List<String> lines) {
+        String SSID = null;
+        boolean completed = false;
+        for (String line : lines) {
+            if (line.startsWith("ssid=")) {
+                SSID = line.substring("ssid=".length());
+            } else if (line.equals("wpa_state=COMPLETED")) {
+                completed = true;
+            }
+        }
+        setLink(completed ? SSID : null);
+    }
+
+    void setLink(String SSID) {
+        mSSID = SSID;
+        mConnected = mTargetSSID.equals(SSID);
+    }
+}
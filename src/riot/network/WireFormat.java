@@ -0,0 +1,180 @@
+package riot.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Constants shared by the two ends of the transmission protocol.
+ * <p>
+ * A client which supports more than the original text format opens the
+ * conversation with a hello line listing the formats it accepts, in order of
+ * preference:
+ * <pre>
+ *     HELLO 1 binary text
+ * </pre>
+ * The server replies with the format it picked:
+ * <pre>
+ *     FORMAT binary
+ * </pre>
+ * The hello line may also carry the epoch of the client's outbox as a
+ * hexadecimal token, {@code epoch=5f3a9c0e12d4b7a1}.  Sequence numbers are only
+ * unique within an epoch, so the server includes it when recognising readings
+ * it has already stored.  Servers which do not know the token ignore it.
+ * <p>
+ * A server which does not reply within the client's timeout is assumed to
+ * only understand text.  A client which never sends a hello line is a text
+ * client.  Acknowledgements are sent as text lines in every format.
+ * <p>
+ * Binary frames are a version byte followed by the payload length as a
+ * varint and the payload itself, which is a sequence of records.  Each
+ * record starts with a tag byte:
+ * <ul>
+ * <li>{@link #TAG_DEVICE}: varint dictionary index, varint byte length,
+ * UTF-8 device id.  Defines an index used by later records on the same
+ * connection.</li>
+ * <li>{@link #TAG_LUX}: varint device index, varint sequence number,
+ * zig-zag varint timestamp delta from the previous record on the
+ * connection, 4 byte big-endian float.</li>
+ * <li>Any other tag is the tag of a registered
+ * {@link riot.data.SensorType}, laid out like {@link #TAG_LUX} but with one
+ * float for each of the type's values.  {@link #TAG_MOTION} is the first of
+ * these.</li>
+ * </ul>
+ * <p>
+ * The {@link #DEFLATE} format is the binary format with compressed frames as
+ * well.  A compressed frame starts with {@link #VERSION_DEFLATE} instead of
+ * {@link #VERSION}, and its length is that of the compressed payload.  The
+ * payloads of all compressed frames on a connection form one raw DEFLATE
+ * stream, started with {@link #getDeflateDictionary()} as its preset
+ * dictionary, and each payload is flushed with a sync flush whose final
+ * {@code 00 00 FF FF} is left off.  Frames smaller than
+ * {@link #MIN_DEFLATE_PAYLOAD} are not worth compressing and are sent as
+ * ordinary frames, so compression only applies to full batches such as those
+ * sent while draining a backlog.
+ */
+public class WireFormat {
+    public static final String HELLO = "HELLO";
+    public static final String FORMAT = "FORMAT";
+    public static final String TEXT = "text";
+    public static final String BINARY = "binary";
+    public static final String DEFLATE = "deflate";
+    public static final String EPOCH = "epoch=";
+
+    public static final int VERSION = 1;
+    public static final int VERSION_DEFLATE = 2;
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+    // DEFLATE adds at most a few bytes per 16 KiB to data it cannot compress.
+    public static final int MAX_DEFLATED_FRAME_LENGTH = MAX_FRAME_LENGTH + 256;
+    public static final int MIN_DEFLATE_PAYLOAD = 256;
+    public static final int MAX_DEVICE_ID_LENGTH = 255;
+
+    public static final byte TAG_DEVICE = 1;
+    public static final byte TAG_LUX = 2;
+    public static final byte TAG_MOTION = 3;
+    public static final byte TAG_LUX_ROLLUP = 4;
+
+    static byte[] sDeflateDictionary;
+
+    /**
+     * Returns the preset dictionary of the compressed format: frames of lux
+     * readings like those a node sends, so that even the first frame on a
+     * connection has something to refer back to.  It is part of the format,
+     * so anything that changes it needs a new format name.
+     *
+     * @return a copy of the dictionary
+     */
+    public static synchronized byte[] getDeflateDictionary() {
+        if (sDeflateDictionary == null) {
+            BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+            for (int i = 0; i < 64; i++) {
+                encoder.addLux("pi-zero-" + (i % 4), (i * 37) % 1000 + 0.5f, 1000 + i,
+                        1500000000L + i / 4);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                encoder.writeFrame(out);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            sDeflateDictionary = out.toByteArray();
+        }
+        return sDeflateDictionary.clone();
+    }
+
+    /**
+     * Builds the hello line a client sends to offer the given formats.
+     *
+     * @param epoch   The epoch of the client's outbox, or 0 to leave it out.
+     * @param formats Formats in order of preference.
+     * @return
+     */
+    public static String hello(long epoch, String... formats) {
+        StringBuilder builder = new StringBuilder(HELLO).append(' ').append(VERSION);
+        for (String format : formats) {
+            builder.append(' ').append(format);
+        }
+        if (epoch != 0) {
+            builder.append(' ').append(EPOCH).append(Long.toHexString(epoch));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads the client's epoch from a hello line.
+     *
+     * @param helloLine
+     * @return the epoch, or 0 if the line does not carry a valid one
+     */
+    public static long parseEpoch(String helloLine) {
+        String[] split = helloLine.trim().split(" ");
+        for (int i = 2; i < split.length; i++) {
+            if (split[i].startsWith(EPOCH)) {
+                try {
+                    return Long.parseUnsignedLong(split[i].substring(EPOCH.length()), 16);
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Picks the first format offered in a hello line that the server supports.
+     *
+     * @param helloLine
+     * @param supported Formats the server supports.
+     * @return the chosen format, or null if the line is not a hello line
+     */
+    public static String negotiate(String helloLine, String... supported) {
+        String[] split = helloLine.trim().split(" ");
+        if (split.length < 2 || !split[0].equals(HELLO)) {
+            return null;
+        }
+        for (int i = 2; i < split.length; i++) {
+            for (String format : supported) {
+                if (format.equals(split[i])) {
+                    return format;
+                }
+            }
+        }
+        return TEXT;
+    }
+
+    /**
+     * Reads the format from a server's reply to a hello line.
+     *
+     * @param line
+     * @return the format, or null if the line is not a format reply
+     */
+    public static String parseFormatReply(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] split = line.trim().split(" ");
+        if (split.length != 2 || !split[0].equals(FORMAT)) {
+            return null;
+        }
+        return split[1];
+    }
+}
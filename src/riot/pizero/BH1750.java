@@ -0,0 +1,54 @@
+package riot.pizero;
+
+import riot.data.SensorType;
+
+import java.io.IOException;
+
+/**
+ * The BH1750 ambient light sensor, read in continuous high resolution mode.
+ */
+public class BH1750 implements Sensor {
+
+    public static final int DEFAULT_ADDRESS = 0x23;
+
+    static final byte POWER_DOWN = 0x00;
+    static final byte CONTINUOUS_HIGH_RES_MODE = 0x10;
+
+    // From the datasheet: counts = lux * 1.2 in high resolution mode.
+    static final double COUNTS_PER_LUX = 1.2;
+
+    final int mAddress;
+    final byte[] mCommand = new byte[1];
+    final byte[] mMeasurement = new byte[2];
+
+    public BH1750() {
+        this(DEFAULT_ADDRESS);
+    }
+
+    /**
+     * @param address 0x23, or 0x5C with the ADDR pin high.
+     */
+    public BH1750(int address) {
+        mAddress = address;
+    }
+
+    @Override
+    public SensorType getType() {
+        return SensorType.LUX;
+    }
+
+    @Override
+    public void start(I2CBus bus) throws IOException {
+        // Measurements take up to 180ms in this mode, after which the sensor
+        // keeps the latest result ready to read.
+        mCommand[0] = CONTINUOUS_HIGH_RES_MODE;
+        bus.write(mAddress, mCommand, 0, 1);
+    }
+
+    @Override
+    public void sample(I2CBus bus, float[] values) throws IOException {
+        bus.read(mAddress, mMeasurement, 0, 2);
+        int raw = ((mMeasurement[0] & 0xFF) << 8) | (mMeasurement[1] & 0xFF);
+        values[0] = (float) (raw / COUNTS_PER_LUX);
+    }
+}
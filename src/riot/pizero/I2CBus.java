@@ -0,0 +1,38 @@
+package riot.pizero;
+
+import java.io.IOException;
+
+/**
+ * An I2C bus which sensors are read through.  Implementations talk to the Pi's
+ * bus or to simulated devices, so the sampling engine can run anywhere.
+ * <p>
+ * Only the sampling thread uses a bus, so implementations need not be thread
+ * safe.
+ */
+public interface I2CBus extends AutoCloseable {
+
+    /**
+     * Writes bytes to the device at an address.
+     *
+     * @param address 7-bit device address.
+     * @param data
+     * @param offset
+     * @param length
+     * @throws IOException if the device does not acknowledge
+     */
+    void write(int address, byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Reads bytes from the device at an address.
+     *
+     * @param address 7-bit device address.
+     * @param buffer
+     * @param offset
+     * @param length
+     * @throws IOException if the device does not respond
+     */
+    void read(int address, byte[] buffer, int offset, int length) throws IOException;
+
+    @Override
+    void close();
+}
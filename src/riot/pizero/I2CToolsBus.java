@@ -0,0 +1,93 @@
+package riot.pizero;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Accesses a Linux I2C bus through the i2ctransfer tool from i2c-tools.
+ * <p>
+ * Java cannot make the ioctl calls that /dev/i2c-N needs, so every transfer
+ * starts a process.  That costs a few milliseconds, which is fine for sensors
+ * sampled a few times a second.  Faster sensors need a native implementation
+ * of {@link I2CBus}.
+ */
+public class I2CToolsBus implements I2CBus {
+
+    final int mBusNumber;
+
+    /**
+     * @param busNumber The N in /dev/i2c-N.  The Pi's header pins are bus 1.
+     */
+    public I2CToolsBus(int busNumber) {
+        if (busNumber < 0) {
+            throw new IllegalArgumentException("Bus number cannot be negative.");
+        }
+        mBusNumber = busNumber;
+    }
+
+    @Override
+    public void write(int address, byte[] data, int offset, int length) throws IOException {
+        String[] command = new String[4 + length];
+        command[0] = "i2ctransfer";
+        command[1] = "-y";
+        command[2] = Integer.toString(mBusNumber);
+        command[3] = "w" + length + "@" + formatAddress(address);
+        for (int i = 0; i < length; i++) {
+            command[4 + i] = String.format("0x%02x", data[offset + i] & 0xFF);
+        }
+        run(command);
+    }
+
+    @Override
+    public void read(int address, byte[] buffer, int offset, int length) throws IOException {
+        String output = run("i2ctransfer", "-y", Integer.toString(mBusNumber),
+                "r" + length + "@" + formatAddress(address));
+
+        // Bytes are printed as hex separated by spaces, e.g. "0x01 0x2c".
+        String[] split = output.trim().split(" ");
+        if (split.length != length) {
+            throw new IOException("Expected " + length + " bytes from i2ctransfer: " + output);
+        }
+        for (int i = 0; i < length; i++) {
+            try {
+                buffer[offset + i] = (byte) Integer.parseInt(split[i].substring(2), 16);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+                throw new IOException("Unexpected output from i2ctransfer: " + output);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held open between transfers.
+    }
+
+    static String formatAddress(int address) {
+        if (address < 0 || address > 0x7F) {
+            throw new IllegalArgumentException("Invalid I2C address: " + address);
+        }
+        return String.format("0x%02x", address);
+    }
+
+    String run(String... command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line);
+            }
+        }
+
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException("i2ctransfer failed: " + output);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for i2ctransfer.");
+        }
+        return output.toString();
+    }
+}
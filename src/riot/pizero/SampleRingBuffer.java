@@ -0,0 +1,126 @@
+package riot.pizero;
+
+import riot.data.SensorType;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size queue of samples between the sampling thread and the writer
+ * thread, stored in preallocated primitive arrays so that sampling never
+ * allocates or blocks.
+ * <p>
+ * There must be exactly one producer and one consumer.  The consumer reads
+ * samples in place with {@link #getChannel}, {@link #getTimestamp} and
+ * {@link #getValue}, and only releases them once they are stored, so samples
+ * survive a failed commit.  When the buffer is full new samples are dropped and
+ * counted.
+ */
+public class SampleRingBuffer {
+
+    final int mCapacity;
+    final int mMask;
+
+    final int[] mChannels;
+    final long[] mTimestamps;
+    final float[] mValues; // SensorType.MAX_VALUES per slot
+
+    // Total samples ever written and released.  Only the producer advances
+    // the head and only the consumer advances the tail.
+    final AtomicLong mHead = new AtomicLong();
+    final AtomicLong mTail = new AtomicLong();
+    final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * @param capacity The most samples held, rounded up to a power of two.
+     */
+    public SampleRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^24.");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = mCapacity - 1;
+        mChannels = new int[mCapacity];
+        mTimestamps = new long[mCapacity];
+        mValues = new float[mCapacity * SensorType.MAX_VALUES];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of samples dropped because the buffer was full
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    /**
+     * Adds a sample.  Called by the producer.
+     *
+     * @param channel   Identifies the sensor.
+     * @param timestamp
+     * @param values
+     * @param count     The number of values.
+     * @return false if the buffer was full and the sample was dropped
+     */
+    public boolean offer(int channel, long timestamp, float[] values, int count) {
+        long head = mHead.get();
+        if (head - mTail.get() >= mCapacity) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) (head & mMask);
+        mChannels[slot] = channel;
+        mTimestamps[slot] = timestamp;
+        System.arraycopy(values, 0, mValues, slot * SensorType.MAX_VALUES, count);
+
+        // Publishes the slot to the consumer.
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * @return the number of samples waiting.  Called by the consumer.
+     */
+    public int available() {
+        return (int) (mHead.get() - mTail.get());
+    }
+
+    /**
+     * @param index Between 0 and {@link #available()}, from the oldest sample.
+     * @return
+     */
+    public int getChannel(int index) {
+        return mChannels[slot(index)];
+    }
+
+    public long getTimestamp(int index) {
+        return mTimestamps[slot(index)];
+    }
+
+    public float getValue(int index, int column) {
+        return mValues[slot(index) * SensorType.MAX_VALUES + column];
+    }
+
+    /**
+     * Frees the oldest samples for reuse once they have been stored.
+     *
+     * @param count
+     */
+    public void release(int count) {
+        if (count < 0 || count > available()) {
+            throw new IllegalArgumentException("Cannot release " + count + " samples.");
+        }
+        mTail.lazySet(mTail.get() + count);
+    }
+
+    int slot(int index) {
+        return (int) ((mTail.get() + index) & mMask);
+    }
+}
@@ -0,0 +1,274 @@
+package riot.pizero;
+
+import riot.client.Outbox;
+import riot.client.OutboxException;
+import riot.client.OutboxSignal;
+import riot.data.SensorType;
+import riot.database.BatchInserter;
+import riot.database.ColumnBatch;
+import riot.database.RIOTDatabase;
+import riot.util.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves samples from the ring buffer into the database in batches, one
+ * transaction per batch, and wakes the transmission client after each
+ * commit.
+ * <p>
+ * This runs on its own thread so a slow commit to the SD card only delays
+ * this thread; the sampling thread keeps to its schedule while the ring
+ * buffer absorbs the backlog.  Samples are only released from the buffer once
+ * committed, so a failed commit is retried with the same samples.
+ * <p>
+ * The writer allocates entry ids itself, so it must be the only thing adding
+ * entries to the database.
+ * <p>
+ * Alternatively the samples can be appended to an {@link Outbox}, such as a
+ * {@link riot.client.MappedOutbox}, which is flushed once per batch.
+ * <p>
+ * Either way the samples end up in an outbox, which only holds lux readings,
+ * so every channel must be a lux channel.
+ */
+public class SampleWriter implements Runnable {
+
+    static final String TAG = "SampleWriter";
+    static final Log.Limit RETRY_LIMIT = new Log.Limit(1, TimeUnit.MINUTES);
+
+    static final String ENTRY_INSERT = "INSERT INTO entry VALUES (?, ?, ?, ?)";
+
+    final Connection mDBConnection;
+    final Outbox mOutbox;
+    final SampleRingBuffer mRing;
+    final String[] mDeviceIDs;
+    final SensorType[] mTypes;
+    final OutboxSignal mOutboxSignal;
+
+    final int mMaxBatchSize;
+    final long mFlushIntervalMillis;
+
+    int mNextEntryID;
+    volatile boolean mRunning = true;
+
+    /**
+     * @param databaseConnection Used only by the writer's thread.
+     * @param ring
+     * @param deviceIDs          The device id of each channel in the ring buffer.
+     * @param types              The sensor type of each channel, which must be
+     *                           {@link SensorType#LUX}.
+     * @param outboxSignal       Signalled after every commit.  May be null.
+     * @param maxBatchSize       The most samples committed in one transaction.
+     * @param flushIntervalMillis How long the writer waits between batches.
+     */
+    public SampleWriter(Connection databaseConnection, SampleRingBuffer ring,
+                        String[] deviceIDs, SensorType[] types, OutboxSignal outboxSignal,
+                        int maxBatchSize, long flushIntervalMillis) {
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        if (ring == null) {
+            throw new NullPointerException("Ring buffer cannot be null.");
+        }
+        if (deviceIDs.length != types.length) {
+            throw new IllegalArgumentException("Every channel needs a device id and a type.");
+        }
+        // The rows are paged and compacted by the SQLiteOutbox.
+        checkTypes(types);
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        mDBConnection = databaseConnection;
+        mOutbox = null;
+        mRing = ring;
+        mDeviceIDs = deviceIDs.clone();
+        mTypes = types.clone();
+        mOutboxSignal = outboxSignal;
+        mMaxBatchSize = maxBatchSize;
+        mFlushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * @param outbox              An opened outbox, used by the writer's thread
+     *                            and the transmission client.
+     * @param ring
+     * @param deviceIDs           The device id of each channel in the ring buffer.
+     * @param types               The sensor type of each channel, which must be
+     *                            {@link SensorType#LUX}.
+     * @param outboxSignal        Signalled after every batch.  May be null.
+     * @param maxBatchSize        The most samples flushed at once.
+     * @param flushIntervalMillis How long the writer waits between batches.
+     */
+    public SampleWriter(Outbox outbox, SampleRingBuffer ring,
+                        String[] deviceIDs, SensorType[] types, OutboxSignal outboxSignal,
+                        int maxBatchSize, long flushIntervalMillis) {
+        if (outbox == null) {
+            throw new NullPointerException("Outbox cannot be null.");
+        }
+        if (ring == null) {
+            throw new NullPointerException("Ring buffer cannot be null.");
+        }
+        if (deviceIDs.length != types.length) {
+            throw new IllegalArgumentException("Every channel needs a device id and a type.");
+        }
+        checkTypes(types);
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        mDBConnection = null;
+        mOutbox = outbox;
+        mRing = ring;
+        mDeviceIDs = deviceIDs.clone();
+        mTypes = types.clone();
+        mOutboxSignal = outboxSignal;
+        mMaxBatchSize = maxBatchSize;
+        mFlushIntervalMillis = flushIntervalMillis;
+    }
+
+    static void checkTypes(SensorType[] types) {
+        for (SensorType type : types) {
+            if (type != SensorType.LUX) {
+                throw new IllegalArgumentException("Outboxes only hold lux readings, not " + type.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Stops the writer once the samples already buffered have been written.
+     */
+    public void stop() {
+        mRunning = false;
+    }
+
+    @Override
+    public void run() {
+        if (mOutbox != null) {
+            runOutbox();
+            return;
+        }
+        try (BatchInserter inserter = new BatchInserter(mDBConnection)) {
+            RIOTDatabase.createTables(mDBConnection);
+            for (int channel = 0; channel < mDeviceIDs.length; channel++) {
+                mTypes[channel].createTable(mDBConnection);
+                RIOTDatabase.registerDevice(mDBConnection, mDeviceIDs[channel]);
+            }
+            mNextEntryID = RIOTDatabase.getNextEntryId(mDBConnection);
+
+            while (mRunning || mRing.available() > 0) {
+                int count = Math.min(mRing.available(), mMaxBatchSize);
+                if (count > 0 && commit(inserter, count)) {
+                    mRing.release(count);
+                    if (mOutboxSignal != null) {
+                        mOutboxSignal.signal();
+                    }
+                    if (count == mMaxBatchSize) {
+                        // Keep going while there is a backlog.
+                        continue;
+                    }
+                }
+                Thread.sleep(mFlushIntervalMillis);
+            }
+        } catch (SQLException ex) {
+            Log.e(TAG, "Could not prepare the database.", ex);
+        } catch (InterruptedException ex) {
+            // Finish.
+        }
+    }
+
+    void runOutbox() {
+        try {
+            while (mRunning || mRing.available() > 0) {
+                int count = Math.min(mRing.available(), mMaxBatchSize);
+                if (count > 0 && append(count)) {
+                    if (mOutboxSignal != null) {
+                        mOutboxSignal.signal();
+                    }
+                    if (count == mMaxBatchSize) {
+                        continue;
+                    }
+                }
+                Thread.sleep(mFlushIntervalMillis);
+            }
+        } catch (InterruptedException ex) {
+            // Finish.
+        }
+    }
+
+    /**
+     * Appends the oldest samples in the buffer to the outbox and flushes it.
+     * Samples are released as they are appended, as a failed append is not
+     * undone.
+     *
+     * @return true if the samples were flushed
+     */
+    boolean append(int count) {
+        try {
+            for (int i = 0; i < count; i++) {
+                int channel = mRing.getChannel(0);
+                mOutbox.append(mDeviceIDs[channel], mRing.getValue(0, 0),
+                        mRing.getTimestamp(0) / 1000L);
+                mRing.release(1);
+            }
+            mOutbox.flush();
+            return true;
+        } catch (OutboxException ex) {
+            Log.limited(Log.Level.WARN, RETRY_LIMIT, TAG, "Could not store samples, will retry.");
+            return false;
+        }
+    }
+
+    /**
+     * Stores the oldest samples in the buffer in one transaction.
+     *
+     * @return true if the samples were committed
+     */
+    boolean commit(BatchInserter inserter, int count) {
+        int firstEntryID = mNextEntryID;
+        try {
+            mDBConnection.setAutoCommit(false);
+
+            // The entry statement is requested first so its batch runs first.
+            PreparedStatement entryStatement = inserter.getStatement(ENTRY_INSERT);
+            long now = System.currentTimeMillis() / 1000L;
+            for (int i = 0; i < count; i++) {
+                int channel = mRing.getChannel(i);
+                SensorType type = mTypes[channel];
+
+                int entryID = mNextEntryID++;
+                entryStatement.setLong(1, now);
+                entryStatement.setLong(2, mRing.getTimestamp(i) / 1000L);
+                entryStatement.setString(3, mDeviceIDs[channel]);
+                entryStatement.setInt(4, entryID);
+                entryStatement.addBatch();
+
+                ColumnBatch batch = inserter.getColumnBatch(type.getTable(), type.getValueCount());
+                int row = batch.addRow(entryID);
+                for (int column = 0; column < type.getValueCount(); column++) {
+                    batch.set(row, column, mRing.getValue(i, column));
+                }
+            }
+
+            inserter.executeBatches();
+            mDBConnection.commit();
+            return true;
+        } catch (SQLException ex) {
+            Log.limited(Log.Level.WARN, RETRY_LIMIT, TAG, "Could not store samples, will retry.");
+            inserter.clearBatches();
+            mNextEntryID = firstEntryID;
+            try {
+                mDBConnection.rollback();
+            } catch (SQLException ex2) {
+                Log.e(TAG, "Could not rollback transactions.");
+            }
+            return false;
+        } finally {
+            try {
+                mDBConnection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Log.e(TAG, "Could not re-enable auto-commit.");
+            }
+        }
+    }
+}
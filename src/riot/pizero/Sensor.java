@@ -0,0 +1,38 @@
+package riot.pizero;
+
+import riot.data.SensorType;
+
+import java.io.IOException;
+
+/**
+ * A sensor read over I2C by the sampling engine.
+ * <p>
+ * A sensor is only used from the sampling thread.  {@link #sample} is called
+ * on a fixed-rate schedule, so it must not block for longer than the sampling
+ * period.
+ */
+public interface Sensor {
+
+    /**
+     * @return the kind of readings the sensor produces
+     */
+    SensorType getType();
+
+    /**
+     * Configures the sensor before the first sample.
+     *
+     * @param bus
+     * @throws IOException
+     */
+    void start(I2CBus bus) throws IOException;
+
+    /**
+     * Reads one sample.
+     *
+     * @param bus
+     * @param values Filled with {@link SensorType#getValueCount()} values in the
+     *               order of the type's columns.
+     * @throws IOException
+     */
+    void sample(I2CBus bus, float[] values) throws IOException;
+}
@@ -0,0 +1,104 @@
+package riot.pizero;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * An I2C bus whose devices are simulated in Java, for running the sampling
+ * engine on a machine without sensors.
+ */
+public class SimulatedI2CBus implements I2CBus {
+
+    /**
+     * A simulated device attached to the bus.
+     */
+    public interface Device {
+
+        void write(byte[] data, int offset, int length) throws IOException;
+
+        void read(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    final HashMap<Integer, Device> mDevices = new HashMap<>();
+
+    /**
+     * Attaches a device at an address.
+     *
+     * @param address
+     * @param device
+     */
+    public void attach(int address, Device device) {
+        if (device == null) {
+            throw new NullPointerException("Device cannot be null.");
+        }
+        mDevices.put(address, device);
+    }
+
+    @Override
+    public void write(int address, byte[] data, int offset, int length) throws IOException {
+        getDevice(address).write(data, offset, length);
+    }
+
+    @Override
+    public void read(int address, byte[] buffer, int offset, int length) throws IOException {
+        getDevice(address).read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() {
+        mDevices.clear();
+    }
+
+    Device getDevice(int address) throws IOException {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            throw new IOException("No device acknowledged address " + address + ".");
+        }
+        return device;
+    }
+
+    /**
+     * A BH1750 light sensor which reports a slow day-like cycle of light
+     * levels.
+     */
+    public static class SimulatedBH1750 implements Device {
+        final long mStart = System.currentTimeMillis();
+        final long mCycleMillis;
+        boolean mMeasuring = false;
+
+        /**
+         * @param cycleMillis The time taken to go from dark to bright and back.
+         */
+        public SimulatedBH1750(long cycleMillis) {
+            mCycleMillis = cycleMillis;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (length != 1) {
+                throw new IOException("BH1750 commands are one byte.");
+            }
+            byte command = data[offset];
+            if (command == BH1750.POWER_DOWN) {
+                mMeasuring = false;
+            } else if (command == BH1750.CONTINUOUS_HIGH_RES_MODE) {
+                mMeasuring = true;
+            }
+        }
+
+        @Override
+        public void read(byte[] buffer, int offset, int length) throws IOException {
+            if (length != 2) {
+                throw new IOException("BH1750 measurements are two bytes.");
+            }
+            int raw = 0;
+            if (mMeasuring) {
+                double phase = 2 * Math.PI * (System.currentTimeMillis() - mStart) / mCycleMillis;
+                double lux = 500 * (1 - Math.cos(phase));
+                raw = (int) Math.min(0xFFFF, lux * BH1750.COUNTS_PER_LUX);
+            }
+            buffer[offset] = (byte) (raw >>> 8);
+            buffer[offset + 1] = (byte) raw;
+        }
+    }
+}
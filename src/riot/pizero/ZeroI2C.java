@@ -1,9 +1,247 @@
 package riot.pizero;
 
+import riot.client.Outbox;
+import riot.client.OutboxSignal;
+import riot.data.SensorType;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Manages I2C communication on the Pi Zero for the RIOT project.
+ * <p>
+ * Sensors are sampled on a fixed-rate schedule by a single sampling thread,
+ * which owns the bus.  Samples go into a {@link SampleRingBuffer} and a
+ * {@link SampleWriter} on a second thread stores them in the outbox in
+ * batches, so commits never hold up sampling.
+ * <p>
+ * Sensors are added before {@link #start}.
  */
 public class ZeroI2C {
 
-    
+    /**
+     * A sensor and its schedule.
+     */
+    static class Channel implements Runnable {
+        final ZeroI2C mEngine;
+        final int mIndex;
+        final String mDeviceID;
+        final Sensor mSensor;
+        final long mPeriodNanos;
+        final float[] mValues = new float[SensorType.MAX_VALUES];
+        long mDeadline;
+
+        Channel(ZeroI2C engine, int index, String deviceID, Sensor sensor, long periodNanos) {
+            mEngine = engine;
+            mIndex = index;
+            mDeviceID = deviceID;
+            mSensor = sensor;
+            mPeriodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            if (now - mDeadline > mPeriodNanos) {
+                // Running more than a period late, so a sample was missed.
+                mEngine.mMissedDeadlines.incrementAndGet();
+            }
+            mDeadline += mPeriodNanos;
+
+            try {
+                mSensor.sample(mEngine.mBus, mValues);
+            } catch (IOException ex) {
+                mEngine.mReadErrors.incrementAndGet();
+                return;
+            }
+            mEngine.mRing.offer(mIndex, System.currentTimeMillis(), mValues,
+                    mSensor.getType().getValueCount());
+        }
+    }
+
+    final I2CBus mBus;
+    final SampleRingBuffer mRing;
+    final ArrayList<Channel> mChannels = new ArrayList<>();
+
+    final AtomicLong mMissedDeadlines = new AtomicLong();
+    final AtomicLong mReadErrors = new AtomicLong();
+
+    int mMaxBatchSize = 500;
+    long mFlushIntervalMillis = 1000;
+
+    ScheduledExecutorService mScheduler;
+    SampleWriter mWriter;
+    Thread mWriterThread;
+
+    /**
+     * @param bus
+     * @param ringCapacity The most samples buffered while waiting to be
+     *                     stored.  Samples are dropped once it is full.
+     */
+    public ZeroI2C(I2CBus bus, int ringCapacity) {
+        if (bus == null) {
+            throw new NullPointerException("I2C bus cannot be null.");
+        }
+        mBus = bus;
+        mRing = new SampleRingBuffer(ringCapacity);
+    }
+
+    /**
+     * Adds a sensor to sample.
+     *
+     * @param deviceID The device id stored with the sensor's readings.
+     * @param sensor
+     * @param period   The time between samples.
+     * @param unit
+     */
+    public synchronized void addSensor(String deviceID, Sensor sensor, long period, TimeUnit unit) {
+        if (deviceID == null) {
+            throw new NullPointerException("Device ID cannot be null.");
+        }
+        if (sensor == null) {
+            throw new NullPointerException("Sensor cannot be null.");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive.");
+        }
+        if (mScheduler != null) {
+            throw new IllegalStateException("Sensors must be added before starting.");
+        }
+        mChannels.add(new Channel(this, mChannels.size(), deviceID, sensor, unit.toNanos(period)));
+    }
+
+    /**
+     * Sets how samples are written to the database.
+     *
+     * @param maxBatchSize        The most samples committed in one transaction.
+     * @param flushIntervalMillis How long the writer waits between batches.
+     */
+    public void setBatching(int maxBatchSize, long flushIntervalMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        mMaxBatchSize = maxBatchSize;
+        mFlushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Configures the sensors and starts sampling and writing.  Every sensor
+     * must be a lux sensor.
+     *
+     * @param databaseConnection The outbox's database.  Used only by the writer.
+     * @param outboxSignal       Signalled after samples are committed.  May be
+     *                           null.
+     * @throws IOException if a sensor could not be configured
+     */
+    public synchronized void start(Connection databaseConnection, OutboxSignal outboxSignal)
+            throws IOException {
+        if (mScheduler != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        SampleWriter writer = new SampleWriter(databaseConnection, mRing, getDeviceIDs(), getTypes(),
+                outboxSignal, mMaxBatchSize, mFlushIntervalMillis);
+        startSensors();
+        start(writer);
+    }
+
+    /**
+     * Configures the sensors and starts sampling into an outbox, such as a
+     * {@link riot.client.MappedOutbox}.  Every sensor must be a lux sensor.
+     *
+     * @param outbox       An opened outbox.
+     * @param outboxSignal Signalled after samples are flushed.  May be null.
+     * @throws IOException if a sensor could not be configured
+     */
+    public synchronized void start(Outbox outbox, OutboxSignal outboxSignal) throws IOException {
+        if (mScheduler != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        SampleWriter writer = new SampleWriter(outbox, mRing, getDeviceIDs(), getTypes(), outboxSignal,
+                mMaxBatchSize, mFlushIntervalMillis);
+        startSensors();
+        start(writer);
+    }
+
+    void startSensors() throws IOException {
+        for (Channel channel : mChannels) {
+            channel.mSensor.start(mBus);
+        }
+    }
+
+    String[] getDeviceIDs() {
+        String[] deviceIDs = new String[mChannels.size()];
+        for (Channel channel : mChannels) {
+            deviceIDs[channel.mIndex] = channel.mDeviceID;
+        }
+        return deviceIDs;
+    }
+
+    SensorType[] getTypes() {
+        SensorType[] types = new SensorType[mChannels.size()];
+        for (Channel channel : mChannels) {
+            types[channel.mIndex] = channel.mSensor.getType();
+        }
+        return types;
+    }
+
+    void start(SampleWriter writer) {
+        mWriter = writer;
+        mWriterThread = new Thread(mWriter, "ZeroI2C writer");
+        mWriterThread.start();
+
+        // One thread, as transfers on the bus cannot overlap anyway.
+        mScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ZeroI2C sampler");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        for (Channel channel : mChannels) {
+            channel.mDeadline = start;
+            mScheduler.scheduleAtFixedRate(channel, 0, channel.mPeriodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops sampling and waits for the buffered samples to be written.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (mScheduler == null) {
+            return;
+        }
+        mScheduler.shutdown();
+        mScheduler.awaitTermination(10, TimeUnit.SECONDS);
+        mWriter.stop();
+        mWriterThread.join();
+        mBus.close();
+    }
+
+    /**
+     * @return the number of samples taken more than a period late
+     */
+    public long getMissedDeadlines() {
+        return mMissedDeadlines.get();
+    }
+
+    /**
+     * @return the number of samples which could not be read from the bus
+     */
+    public long getReadErrors() {
+        return mReadErrors.get();
+    }
+
+    /**
+     * @return the number of samples dropped because the writer fell behind
+     */
+    public long getDroppedSamples() {
+        return mRing.getDropped();
+    }
 }
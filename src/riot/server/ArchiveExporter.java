@@ -0,0 +1,158 @@
+package riot.server;
+
+import riot.archive.ArchiveWriter;
+import riot.data.SensorType;
+import riot.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes each partition to an archive file once its period is over, so that
+ * analysts can read compact columnar files with an
+ * {@link riot.archive.ArchiveReader} instead of querying the database.
+ * <p>
+ * Runs on its own thread with its own connection.  The database is in WAL
+ * mode, so reading a partition does not hold up the ingestion writer.  The
+ * archive is written to a temporary file and renamed once finished, and the
+ * {@link PartitionRouter} only drops a partition once its archive exists.
+ */
+public class ArchiveExporter implements Runnable {
+
+    static final String TAG = "ArchiveExporter";
+
+    // Batches routed just before a period ended may still be committing.
+    static final long SEAL_DELAY_SECONDS = 60;
+
+    final PartitionRouter mRouter;
+    final Connection mDBConnection;
+    final long mIntervalMillis;
+
+    volatile boolean mRunning = true;
+
+    /**
+     * @param router             Lists the partitions, and where their
+     *                           archives go.
+     * @param databaseConnection Used only by the exporter's thread, and closed
+     *                           when it stops.
+     * @param interval           How often to look for partitions to export.
+     * @param unit
+     */
+    public ArchiveExporter(PartitionRouter router, Connection databaseConnection,
+                           long interval, TimeUnit unit) {
+        if (router == null) {
+            throw new NullPointerException("Router cannot be null.");
+        }
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        if (router.getArchiveDirectory() == null) {
+            throw new IllegalArgumentException("Router has no archive directory.");
+        }
+        mRouter = router;
+        mDBConnection = databaseConnection;
+        mIntervalMillis = unit.toMillis(interval);
+    }
+
+    public void stop() {
+        mRunning = false;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                exportSealed(System.currentTimeMillis() / 1000L);
+                Thread.sleep(mIntervalMillis);
+            }
+        } catch (InterruptedException ex) {
+            // Finish.
+        } finally {
+            try {
+                mDBConnection.close();
+            } catch (SQLException ex) {
+                // Ignore problems when closing.
+            }
+        }
+    }
+
+    /**
+     * Exports every partition whose period is over and which has no archive
+     * yet.
+     *
+     * @param nowSeconds
+     * @return the number of partitions exported
+     */
+    public int exportSealed(long nowSeconds) {
+        int exported = 0;
+        for (PartitionRouter.Partition partition
+                : mRouter.getSealedPartitions(nowSeconds - SEAL_DELAY_SECONDS)) {
+            File file = mRouter.getArchiveFile(partition);
+            if (file.exists()) {
+                continue;
+            }
+            try {
+                export(partition, file);
+                exported++;
+            } catch (IOException | SQLException ex) {
+                Log.e(TAG, "Could not archive partition " + partition.mSuffix + ".", ex);
+            }
+        }
+        return exported;
+    }
+
+    void export(PartitionRouter.Partition partition, File file) throws IOException, SQLException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File temporary = new File(directory, file.getName() + ".tmp");
+        long readings = 0;
+        try (ArchiveWriter writer = new ArchiveWriter(temporary);
+             Statement statement = mDBConnection.createStatement()) {
+            for (SensorType type : SensorType.getTypes()) {
+                String table = partition.getTable(type);
+                if (!PartitionRouter.exists(mDBConnection, table)) {
+                    continue;
+                }
+
+                // In time order, using the entry table's index, so blocks
+                // cover short ranges of time.
+                StringBuilder query = new StringBuilder("SELECT e.real_date, e.dev_id");
+                for (int i = 0; i < type.getValueCount(); i++) {
+                    query.append(", t.").append(type.getColumn(i));
+                }
+                query.append(" FROM ").append(partition.mEntryTable).append(" e INNER JOIN ")
+                        .append(table).append(" t ON t.id = e.id ORDER BY e.real_date;");
+
+                float[] values = new float[type.getValueCount()];
+                try (ResultSet results = statement.executeQuery(query.toString())) {
+                    while (results.next()) {
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = results.getFloat(3 + i);
+                        }
+                        writer.write(type.getName(), results.getString(2), results.getLong(1), values);
+                        readings++;
+                    }
+                }
+            }
+        } catch (IOException | SQLException ex) {
+            if (!temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+            throw ex;
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Log.i(TAG, "Archived partition %s: %d readings in %d bytes.",
+                partition.mSuffix, readings, file.length());
+    }
+}
@@ -0,0 +1,489 @@
+package riot.server;
+
+import riot.data.AsciiSequence;
+import riot.data.Data;
+import riot.data.DataFactory;
+import riot.network.Acknowledgement;
+import riot.network.BinaryRecordDecoder;
+import riot.network.MalformedFrameException;
+import riot.network.Metrics;
+import riot.network.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The state of one client connected to the {@link DataReceptionServer}.
+ * <p>
+ * Only used from the server's selector thread, except for the
+ * {@link IngestionListener} methods which the ingestion lanes and the writer
+ * call to report results.
+ */
+class ClientConnection implements IngestionListener {
+
+    static final int MAX_LINE_LENGTH = 1024;
+
+    enum Format { UNKNOWN, TEXT, BINARY }
+
+    final SocketChannel mChannel;
+    final DataReceptionServer mServer;
+    // The client's address, which its link metrics are kept under.
+    final String mClient;
+
+    /**
+     * The link metrics that one of the client's packet types is recorded in.
+     */
+    static class LinkMetrics {
+        // The first field of a text packet, or the sensor type's name.
+        final String mType;
+        final Metrics.DeviceMetrics mMetrics;
+
+        LinkMetrics(String type, Metrics.DeviceMetrics metrics) {
+            mType = type;
+            mMetrics = metrics;
+        }
+    }
+
+    // Found from the first packet of each type.  Packets are recorded here on
+    // the selector thread, in the order they arrived, before the lanes
+    // reorder the client's devices.  A client sends few types, so they are
+    // searched in order.
+    final ArrayList<LinkMetrics> mLinkMetrics = new ArrayList<>();
+
+    // Large enough to hold a whole binary frame.
+    final ByteBuffer mIn = ByteBuffer.allocateDirect(WireFormat.MAX_FRAME_LENGTH + MAX_LINE_LENGTH);
+    final ByteBuffer mOut = ByteBuffer.allocateDirect(8 * 1024);
+    final byte[] mLineBytes = new byte[MAX_LINE_LENGTH];
+    final AsciiSequence mLineView = new AsciiSequence();
+
+    Format mFormat = Format.UNKNOWN;
+    // Sent in the hello line; 0 for clients that do not send one.
+    long mEpoch = 0;
+    BinaryRecordDecoder mDecoder;
+    final SequenceAcknowledger mAcknowledger = new SequenceAcknowledger();
+
+    // Acknowledgements are cumulative so only the latest one for each device
+    // needs to be sent.
+    final LinkedHashSet<String> mPendingAcks = new LinkedHashSet<>();
+
+    /**
+     * The result for one reading.
+     */
+    static class Result {
+        final Data mData;
+        final boolean mStored;
+
+        Result(Data data, boolean stored) {
+            mData = data;
+            mStored = stored;
+        }
+    }
+
+    // Results reported by the lanes and writer, waiting for the selector
+    // thread.  Kept in one queue so they are applied in the order reported,
+    // as a stored reading is acknowledged cumulatively unless an earlier one
+    // has already failed.
+    final ConcurrentLinkedQueue<Result> mResults = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean mResultsQueued = new AtomicBoolean(false);
+
+    ClientConnection(SocketChannel channel, DataReceptionServer server) {
+        mChannel = channel;
+        mServer = server;
+        mClient = getAddress(channel);
+        mOut.flip();  // start with nothing to write
+    }
+
+    static String getAddress(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress) {
+                return ((InetSocketAddress) address).getAddress().getHostAddress();
+            }
+            return String.valueOf(address);
+        } catch (IOException ex) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Reads whatever is available from the channel and handles every complete
+     * packet.
+     *
+     * @return false if the client closed the connection
+     * @throws IOException
+     * @throws MalformedFrameException if the client sent data that cannot be
+     *                                 interpreted
+     */
+    boolean read() throws IOException, MalformedFrameException {
+        int read = mChannel.read(mIn);
+        if (read < 0) {
+            return false;
+        }
+
+        mIn.flip();
+        try {
+            boolean progress = true;
+            while (progress) {
+                switch (mFormat) {
+                    case UNKNOWN:
+                        progress = detectFormat();
+                        break;
+                    case TEXT:
+                        progress = readLine();
+                        break;
+                    case BINARY:
+                        progress = readRecord();
+                        break;
+                }
+            }
+        } finally {
+            mIn.compact();
+        }
+
+        if (!mIn.hasRemaining()) {
+            throw new MalformedFrameException("Packet is too long.");
+        }
+        return true;
+    }
+
+    /**
+     * Looks at the first line to decide which format the client speaks.
+     * Clients that do not start with a hello line are text clients.
+     */
+    boolean detectFormat() throws IOException, MalformedFrameException {
+        int end = findLineEnd();
+        if (end < 0) {
+            return false;
+        }
+
+        String line = lineAt(end);
+        String format = WireFormat.negotiate(line,
+                WireFormat.DEFLATE, WireFormat.BINARY, WireFormat.TEXT);
+        if (format == null) {
+            // Not a hello; leave the line for the text reader.
+            mFormat = Format.TEXT;
+            return true;
+        }
+
+        mEpoch = WireFormat.parseEpoch(line);
+        mIn.position(end + 1);
+        if (format.equals(WireFormat.BINARY) || format.equals(WireFormat.DEFLATE)) {
+            mFormat = Format.BINARY;
+            mDecoder = new BinaryRecordDecoder();
+            if (format.equals(WireFormat.DEFLATE)) {
+                mDecoder.enableCompression();
+            }
+        } else {
+            mFormat = Format.TEXT;
+        }
+        queueLine(WireFormat.FORMAT + " " + format);
+        return true;
+    }
+
+    boolean readLine() throws MalformedFrameException {
+        int end = findLineEnd();
+        if (end < 0) {
+            return false;
+        }
+
+        int start = mIn.position();
+        int length = lineLength(end);
+        if (length > 0) {
+            submitLine(start, start + length);
+        }
+        mIn.position(end + 1);
+        return true;
+    }
+
+    /**
+     * Records a text packet in the link metrics and queues it.  It is parsed
+     * by its device's lane, except for the first packet of each type, which is
+     * parsed here to find the stream its type is numbered in.  Later packets
+     * of the type are only scanned for their sequence number.
+     */
+    void submitLine(int start, int end) {
+        int typeEnd = start;
+        while (typeEnd < end && mIn.get(typeEnd) != ' ') {
+            typeEnd++;
+        }
+
+        LinkMetrics link = findLinkMetrics(start, typeEnd);
+        if (link == null) {
+            long parseStart = System.nanoTime();
+            Data data = DataFactory.getData(mLineView.wrap(mIn, start, end));
+            IngestionEngine.PARSE.recordSince(parseStart);
+            if (data != null) {
+                data.setEpoch(mEpoch);
+                String type = mLineView.wrap(mIn, start, typeEnd).toString();
+                mLinkMetrics.add(new LinkMetrics(type, mServer.mMetrics.getStreamMetrics(mClient, data)));
+                submit(data);
+            }
+            return;
+        }
+
+        long sequence = lineSequence(start, end);
+        if (sequence != Long.MIN_VALUE) {
+            link.mMetrics.record((int) sequence);
+        }
+        if (!mServer.mEngine.submitLine(mIn, start, end, mEpoch, this)) {
+            // The lane is full; parse here only to reject the reading.
+            reject(DataFactory.getData(mLineView.wrap(mIn, start, end)));
+        }
+    }
+
+    boolean readRecord() throws MalformedFrameException {
+        long parseStart = System.nanoTime();
+        if (!mDecoder.next(mIn)) {
+            return false;
+        }
+
+        Data data = mDecoder.getRecord().toData();
+        IngestionEngine.PARSE.recordSince(parseStart);
+        data.setEpoch(mEpoch);
+        submit(data);
+        return true;
+    }
+
+    /**
+     * Records a decoded reading in the link metrics and queues it.
+     */
+    void submit(Data data) {
+        String type = data.getType().getName();
+        LinkMetrics link = null;
+        for (int i = 0; i < mLinkMetrics.size() && link == null; i++) {
+            if (mLinkMetrics.get(i).mType.equals(type)) {
+                link = mLinkMetrics.get(i);
+            }
+        }
+        if (link == null) {
+            link = new LinkMetrics(type, mServer.mMetrics.getStreamMetrics(mClient, data));
+            mLinkMetrics.add(link);
+        }
+        link.mMetrics.record(data.getSequence());
+
+        if (!mServer.mEngine.submit(data, this)) {
+            reject(data);
+        }
+    }
+
+    /**
+     * @return the link metrics of the packet type between the given indices
+     * of the input, or null if none of its packets have been received
+     */
+    LinkMetrics findLinkMetrics(int start, int end) {
+        for (LinkMetrics link : mLinkMetrics) {
+            String type = link.mType;
+            if (type.length() != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < type.length() && mIn.get(start + i) == type.charAt(i)) {
+                i++;
+            }
+            if (i == type.length()) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the sequence number of a text packet in the input, which is its
+     * second last field, without parsing the rest.
+     *
+     * @return the sequence number, or {@link Long#MIN_VALUE} if the field is
+     * not an int
+     */
+    long lineSequence(int start, int end) {
+        int i = end;
+        // Skip the timestamp.
+        while (i > start && mIn.get(i - 1) == ' ') {
+            i--;
+        }
+        while (i > start && mIn.get(i - 1) != ' ') {
+            i--;
+        }
+        while (i > start && mIn.get(i - 1) == ' ') {
+            i--;
+        }
+        int fieldEnd = i;
+        while (i > start && mIn.get(i - 1) != ' ') {
+            i--;
+        }
+
+        boolean negative = false;
+        if (i < fieldEnd && (mIn.get(i) == '-' || mIn.get(i) == '+')) {
+            negative = mIn.get(i) == '-';
+            i++;
+        }
+        // Any more digits would not fit in an int.
+        if (i == fieldEnd || fieldEnd - i > 10) {
+            return Long.MIN_VALUE;
+        }
+        long sequence = 0;
+        for (; i < fieldEnd; i++) {
+            byte digit = mIn.get(i);
+            if (digit < '0' || digit > '9') {
+                return Long.MIN_VALUE;
+            }
+            sequence = 10 * sequence + (digit - '0');
+        }
+        sequence = negative ? -sequence : sequence;
+        if (sequence < Integer.MIN_VALUE || sequence > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return sequence;
+    }
+
+    /**
+     * Tells the client a reading was not stored, so that it retransmits it.
+     */
+    void reject(Data data) {
+        if (data == null) {
+            return;
+        }
+        mAcknowledger.failed(data.getStreamID(), data.getSequence());
+        mPendingAcks.add(data.getStreamID());
+    }
+
+    @Override
+    public void stored(Data data) {
+        mResults.add(new Result(data, true));
+        resultsQueued();
+    }
+
+    @Override
+    public void failed(Data data) {
+        mResults.add(new Result(data, false));
+        resultsQueued();
+    }
+
+    void resultsQueued() {
+        if (mResultsQueued.compareAndSet(false, true)) {
+            mServer.mResultsReady.add(this);
+        }
+    }
+
+    /**
+     * Moves the results reported by the writer into the acknowledgement
+     * state.  Called on the selector thread.
+     */
+    void collectResults() {
+        mResultsQueued.set(false);
+
+        Result result;
+        while ((result = mResults.poll()) != null) {
+            Data data = result.mData;
+            if (result.mStored) {
+                mServer.mEngine.stored(data);
+                mAcknowledger.stored(data.getStreamID(), data.getSequence());
+            } else {
+                mAcknowledger.failed(data.getStreamID(), data.getSequence());
+            }
+            mPendingAcks.add(data.getStreamID());
+        }
+    }
+
+    /**
+     * @return the index of the next '\n' in the input, or -1
+     * @throws MalformedFrameException if the line is longer than
+     *                                 {@link #MAX_LINE_LENGTH}
+     */
+    int findLineEnd() throws MalformedFrameException {
+        int start = mIn.position();
+        // Room for a line of the maximum length and its "\r\n".
+        int limit = Math.min(mIn.limit(), start + MAX_LINE_LENGTH + 2);
+        for (int i = start; i < limit; i++) {
+            if (mIn.get(i) == '\n') {
+                if (lineLength(i) > MAX_LINE_LENGTH) {
+                    throw new MalformedFrameException("Line is too long.");
+                }
+                return i;
+            }
+        }
+        if (limit - start == MAX_LINE_LENGTH + 2) {
+            throw new MalformedFrameException("Line is too long.");
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the line from the current position up to the given end, without
+     * the line terminator.
+     */
+    String lineAt(int end) {
+        int length = lineLength(end);
+        for (int i = 0; i < length; i++) {
+            mLineBytes[i] = mIn.get(mIn.position() + i);
+        }
+        return new String(mLineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the length of the line from the current position up to the
+     * given end, without the line terminator
+     */
+    int lineLength(int end) {
+        int length = end - mIn.position();
+        if (length > 0 && mIn.get(mIn.position() + length - 1) == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    void queueLine(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        mOut.compact();
+        mOut.put(bytes);
+        mOut.flip();
+    }
+
+    /**
+     * @return true if there is data waiting to be written to the client
+     */
+    boolean hasPendingWrites() {
+        return mOut.hasRemaining() || !mPendingAcks.isEmpty();
+    }
+
+    /**
+     * Writes as much of the pending output as the channel accepts.
+     *
+     * @throws IOException
+     */
+    void write() throws IOException {
+        Iterator<String> iterator = mPendingAcks.iterator();
+        while (iterator.hasNext()) {
+            Acknowledgement ack = mAcknowledger.getAcknowledgement(iterator.next());
+            byte[] bytes = (ack + "\n").getBytes(StandardCharsets.UTF_8);
+            if (mOut.capacity() - mOut.remaining() < bytes.length) {
+                break;
+            }
+            mOut.compact();
+            mOut.put(bytes);
+            mOut.flip();
+            iterator.remove();
+        }
+
+        mChannel.write(mOut);
+    }
+
+    void close() {
+        try {
+            mChannel.close();
+        } catch (IOException ex) {
+            // Ignore problems when closing.
+        }
+        if (mDecoder != null) {
+            mDecoder.release();
+        }
+    }
+}
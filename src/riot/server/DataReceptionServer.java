@@ -0,0 +1,235 @@
+package riot.server;
+
+import riot.network.MalformedFrameException;
+import riot.network.Metrics;
+import riot.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Receives sensor data from any number of clients and stores it in the
+ * database.
+ * <p>
+ * All clients are served by a single thread using non-blocking channels, so
+ * adding sensor nodes does not add threads.  Each client has its own
+ * buffers and acknowledgement state; see {@link ClientConnection}.
+ * <p>
+ * Packets are parsed and checked for duplicates by an {@link IngestionEngine},
+ * which spreads devices over several threads.  Readings are written to the
+ * database by an {@link IngestionWriter} on its own thread, and are
+ * acknowledged once the writer has committed them.
+ */
+public class DataReceptionServer implements Runnable {
+
+    static final String TAG = "DataReceptionServer";
+
+    final Selector mSelector;
+    final ServerSocketChannel mServerChannel;
+    final Connection mDBConnection;
+    final IngestionWriter mWriter;
+    final Metrics mMetrics = new Metrics();
+
+    // Shared by all clients so duplicates are caught across reconnections.
+    final IngestionEngine mEngine;
+
+    // Clients which have results from the writer waiting to be acknowledged.
+    final ConcurrentLinkedQueue<ClientConnection> mResultsReady = new ConcurrentLinkedQueue<>();
+
+    volatile boolean mRunning = true;
+
+    /**
+     * Opens the server socket.  Clients are not accepted until the server is
+     * run.
+     *
+     * @param port               The port to listen on.
+     * @param databaseConnection A connection to the database that received
+     *                           data is stored in.
+     * @throws IOException if the port cannot be bound
+     */
+    public DataReceptionServer(int port, Connection databaseConnection) throws IOException {
+        this(port, databaseConnection, IngestionEngine.getDefaultLaneCount());
+    }
+
+    /**
+     * Opens the server socket.  Clients are not accepted until the server is
+     * run.
+     *
+     * @param port               The port to listen on.
+     * @param databaseConnection A connection to the database that received
+     *                           data is stored in.
+     * @param lanes              The number of threads parsing packets.
+     * @throws IOException if the port cannot be bound
+     */
+    public DataReceptionServer(int port, Connection databaseConnection, int lanes)
+            throws IOException {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Port was not between 1 and 65535.");
+        }
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+
+        mDBConnection = databaseConnection;
+        mWriter = new IngestionWriter(databaseConnection, 500, 100, 10000);
+        mEngine = new IngestionEngine(mWriter, lanes, 10000, 100);
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.bind(new InetSocketAddress(port));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        mWriter.setAfterCommit(mSelector::wakeup);
+        mEngine.setAfterReport(mSelector::wakeup);
+    }
+
+    /**
+     * Stores readings in time partitions, which are dropped once they are
+     * older than the router retains.  Must be set before the server is run.
+     *
+     * @param router
+     */
+    public void setPartitionRouter(PartitionRouter router) {
+        mWriter.setPartitionRouter(router);
+    }
+
+    /**
+     * @return link quality for every device that has sent data
+     */
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Stops the server.  Returns immediately; the server thread closes all
+     * connections before it finishes.
+     */
+    public void stop() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Thread writerThread = new Thread(mWriter, "IngestionWriter");
+        writerThread.start();
+        mEngine.start();
+
+        try {
+            while (mRunning) {
+                mSelector.select();
+                acknowledgeResults();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        service(key);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Selector failed.", ex);
+        } finally {
+            try {
+                // The lanes hand what they have queued to the writer first.
+                mEngine.stop();
+            } catch (InterruptedException ex) {
+                // Stop the writer anyway.
+            }
+            mWriter.stop();
+            try {
+                writerThread.join();
+            } catch (InterruptedException ex) {
+                // Close the database anyway.
+            }
+            releaseResources();
+        }
+    }
+
+    /**
+     * Sends acknowledgements for readings the writer has finished with.
+     */
+    void acknowledgeResults() {
+        ClientConnection client;
+        while ((client = mResultsReady.poll()) != null) {
+            SelectionKey key = client.mChannel.keyFor(mSelector);
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+            client.collectResults();
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(mSelector, SelectionKey.OP_READ, new ClientConnection(channel, this));
+        Log.i(TAG, "Client connected: %s", channel.getRemoteAddress());
+    }
+
+    /**
+     * Reads from and writes to a client.  Problems with one client only close
+     * that client's connection.
+     */
+    void service(SelectionKey key) {
+        ClientConnection client = (ClientConnection) key.attachment();
+        try {
+            if (key.isReadable() && !client.read()) {
+                client.close();
+                return;
+            }
+            if (client.hasPendingWrites()) {
+                client.write();
+            }
+
+            int interest = SelectionKey.OP_READ;
+            if (client.hasPendingWrites()) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(interest);
+        } catch (IOException | MalformedFrameException ex) {
+            Log.w(TAG, "Closing client connection: %s", ex.getMessage());
+            client.close();
+        }
+    }
+
+    void releaseResources() {
+        for (SelectionKey key : mSelector.keys()) {
+            if (key.attachment() instanceof ClientConnection) {
+                ((ClientConnection) key.attachment()).close();
+            }
+        }
+        try {
+            mServerChannel.close();
+            mSelector.close();
+        } catch (IOException ex) {
+            // Ignore problems when closing.
+        }
+        try {
+            mDBConnection.close();
+        } catch (SQLException ex) {
+            // Ignore problems when closing.
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package riot.server;
+
+import riot.data.Data;
+import riot.network.SequenceWindow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Recognises readings that have already been stored, so that readings the
+ * client retransmits are not inserted twice.
+ * <p>
+ * Each device has a fixed-size window of recently stored sequence numbers, so
+ * a check takes constant time and memory only grows with the number of
+ * devices.  Devices that have not sent anything for the idle time are
+ * forgotten.  Readings older than a device's window, or duplicates that arrive
+ * before the original has been stored, are not recognised here and are
+ * caught by the unique key on the received table instead.
+ * <p>
+ * Sequence numbers are only compared within an epoch (see
+ * {@link Data#getEpoch()}).  A reading from a new epoch replaces the device's
+ * window, as a device only sends in one epoch at a time.
+ * <p>
+ * Thread safe.  Each lane of the {@link IngestionEngine} has its own filter,
+ * so a filter is only shared by its lane and the server's selector thread.
+ */
+public class DuplicateFilter {
+
+    static class DeviceWindow {
+        final SequenceWindow mWindow;
+        final long mEpoch;
+        long mLastUsed;
+
+        DeviceWindow(int windowSize, long epoch) {
+            mWindow = new SequenceWindow(windowSize);
+            mEpoch = epoch;
+        }
+    }
+
+    final int mWindowSize;
+    final long mIdleMillis;
+    final HashMap<String, DeviceWindow> mDevices = new HashMap<>();
+    long mLastSweep = System.currentTimeMillis();
+
+    /**
+     * @param windowSize The number of recent sequence numbers remembered for
+     *                   each device.
+     * @param idleMillis How long a device is remembered after its last reading.
+     */
+    public DuplicateFilter(int windowSize, long idleMillis) {
+        mWindowSize = windowSize;
+        mIdleMillis = idleMillis;
+    }
+
+    /**
+     * @param data
+     * @return true if the reading is known to have been stored already
+     */
+    public synchronized boolean isDuplicate(Data data) {
+        long now = System.currentTimeMillis();
+        if (now - mLastSweep > mIdleMillis) {
+            evictIdle(now);
+        }
+
+        DeviceWindow device = mDevices.get(data.getStreamID());
+        if (device == null || device.mEpoch != data.getEpoch()) {
+            return false;
+        }
+        device.mLastUsed = now;
+        return device.mWindow.contains(data.getSequence());
+    }
+
+    /**
+     * Records that a reading has been stored.
+     *
+     * @param data
+     */
+    public synchronized void stored(Data data) {
+        DeviceWindow device = mDevices.get(data.getStreamID());
+        if (device == null || device.mEpoch != data.getEpoch()) {
+            device = new DeviceWindow(mWindowSize, data.getEpoch());
+            mDevices.put(data.getStreamID(), device);
+        }
+        device.mLastUsed = System.currentTimeMillis();
+        device.mWindow.mark(data.getSequence());
+    }
+
+    void evictIdle(long now) {
+        Iterator<DeviceWindow> iterator = mDevices.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().mLastUsed > mIdleMillis) {
+                iterator.remove();
+            }
+        }
+        mLastSweep = now;
+    }
+}
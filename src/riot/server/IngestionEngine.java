@@ -0,0 +1,325 @@
+package riot.server;
+
+import riot.data.AsciiSequence;
+import riot.data.Data;
+import riot.data.DataFactory;
+import riot.stats.LatencyHistogram;
+import riot.stats.PipelineStats;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads the work of ingesting readings over several threads, or lanes, so
+ * that parsing and duplicate checks scale with the laptop's cores rather than
+ * running on the selector thread.
+ * <p>
+ * Each packet goes to the lane chosen by a hash of its device id, so all of a
+ * device's readings are handled by one lane in the order they arrived.  A
+ * lane parses, counts and checks for duplicates with its own
+ * {@link DuplicateFilter}, then submits in the same order to the shared
+ * {@link IngestionWriter}, which commits readings from every lane in group
+ * transactions.  Per-device order is therefore kept all the way to the
+ * database.
+ * <p>
+ * Text packets are routed by their second field, which is the device id for
+ * every sensor type, so the selector thread only copies the line.  Binary
+ * records are decoded by their connection, which holds the stream's state,
+ * and the decoded readings are routed the same way.
+ * <p>
+ * Link metrics are not recorded here: a client numbers the readings of all its
+ * devices from one sequence, which spreading them over lanes would reorder.
+ * Each {@link ClientConnection} records them before queuing a packet.
+ */
+public class IngestionEngine {
+
+    static final LatencyHistogram LANE_WAIT = PipelineStats.get().stage("server.lane");
+    static final LatencyHistogram PARSE = PipelineStats.get().stage("server.parse");
+    static final LongAdder RECEIVED = PipelineStats.get().counter("server.received");
+    static final LongAdder DUPLICATES = PipelineStats.get().counter("server.duplicates");
+
+    static class Packet {
+        // Either the text line or the decoded reading is set.
+        final byte[] mLine;
+        final Data mData;
+        // The epoch of a text line's client.  A decoded reading has its own.
+        final long mEpoch;
+        final IngestionListener mListener;
+        final long mQueuedNanos = System.nanoTime();
+
+        Packet(byte[] line, Data data, long epoch, IngestionListener listener) {
+            mLine = line;
+            mData = data;
+            mEpoch = epoch;
+            mListener = listener;
+        }
+    }
+
+    /**
+     * One lane's queue and the state used to handle its packets.
+     */
+    class Lane implements Runnable {
+        final ArrayBlockingQueue<Packet> mQueue;
+        // Shared with the selector thread, which records stored readings.
+        final DuplicateFilter mDuplicates = new DuplicateFilter(4096, 10 * 60 * 1000L);
+        final AsciiSequence mLineView = new AsciiSequence();
+
+        Lane(int capacity) {
+            mQueue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            ArrayList<Packet> batch = new ArrayList<>(mBatchSize);
+            try {
+                while (mRunning || !mQueue.isEmpty()) {
+                    Packet first = mQueue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    mQueue.drainTo(batch, mBatchSize - 1);
+
+                    long start = System.nanoTime();
+                    boolean reported = false;
+                    for (Packet packet : batch) {
+                        LANE_WAIT.record(start - packet.mQueuedNanos);
+                        reported |= handle(packet);
+                    }
+                    batch.clear();
+
+                    if (reported && mAfterReport != null) {
+                        mAfterReport.run();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                // Finish.
+            } finally {
+                // Anything left over will be retransmitted by its client.
+                for (Packet packet : mQueue) {
+                    Data data = parse(packet);
+                    if (data != null) {
+                        packet.mListener.failed(data);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the packet's reading, or null if it could not be interpreted
+         */
+        Data parse(Packet packet) {
+            if (packet.mData != null) {
+                return packet.mData;
+            }
+            long parseStart = System.nanoTime();
+            Data data = DataFactory.getData(mLineView.wrap(ByteBuffer.wrap(packet.mLine),
+                    0, packet.mLine.length));
+            PARSE.recordSince(parseStart);
+            if (data != null) {
+                data.setEpoch(packet.mEpoch);
+            }
+            return data;
+        }
+
+        /**
+         * Checks a packet for duplicates and hands it to the writer, which
+         * reports its result after those of the readings this lane handed it
+         * earlier.  Results are therefore ordered per device, as a device's
+         * readings all go through one lane, but not per connection: a
+         * connection's other devices may be in other lanes, and their results
+         * may be reported before or after these.  Each connection applies its
+         * results in the order they are reported, so acknowledgements are only
+         * ordered per device.
+         *
+         * @return true if the result was reported to the listener here rather
+         * than by the writer
+         */
+        boolean handle(Packet packet) {
+            Data data = parse(packet);
+            if (data == null) {
+                return false;
+            }
+
+            RECEIVED.increment();
+            boolean queued;
+            if (mDuplicates.isDuplicate(data)) {
+                DUPLICATES.increment();
+                // Already stored; the client missed the acknowledgement.  The
+                // writer reports it so that it is not acknowledged ahead of
+                // readings from the same device still waiting to be written.
+                queued = mWriter.submitStored(data, packet.mListener);
+            } else {
+                queued = mWriter.submit(data, packet.mListener);
+            }
+            if (!queued) {
+                // The writer is overloaded; the client will retransmit.
+                packet.mListener.failed(data);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    final IngestionWriter mWriter;
+    final Lane[] mLanes;
+    final int mBatchSize;
+    Thread[] mThreads;
+
+    // Run after a lane has reported results to listeners itself.
+    Runnable mAfterReport;
+
+    volatile boolean mRunning = true;
+
+    /**
+     * @param writer       Stores the readings from every lane.
+     * @param laneCount    The number of lanes, and so of threads.
+     * @param laneCapacity The most packets waiting in each lane.
+     * @param batchSize    The most packets a lane takes from its queue at once.
+     */
+    public IngestionEngine(IngestionWriter writer, int laneCount, int laneCapacity, int batchSize) {
+        if (writer == null) {
+            throw new NullPointerException("Writer cannot be null.");
+        }
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 lane.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        mWriter = writer;
+        mBatchSize = batchSize;
+        mLanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            mLanes[i] = new Lane(laneCapacity);
+        }
+    }
+
+    /**
+     * @return a lane for each core not needed by the selector and writer
+     * threads, and at least one
+     */
+    public static int getDefaultLaneCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    /**
+     * Sets a hook which is run on a lane's thread after it has told listeners
+     * about readings the writer could not accept, which the writer does not
+     * report.
+     *
+     * @param afterReport
+     */
+    public void setAfterReport(Runnable afterReport) {
+        mAfterReport = afterReport;
+    }
+
+    public int getLaneCount() {
+        return mLanes.length;
+    }
+
+    /**
+     * Starts a thread for each lane.
+     */
+    public synchronized void start() {
+        if (mThreads != null) {
+            return;
+        }
+        mThreads = new Thread[mLanes.length];
+        for (int i = 0; i < mLanes.length; i++) {
+            mThreads[i] = new Thread(mLanes[i], "IngestionLane-" + i);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Stops the lanes once the packets already queued have been handed to the
+     * writer, and waits for them to finish.  The writer should be stopped
+     * afterwards.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void stop() throws InterruptedException {
+        mRunning = false;
+        if (mThreads == null) {
+            return;
+        }
+        for (Thread thread : mThreads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Queues a text packet.  The line is copied, so the buffer can be reused
+     * as soon as this returns.  Never blocks.
+     *
+     * @param buffer
+     * @param start    The index of the line's first byte.
+     * @param end      The index after the line's last byte, without the line
+     *                 terminator.
+     * @param epoch    The client's epoch, given to the parsed reading.
+     * @param listener Told whether the reading was stored.
+     * @return false if the lane is full and the packet was not accepted
+     */
+    public boolean submitLine(ByteBuffer buffer, int start, int end, long epoch,
+                              IngestionListener listener) {
+        byte[] line = new byte[end - start];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = buffer.get(start + i);
+        }
+        return laneOf(deviceHash(line)).mQueue.offer(new Packet(line, null, epoch, listener));
+    }
+
+    /**
+     * Queues a reading which has already been decoded.  Never blocks.
+     *
+     * @param data
+     * @param listener Told whether the reading was stored.
+     * @return false if the lane is full and the reading was not accepted
+     */
+    public boolean submit(Data data, IngestionListener listener) {
+        return laneOf(data.getDeviceID().hashCode()).mQueue.offer(new Packet(null, data, data.getEpoch(), listener));
+    }
+
+    /**
+     * Records that a reading has been stored, so that retransmissions of it
+     * are recognised by its lane.
+     *
+     * @param data
+     */
+    public void stored(Data data) {
+        laneOf(data.getDeviceID().hashCode()).mDuplicates.stored(data);
+    }
+
+    Lane laneOf(int hash) {
+        // Mix the high bits in, as device ids often differ only at the end.
+        hash ^= hash >>> 16;
+        return mLanes[(hash & Integer.MAX_VALUE) % mLanes.length];
+    }
+
+    /**
+     * Hashes the second field of a text packet the way {@link String#hashCode}
+     * hashes the same characters, so a device's text and binary readings go to
+     * the same lane.
+     *
+     * @return the hash of the device id, or 0 if the line has no second field
+     */
+    static int deviceHash(byte[] line) {
+        int i = 0;
+        while (i < line.length && line[i] != ' ') {
+            i++;
+        }
+        while (i < line.length && line[i] == ' ') {
+            i++;
+        }
+        int hash = 0;
+        while (i < line.length && line[i] != ' ') {
+            hash = 31 * hash + (line[i] & 0xFF);
+            i++;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,14 @@
+package riot.server;
+
+import riot.data.Data;
+
+/**
+ * Told whether each reading submitted to an {@link IngestionWriter} was
+ * stored.  Called on the writer's thread.
+ */
+public interface IngestionListener {
+
+    void stored(Data data);
+
+    void failed(Data data);
+}
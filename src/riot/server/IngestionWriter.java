@@ -0,0 +1,463 @@
+package riot.server;
+
+import riot.data.Data;
+import riot.data.SensorType;
+import riot.database.BatchInserter;
+import riot.database.ColumnBatch;
+import riot.database.RIOTDatabase;
+import riot.stats.LatencyHistogram;
+import riot.stats.PipelineStats;
+import riot.util.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes received readings to the database in batches so that many readings
+ * share one transaction, and so one fsync.
+ * <p>
+ * Readings are queued by {@link #submit} and written by the thread running
+ * this writer.  Readings already known to be stored are queued by
+ * {@link #submitStored} and reported along with the others without being
+ * written, so every reading's result is reported in the order it was queued.
+ * Readings are queued by several lanes, so that order only holds between
+ * readings queued by the same lane.  A batch is committed once it holds the
+ * maximum number of readings or the oldest reading in it has waited for the
+ * maximum delay, whichever comes first.  If a batch fails, its readings are
+ * retried one at a time so that a single bad reading does not reject the
+ * others.
+ * <p>
+ * Every stored reading is recorded in the received table, keyed on stream (see
+ * {@link Data#getStreamID()}), epoch and sequence number.  Readings already in
+ * that table are reported as stored without being inserted again.  Each
+ * reading is given an entry id before its received row is tried, so
+ * retransmissions leave gaps in the entry ids.  Without a
+ * {@link PartitionRouter}, which drops received rows along with their
+ * partition, rows older than the received retention are deleted about once a
+ * minute so that the table stays bounded.  Retransmissions older than that are
+ * stored again.
+ * <p>
+ * With a {@link PartitionRouter}, readings are stored in the tables of the
+ * current partition instead of the entry and sensor tables, and old
+ * partitions are rolled up and dropped on this thread between batches, so
+ * they never contend with the batches for the database.
+ */
+public class IngestionWriter implements Runnable {
+
+    static final String TAG = "IngestionWriter";
+
+    static final String ENTRY_INSERT = "INSERT INTO entry VALUES (?, ?, ?, ?)";
+    static final String RECEIVED_INSERT = "INSERT OR IGNORE INTO received VALUES (?, ?, ?, ?)";
+    static final String RECEIVED_LAST_ROW = "SELECT IFNULL(MAX(rowid), 0) FROM received";
+    // Keeps the newest row so that its rowid is not reused.
+    static final String RECEIVED_PRUNE = "DELETE FROM received WHERE rowid <= ? " +
+            "AND rowid < (SELECT MAX(rowid) FROM received)";
+
+    static final long DEFAULT_RECEIVED_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    static final long PRUNE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    static final LatencyHistogram QUEUE_WAIT = PipelineStats.get().stage("server.queue");
+    static final LatencyHistogram INSERT = PipelineStats.get().stage("server.insert");
+    static final LongAdder STORED = PipelineStats.get().counter("server.stored");
+    static final LongAdder FAILED = PipelineStats.get().counter("server.failed");
+    static final LongAdder REJECTED = PipelineStats.get().counter("server.rejected");
+
+    static class Pending {
+        final Data mData;
+        final IngestionListener mListener;
+        // Only reported, as the reading is already stored.
+        final boolean mStored;
+        final long mQueuedNanos = System.nanoTime();
+
+        Pending(Data data, IngestionListener listener, boolean stored) {
+            mData = data;
+            mListener = listener;
+            mStored = stored;
+        }
+    }
+
+    final Connection mDBConnection;
+    final int mMaxBatchSize;
+    final long mMaxDelayMillis;
+    final ArrayBlockingQueue<Pending> mQueue;
+
+    // Run after each batch has been reported to its listeners.
+    Runnable mAfterCommit;
+
+    PartitionRouter mRouter;
+    PartitionRouter.Partition mPartition;
+
+    final HashSet<String> mKnownDevices = new HashSet<>();
+    int mNextEntryID;
+
+    long mReceivedRetentionMillis = DEFAULT_RECEIVED_RETENTION_MILLIS;
+    // The last received rowid at times a prune interval apart, oldest first,
+    // as {time, rowid}.  Rows up to a mark's rowid were received before it.
+    final ArrayDeque<long[]> mReceivedMarks = new ArrayDeque<>();
+    long mNextPruneMillis;
+
+    volatile boolean mRunning = true;
+
+    /**
+     * @param databaseConnection Used only by the writer's thread.
+     * @param maxBatchSize       The most readings committed in one transaction.
+     * @param maxDelayMillis     The longest a reading waits before its batch is
+     *                           committed.
+     * @param queueCapacity      The most readings waiting to be written.
+     */
+    public IngestionWriter(Connection databaseConnection, int maxBatchSize,
+                           long maxDelayMillis, int queueCapacity) {
+        if (databaseConnection == null) {
+            throw new NullPointerException("Database connection cannot be null.");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        mDBConnection = databaseConnection;
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMillis = maxDelayMillis;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Sets a hook which is run on the writer's thread after every batch.
+     *
+     * @param afterCommit
+     */
+    public void setAfterCommit(Runnable afterCommit) {
+        mAfterCommit = afterCommit;
+    }
+
+    /**
+     * Stores readings in time partitions.  Must be set before the writer is
+     * run.
+     *
+     * @param router
+     */
+    public void setPartitionRouter(PartitionRouter router) {
+        mRouter = router;
+    }
+
+    /**
+     * Sets how long received rows are kept when there is no
+     * {@link PartitionRouter}.  Retransmissions of readings older than this are
+     * stored again.  Defaults to a day.
+     *
+     * @param retention
+     * @param unit
+     */
+    public void setReceivedRetention(long retention, TimeUnit unit) {
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive.");
+        }
+        mReceivedRetentionMillis = unit.toMillis(retention);
+    }
+
+    /**
+     * Queues a reading to be written.  Never blocks.
+     *
+     * @param data
+     * @param listener Told whether the reading was stored.
+     * @return false if the queue is full and the reading was not accepted
+     */
+    public boolean submit(Data data, IngestionListener listener) {
+        return offer(new Pending(data, listener, false));
+    }
+
+    /**
+     * Queues a reading which has already been stored, so that it is reported
+     * as stored after the readings queued before it by the same thread.
+     * Never blocks.
+     *
+     * @param data
+     * @param listener Told the reading was stored.
+     * @return false if the queue is full and the reading was not accepted
+     */
+    public boolean submitStored(Data data, IngestionListener listener) {
+        return offer(new Pending(data, listener, true));
+    }
+
+    boolean offer(Pending pending) {
+        if (!mQueue.offer(pending)) {
+            REJECTED.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer once the readings already queued have been written.
+     */
+    public void stop() {
+        mRunning = false;
+    }
+
+    @Override
+    public void run() {
+        ArrayList<Pending> batch = new ArrayList<>(mMaxBatchSize);
+
+        try (BatchInserter inserter = new BatchInserter(mDBConnection)) {
+            RIOTDatabase.createTables(mDBConnection);
+            for (SensorType type : SensorType.getTypes()) {
+                type.createTable(mDBConnection);
+            }
+            if (mRouter != null) {
+                mRouter.open(mDBConnection);
+                mNextEntryID = mRouter.getNextEntryId(mDBConnection);
+            } else {
+                mNextEntryID = RIOTDatabase.getMaxId(mDBConnection, "entry") + 1;
+            }
+
+            while (mRunning || !mQueue.isEmpty()) {
+                Pending first = mQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    pruneReceived(System.currentTimeMillis());
+                    continue;
+                }
+
+                // Gather until the batch is full or the first reading is due.
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + mMaxDelayMillis;
+                while (batch.size() < mMaxBatchSize) {
+                    mQueue.drainTo(batch, mMaxBatchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= mMaxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = mQueue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                write(inserter, batch);
+                batch.clear();
+
+                if (mAfterCommit != null) {
+                    mAfterCommit.run();
+                }
+                maintainPartitions();
+                pruneReceived(System.currentTimeMillis());
+            }
+        } catch (SQLException ex) {
+            Log.e(TAG, "Could not prepare the database.", ex);
+        } catch (InterruptedException ex) {
+            // Finish.
+        } finally {
+            // Anything left over will be retransmitted by its client.
+            for (Pending pending : mQueue) {
+                pending.mListener.failed(pending.mData);
+            }
+        }
+    }
+
+    /**
+     * Writes a batch in one transaction, falling back to one transaction per
+     * reading if the batch fails.
+     */
+    void write(BatchInserter inserter, ArrayList<Pending> batch) {
+        long start = System.nanoTime();
+        for (Pending pending : batch) {
+            QUEUE_WAIT.record(start - pending.mQueuedNanos);
+        }
+
+        boolean committed = commit(inserter, batch, 0, batch.size());
+        INSERT.recordSince(start);
+        if (committed) {
+            for (Pending pending : batch) {
+                if (!pending.mStored) {
+                    STORED.increment();
+                }
+                pending.mListener.stored(pending.mData);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (pending.mStored) {
+                pending.mListener.stored(pending.mData);
+            } else if (commit(inserter, batch, i, i + 1)) {
+                STORED.increment();
+                pending.mListener.stored(pending.mData);
+            } else {
+                FAILED.increment();
+                pending.mListener.failed(pending.mData);
+            }
+        }
+    }
+
+    /**
+     * Rolls up and drops partitions which have aged out, about once a period.
+     */
+    void maintainPartitions() {
+        long now = System.currentTimeMillis() / 1000L;
+        if (mRouter == null || !mRouter.isMaintenanceDue(now)) {
+            return;
+        }
+        try {
+            mRouter.maintain(mDBConnection, now);
+        } catch (SQLException ex) {
+            Log.e(TAG, "Could not drop old partitions.", ex);
+        }
+    }
+
+    /**
+     * Deletes received rows older than the retention, about once a prune
+     * interval.  Partitioned databases drop them with their partitions
+     * instead.
+     *
+     * @param now The time in milliseconds.
+     */
+    void pruneReceived(long now) {
+        if (mRouter != null || now < mNextPruneMillis) {
+            return;
+        }
+        mNextPruneMillis = now + PRUNE_INTERVAL_MILLIS;
+
+        long limit = 0;
+        while (!mReceivedMarks.isEmpty()
+                && mReceivedMarks.peekFirst()[0] <= now - mReceivedRetentionMillis) {
+            limit = mReceivedMarks.removeFirst()[1];
+        }
+        try {
+            if (limit > 0) {
+                try (PreparedStatement statement = mDBConnection.prepareStatement(RECEIVED_PRUNE)) {
+                    statement.setLong(1, limit);
+                    statement.executeUpdate();
+                }
+            }
+            try (Statement statement = mDBConnection.createStatement();
+                 ResultSet result = statement.executeQuery(RECEIVED_LAST_ROW)) {
+                result.next();
+                mReceivedMarks.addLast(new long[]{now, result.getLong(1)});
+            }
+        } catch (SQLException ex) {
+            Log.e(TAG, "Could not prune the received table.", ex);
+        }
+    }
+
+    boolean commit(BatchInserter inserter, ArrayList<Pending> batch, int from, int to) {
+        int firstEntryID = mNextEntryID;
+        long now = System.currentTimeMillis() / 1000L;
+        try {
+            PartitionRouter.Partition partition = null;
+            if (mRouter != null) {
+                partition = mRouter.route(mDBConnection, now);
+                if (partition != mPartition) {
+                    // Drop the statements for the previous partition's tables.
+                    inserter.close();
+                    mPartition = partition;
+                }
+            }
+
+            mDBConnection.setAutoCommit(false);
+
+            for (int i = from; i < to; i++) {
+                String deviceID = batch.get(i).mData.getDeviceID();
+                if (!batch.get(i).mStored && !mKnownDevices.contains(deviceID)) {
+                    RIOTDatabase.registerDevice(mDBConnection, deviceID);
+                }
+            }
+
+            // The received rows are inserted first; a reading whose row is
+            // ignored is already stored.
+            PreparedStatement receivedStatement = inserter.getStatement(RECEIVED_INSERT);
+            int[] entryIDs = new int[to - from];
+            int[] rows = new int[to - from];
+            int rowCount = 0;
+            for (int i = from; i < to; i++) {
+                if (batch.get(i).mStored) {
+                    rows[i - from] = -1;
+                    continue;
+                }
+                Data data = batch.get(i).mData;
+                entryIDs[i - from] = mNextEntryID++;
+                rows[i - from] = rowCount++;
+                receivedStatement.setString(1, data.getStreamID());
+                receivedStatement.setLong(2, data.getEpoch());
+                receivedStatement.setInt(3, data.getSequence());
+                receivedStatement.setInt(4, entryIDs[i - from]);
+                receivedStatement.addBatch();
+            }
+            int[] inserted = receivedStatement.executeBatch();
+
+            PreparedStatement entryStatement = inserter.getStatement(
+                    partition == null ? ENTRY_INSERT : partition.mEntryInsert);
+            long minReal = Long.MAX_VALUE;
+            long maxReal = Long.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int row = rows[i - from];
+                if (row < 0 || inserted[row] == 0) {
+                    // Already stored; reported as stored without inserting.
+                    continue;
+                }
+
+                Data data = batch.get(i).mData;
+                int entryID = entryIDs[i - from];
+                entryStatement.setLong(1, now);
+                entryStatement.setLong(2, data.getTimestamp());
+                entryStatement.setString(3, data.getDeviceID());
+                entryStatement.setInt(4, entryID);
+                entryStatement.addBatch();
+                if (partition == null) {
+                    data.addToBatch(inserter, entryID);
+                } else {
+                    addToPartition(inserter, partition, data, entryID);
+                    minReal = Math.min(minReal, data.getTimestamp());
+                    maxReal = Math.max(maxReal, data.getTimestamp());
+                }
+            }
+
+            inserter.executeBatches();
+            if (partition != null && minReal <= maxReal) {
+                mRouter.recordRange(mDBConnection, partition, minReal, maxReal);
+            }
+            mDBConnection.commit();
+
+            for (int i = from; i < to; i++) {
+                mKnownDevices.add(batch.get(i).mData.getDeviceID());
+            }
+            return true;
+        } catch (SQLException ex) {
+            inserter.clearBatches();
+            mNextEntryID = firstEntryID;
+            try {
+                mDBConnection.rollback();
+            } catch (SQLException ex2) {
+                Log.e(TAG, "Could not rollback transactions.");
+            }
+            return false;
+        } finally {
+            try {
+                mDBConnection.setAutoCommit(true);
+            } catch (SQLException ex) {
+                Log.e(TAG, "Could not re-enable auto-commit.");
+            }
+        }
+    }
+
+    /**
+     * Adds a reading's values to the column batch for its type's table in
+     * the partition.
+     */
+    static void addToPartition(BatchInserter inserter, PartitionRouter.Partition partition,
+                               Data data, int entryID) {
+        SensorType type = data.getType();
+        ColumnBatch batch = inserter.getColumnBatch(partition.getTable(type), type.getValueCount());
+        int row = batch.addRow(entryID);
+        for (int column = 0; column < type.getValueCount(); column++) {
+            batch.set(row, column, data.getValue(column));
+        }
+    }
+}
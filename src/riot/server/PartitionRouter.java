@@ -0,0 +1,480 @@
+package riot.server;
+
+import riot.archive.ArchiveFormat;
+import riot.data.SensorType;
+import riot.database.RIOTDatabase;
+import riot.util.Log;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Splits the laptop's readings into a set of tables for each period of time,
+ * so that inserts only touch small, recent tables and old readings can be
+ * removed by dropping tables rather than deleting rows.
+ * <p>
+ * Readings are routed by when they arrive, so a batch always goes to the
+ * current partition even when a device sends a backlog.  Each partition has
+ * its own entry table, named {@code entry_yyyyMMddHH} after the start of its
+ * period in UTC, indexed on device and time, and a table for each sensor
+ * type named the same way.  The {@code partitions} table lists them with the
+ * range of reading times each holds, which {@link #getPartitions} uses to
+ * skip partitions a query cannot match.  All partitions are in the one
+ * database file, so a batch and its received rows still commit together.
+ * <p>
+ * Once a partition is more than the retention number of periods old,
+ * {@link #maintain} rolls its readings up into the {@code aggregate} table,
+ * with the minimum, maximum, mean and count of each column for each device
+ * and aggregate interval, then drops its tables.  If partitions are archived
+ * by an {@link ArchiveExporter}, a partition is kept until its archive has
+ * been written.
+ * <p>
+ * Only used from the ingestion writer's thread, except for
+ * {@link #getPartitions} and {@link #getSealedPartitions}.
+ */
+public class PartitionRouter {
+
+    static final String TAG = "PartitionRouter";
+
+    public static final String PARTITIONS_TABLE = "CREATE TABLE IF NOT EXISTS partitions(" +
+            "start INT PRIMARY KEY NOT NULL," +
+            "seconds INT NOT NULL," +
+            "suffix TEXT NOT NULL," +
+            "min_real INT," +
+            "max_real INT);";
+    // Readings from partitions which have been dropped, by device, column
+    // and interval of reading time.
+    public static final String AGGREGATE_TABLE = "CREATE TABLE IF NOT EXISTS aggregate(" +
+            "type TEXT NOT NULL," +
+            "dev_id TEXT NOT NULL," +
+            "start INT NOT NULL," +
+            "seconds INT NOT NULL," +
+            "field TEXT NOT NULL," +
+            "min REAL NOT NULL," +
+            "max REAL NOT NULL," +
+            "mean REAL NOT NULL," +
+            "count INT NOT NULL," +
+            "PRIMARY KEY(type, dev_id, start, seconds, field));";
+    // Lets the received rows of a dropped partition be found.
+    static final String RECEIVED_ENTRY_INDEX =
+            "CREATE INDEX IF NOT EXISTS received_entry_index ON received(entry_id);";
+
+    static final String ENTRY_PARTITION = "CREATE TABLE IF NOT EXISTS %s (entry_date DATE NOT NULL," +
+            "real_date DATE NOT NULL," +
+            "dev_id TEXT NOT NULL," +
+            "id INT PRIMARY KEY NOT NULL," +
+            "foreign key(dev_id) references dev(dev_id));";
+    static final String ENTRY_DEV_INDEX = "CREATE INDEX IF NOT EXISTS %1$s_dev_index ON %1$s(dev_id, real_date);";
+    static final String ENTRY_TIME_INDEX = "CREATE INDEX IF NOT EXISTS %1$s_time_index ON %1$s(real_date);";
+
+    static final String PARTITIONS_QUERY = "SELECT start, suffix, min_real, max_real FROM partitions ORDER BY start;";
+    static final String PARTITION_INSERT = "INSERT OR IGNORE INTO partitions VALUES (?, ?, ?, NULL, NULL);";
+    static final String PARTITION_RANGE_UPDATE = "UPDATE partitions SET " +
+            "min_real = MIN(IFNULL(min_real, ?1), ?1), max_real = MAX(IFNULL(max_real, ?2), ?2) " +
+            "WHERE start = ?3;";
+    static final String PARTITION_DELETE = "DELETE FROM partitions WHERE start = ?;";
+    static final String AGGREGATE_UPDATE = "UPDATE aggregate SET min = MIN(min, ?1), max = MAX(max, ?2), " +
+            "mean = (mean * count + ?3 * ?4) / (count + ?4), count = count + ?4 " +
+            "WHERE type = ?5 AND dev_id = ?6 AND start = ?7 AND seconds = ?8 AND field = ?9;";
+    static final String AGGREGATE_INSERT = "INSERT INTO aggregate VALUES (?5, ?6, ?7, ?8, ?9, ?1, ?2, ?3, ?4);";
+
+    /**
+     * The tables holding one period of readings.
+     */
+    public static class Partition {
+        final long mStart;
+        final String mSuffix;
+        final String mEntryTable;
+        final String mEntryInsert;
+        long mMinReal = Long.MAX_VALUE;
+        long mMaxReal = Long.MIN_VALUE;
+
+        Partition(long start, String suffix) {
+            mStart = start;
+            mSuffix = suffix;
+            mEntryTable = "entry_" + suffix;
+            mEntryInsert = "INSERT INTO " + mEntryTable + " VALUES (?, ?, ?, ?)";
+        }
+
+        /**
+         * @return the start of the partition's period, in seconds
+         */
+        public long getStart() {
+            return mStart;
+        }
+
+        public String getEntryTable() {
+            return mEntryTable;
+        }
+
+        /**
+         * @param type
+         * @return the name of the partition of the sensor type's table
+         */
+        public String getTable(SensorType type) {
+            return type.getTable() + "_" + mSuffix;
+        }
+    }
+
+    final long mPeriodSeconds;
+    final int mRetainedPeriods;
+    final long mAggregateSeconds;
+
+    final TreeMap<Long, Partition> mPartitions = new TreeMap<>();
+    Partition mCurrent;
+    long mNextMaintenance = 0;
+    File mArchiveDirectory;
+
+    /**
+     * @param periodSeconds    The length of each partition's period.  A whole
+     *                         number of hours.
+     * @param retainedPeriods  How many periods before the current one keep
+     *                         their readings.
+     * @param aggregateSeconds The interval readings are rolled up over when
+     *                         a partition is dropped, or 0 to drop partitions
+     *                         without keeping aggregates.
+     */
+    public PartitionRouter(long periodSeconds, int retainedPeriods, long aggregateSeconds) {
+        if (periodSeconds < 3600 || periodSeconds % 3600 != 0) {
+            throw new IllegalArgumentException("Period must be a whole number of hours.");
+        }
+        if (retainedPeriods < 0) {
+            throw new IllegalArgumentException("Retained periods cannot be negative.");
+        }
+        if (aggregateSeconds < 0) {
+            throw new IllegalArgumentException("Aggregate interval cannot be negative.");
+        }
+        mPeriodSeconds = periodSeconds;
+        mRetainedPeriods = retainedPeriods;
+        mAggregateSeconds = aggregateSeconds;
+    }
+
+    /**
+     * Keeps partitions until they have been archived in the directory.  Must
+     * be set before the router is opened.
+     *
+     * @param directory
+     */
+    public void setArchiveDirectory(File directory) {
+        mArchiveDirectory = directory;
+    }
+
+    public File getArchiveDirectory() {
+        return mArchiveDirectory;
+    }
+
+    /**
+     * @param partition
+     * @return the file the partition is archived in
+     */
+    public File getArchiveFile(Partition partition) {
+        return new File(mArchiveDirectory, "riot_" + partition.mSuffix + ArchiveFormat.FILE_SUFFIX);
+    }
+
+    /**
+     * Creates the tables which list partitions and hold aggregates, and loads
+     * the existing partitions.
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public synchronized void open(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(PARTITIONS_TABLE);
+            statement.executeUpdate(AGGREGATE_TABLE);
+            statement.executeUpdate(RECEIVED_ENTRY_INDEX);
+
+            mPartitions.clear();
+            try (ResultSet results = statement.executeQuery(PARTITIONS_QUERY)) {
+                while (results.next()) {
+                    Partition partition = new Partition(results.getLong(1), results.getString(2));
+                    long minReal = results.getLong(3);
+                    if (!results.wasNull()) {
+                        partition.mMinReal = minReal;
+                        partition.mMaxReal = results.getLong(4);
+                    }
+                    mPartitions.put(partition.mStart, partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the id to give the next entry, above the entries in the
+     * unpartitioned entry table and in every partition.
+     *
+     * @param connection
+     * @return
+     * @throws SQLException
+     */
+    public synchronized int getNextEntryId(Connection connection) throws SQLException {
+        int max = RIOTDatabase.getMaxId(connection, "entry");
+        for (Partition partition : mPartitions.values()) {
+            max = Math.max(max, RIOTDatabase.getMaxId(connection, partition.mEntryTable));
+        }
+        return max + 1;
+    }
+
+    /**
+     * Returns the partition readings arriving now are stored in, creating its
+     * tables the first time.  Must not be called inside a transaction, so
+     * that the tables exist even if the batch is rolled back.
+     *
+     * @param connection
+     * @param nowSeconds
+     * @return
+     * @throws SQLException
+     */
+    public synchronized Partition route(Connection connection, long nowSeconds) throws SQLException {
+        long start = Math.floorDiv(nowSeconds, mPeriodSeconds) * mPeriodSeconds;
+        if (mCurrent != null && mCurrent.mStart == start) {
+            return mCurrent;
+        }
+
+        Partition partition = mPartitions.get(start);
+        if (partition == null) {
+            partition = create(connection, start);
+            mPartitions.put(start, partition);
+        } else {
+            // Types registered since the partition was made need tables too.
+            createTypeTables(connection, partition);
+        }
+        mCurrent = partition;
+        return partition;
+    }
+
+    Partition create(Connection connection, long start) throws SQLException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHH", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Partition partition = new Partition(start, format.format(new Date(start * 1000L)));
+
+        try (Statement statement = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(PARTITION_INSERT)) {
+            statement.executeUpdate(String.format(ENTRY_PARTITION, partition.mEntryTable));
+            statement.executeUpdate(String.format(ENTRY_DEV_INDEX, partition.mEntryTable));
+            statement.executeUpdate(String.format(ENTRY_TIME_INDEX, partition.mEntryTable));
+            createTypeTables(connection, partition);
+
+            insert.setLong(1, start);
+            insert.setLong(2, mPeriodSeconds);
+            insert.setString(3, partition.mSuffix);
+            insert.executeUpdate();
+        }
+        Log.i(TAG, "Created partition %s.", partition.mSuffix);
+        return partition;
+    }
+
+    void createTypeTables(Connection connection, Partition partition) throws SQLException {
+        for (SensorType type : SensorType.getTypes()) {
+            type.createPartition(connection, partition.getTable(type), partition.mEntryTable);
+        }
+    }
+
+    /**
+     * Widens the range of reading times recorded for a partition.  Called
+     * inside the transaction that stores the readings.
+     *
+     * @param connection
+     * @param partition
+     * @param minReal    The earliest reading time stored.
+     * @param maxReal    The latest reading time stored.
+     * @throws SQLException
+     */
+    public synchronized void recordRange(Connection connection, Partition partition,
+                                         long minReal, long maxReal) throws SQLException {
+        if (minReal >= partition.mMinReal && maxReal <= partition.mMaxReal) {
+            return;
+        }
+        try (PreparedStatement update = connection.prepareStatement(PARTITION_RANGE_UPDATE)) {
+            update.setLong(1, minReal);
+            update.setLong(2, maxReal);
+            update.setLong(3, partition.mStart);
+            update.executeUpdate();
+        }
+        // If the transaction is rolled back the range is only wider than it
+        // needs to be.
+        partition.mMinReal = Math.min(partition.mMinReal, minReal);
+        partition.mMaxReal = Math.max(partition.mMaxReal, maxReal);
+    }
+
+    /**
+     * Finds the partitions which may hold readings taken in a range of time.
+     *
+     * @param fromSeconds The earliest reading time wanted.
+     * @param toSeconds   The latest reading time wanted.
+     * @return the partitions, oldest first
+     */
+    public synchronized List<Partition> getPartitions(long fromSeconds, long toSeconds) {
+        ArrayList<Partition> partitions = new ArrayList<>();
+        for (Partition partition : mPartitions.values()) {
+            if (partition.mMaxReal >= fromSeconds && partition.mMinReal <= toSeconds) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Finds the partitions whose periods ended before the given time, so no
+     * more readings are stored in them.
+     *
+     * @param beforeSeconds
+     * @return the partitions, oldest first
+     */
+    public synchronized List<Partition> getSealedPartitions(long beforeSeconds) {
+        ArrayList<Partition> partitions = new ArrayList<>();
+        for (Partition partition : mPartitions.values()) {
+            if (partition.mStart + mPeriodSeconds <= beforeSeconds) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * @param nowSeconds
+     * @return true if {@link #maintain} should be run; about once a period
+     */
+    public synchronized boolean isMaintenanceDue(long nowSeconds) {
+        return nowSeconds >= mNextMaintenance;
+    }
+
+    /**
+     * Rolls up and drops every partition older than the retained periods.
+     * Each partition is dropped in its own transaction.
+     *
+     * @param connection
+     * @param nowSeconds
+     * @return the number of partitions dropped
+     * @throws SQLException
+     */
+    public synchronized int maintain(Connection connection, long nowSeconds) throws SQLException {
+        long currentStart = Math.floorDiv(nowSeconds, mPeriodSeconds) * mPeriodSeconds;
+        long horizon = currentStart - mRetainedPeriods * mPeriodSeconds;
+        mNextMaintenance = currentStart + mPeriodSeconds;
+
+        int dropped = 0;
+        while (!mPartitions.isEmpty() && mPartitions.firstKey() < horizon) {
+            Partition partition = mPartitions.firstEntry().getValue();
+            if (mArchiveDirectory != null && !getArchiveFile(partition).exists()) {
+                // Try again once the exporter has caught up.
+                mNextMaintenance = Math.min(mNextMaintenance, nowSeconds + 600);
+                Log.d(TAG, "Keeping partition %s until it is archived.", partition.mSuffix);
+                break;
+            }
+            drop(connection, partition);
+            mPartitions.remove(partition.mStart);
+            if (partition == mCurrent) {
+                mCurrent = null;
+            }
+            dropped++;
+        }
+        return dropped;
+    }
+
+    void drop(Connection connection, Partition partition) throws SQLException {
+        List<SensorType> types = SensorType.getTypes();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            if (mAggregateSeconds > 0) {
+                for (SensorType type : types) {
+                    if (exists(connection, partition.getTable(type))) {
+                        aggregate(connection, partition, type);
+                    }
+                }
+            }
+
+            // Entry ids are given out in order and partitions are filled in
+            // order, so a partition's entries are one range of ids.
+            statement.executeUpdate("DELETE FROM received WHERE entry_id BETWEEN " +
+                    "(SELECT MIN(id) FROM " + partition.mEntryTable + ") AND " +
+                    "(SELECT MAX(id) FROM " + partition.mEntryTable + ");");
+            // Children first, so the foreign keys are never broken.
+            for (SensorType type : types) {
+                statement.executeUpdate("DROP TABLE IF EXISTS " + partition.getTable(type) + ";");
+            }
+            statement.executeUpdate("DROP TABLE IF EXISTS " + partition.mEntryTable + ";");
+
+            try (PreparedStatement delete = connection.prepareStatement(PARTITION_DELETE)) {
+                delete.setLong(1, partition.mStart);
+                delete.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        Log.i(TAG, "Dropped partition %s.", partition.mSuffix);
+    }
+
+    /**
+     * Adds the minimum, maximum, mean and count of each of a sensor type's
+     * columns, for each device and aggregate interval, to the aggregate
+     * table.  Intervals already in the table, such as from readings which
+     * arrived late in a later partition, are merged.
+     */
+    void aggregate(Connection connection, Partition partition, SensorType type) throws SQLException {
+        int columns = type.getValueCount();
+        StringBuilder query = new StringBuilder("SELECT e.dev_id, e.real_date / ")
+                .append(mAggregateSeconds).append(" * ").append(mAggregateSeconds).append(", COUNT(*)");
+        for (int i = 0; i < columns; i++) {
+            String column = "t." + type.getColumn(i);
+            query.append(", MIN(").append(column).append("), MAX(").append(column)
+                    .append("), AVG(").append(column).append(')');
+        }
+        query.append(" FROM ").append(partition.getTable(type)).append(" t INNER JOIN ")
+                .append(partition.mEntryTable).append(" e ON t.id = e.id GROUP BY 1, 2;");
+
+        // Parameters are numbered so the update and insert share them.
+        try (Statement select = connection.createStatement();
+             ResultSet results = select.executeQuery(query.toString());
+             PreparedStatement update = connection.prepareStatement(AGGREGATE_UPDATE);
+             PreparedStatement insert = connection.prepareStatement(AGGREGATE_INSERT)) {
+            while (results.next()) {
+                String deviceID = results.getString(1);
+                long start = results.getLong(2);
+                long count = results.getLong(3);
+                for (int i = 0; i < columns; i++) {
+                    int index = 4 + i * 3;
+                    for (PreparedStatement statement : new PreparedStatement[]{update, insert}) {
+                        statement.setDouble(1, results.getDouble(index));
+                        statement.setDouble(2, results.getDouble(index + 1));
+                        statement.setDouble(3, results.getDouble(index + 2));
+                        statement.setLong(4, count);
+                        statement.setString(5, type.getName());
+                        statement.setString(6, deviceID);
+                        statement.setLong(7, start);
+                        statement.setLong(8, mAggregateSeconds);
+                        statement.setString(9, type.getColumn(i));
+                    }
+                    if (update.executeUpdate() == 0) {
+                        insert.executeUpdate();
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean exists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?;")) {
+            query.setString(1, table);
+            try (ResultSet results = query.executeQuery()) {
+                return results.next();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package riot.server;
+
+import riot.network.Acknowledgement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of which readings from each device have been stored during a
+ * single connection and builds the acknowledgements sent back to the client.
+ * <p>
+ * Clients send readings in increasing sequence order, so any reading that
+ * arrives before the first failed one has been stored and can be acknowledged
+ * cumulatively.  Readings stored after a failure are acknowledged selectively
+ * until the client retransmits the failed readings.
+ * <p>
+ * Not thread safe; each connection owns its own instance.
+ */
+public class SequenceAcknowledger {
+
+    static class DeviceState {
+        int mCumulative = -1;
+
+        // Only populated while there are failed readings outstanding.
+        TreeSet<Integer> mFailed = new TreeSet<>();
+        TreeSet<Integer> mStoredAbove = new TreeSet<>();
+
+        void stored(int sequence) {
+            mFailed.remove(sequence);
+            if (sequence <= mCumulative) {
+                return;
+            }
+
+            if (mFailed.isEmpty()) {
+                if (!mStoredAbove.isEmpty()) {
+                    mCumulative = Math.max(mCumulative, mStoredAbove.last());
+                    mStoredAbove.clear();
+                }
+                mCumulative = Math.max(mCumulative, sequence);
+            } else {
+                mStoredAbove.add(sequence);
+
+                // Everything below the lowest failed reading is now contiguous.
+                SortedSet<Integer> contiguous = mStoredAbove.headSet(mFailed.first());
+                if (!contiguous.isEmpty()) {
+                    mCumulative = Math.max(mCumulative, contiguous.last());
+                    contiguous.clear();
+                }
+            }
+        }
+
+        void failed(int sequence) {
+            if (sequence > mCumulative && !mStoredAbove.contains(sequence)) {
+                mFailed.add(sequence);
+            }
+        }
+
+        int[] getRanges() {
+            int[] ranges = new int[mStoredAbove.size() * 2];
+            int count = 0;
+            Iterator<Integer> iterator = mStoredAbove.iterator();
+            while (iterator.hasNext()) {
+                int sequence = iterator.next();
+
+                // Extend the current range unless a failed reading lies between.
+                if (count > 0 && mFailed.subSet(ranges[count - 1], sequence).isEmpty()) {
+                    ranges[count - 1] = sequence;
+                } else {
+                    ranges[count++] = sequence;
+                    ranges[count++] = sequence;
+                }
+            }
+
+            int[] trimmed = new int[count];
+            System.arraycopy(ranges, 0, trimmed, 0, count);
+            return trimmed;
+        }
+    }
+
+    HashMap<String, DeviceState> mDevices = new HashMap<>();
+
+    DeviceState getState(String deviceID) {
+        DeviceState state = mDevices.get(deviceID);
+        if (state == null) {
+            state = new DeviceState();
+            mDevices.put(deviceID, state);
+        }
+        return state;
+    }
+
+    /**
+     * Records that a reading was written to the database.
+     *
+     * @param deviceID
+     * @param sequence
+     */
+    public void stored(String deviceID, int sequence) {
+        getState(deviceID).stored(sequence);
+    }
+
+    /**
+     * Records that a reading could not be written to the database and needs
+     * to be retransmitted.
+     *
+     * @param deviceID
+     * @param sequence
+     */
+    public void failed(String deviceID, int sequence) {
+        getState(deviceID).failed(sequence);
+    }
+
+    /**
+     * Builds the current acknowledgement for a device.
+     *
+     * @param deviceID
+     * @return
+     */
+    public Acknowledgement getAcknowledgement(String deviceID) {
+        DeviceState state = getState(deviceID);
+        return new Acknowledgement(deviceID, state.mCumulative, state.getRanges());
+    }
+}
@@ -0,0 +1,142 @@
+package riot.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed relative precision,
+ * in the style of HdrHistogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} have a bucket each.  Above that every
+ * power of two is split into {@value #HALF_BUCKETS} buckets, so a value is
+ * reported to within about 6% whatever its size, from nanoseconds to hours,
+ * in under a thousand buckets.  Recording is lock-free and does not allocate,
+ * so it can be used on the hot paths of several threads at once.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_BUCKETS;
+
+    /**
+     * The state of a histogram at one moment.
+     */
+    public static class Snapshot {
+        final long[] mCounts;
+        final long mCount;
+        final long mSum;
+        final long mMax;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /**
+         * @param percentile Between 0 and 100.
+         * @return the highest value of the bucket holding the percentile, or
+         * 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            long total = 0;
+            for (long count : mCounts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+
+    final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    final LongAdder mCount = new LongAdder();
+    final LongAdder mSum = new LongAdder();
+    final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a duration.  Negative durations are recorded as 0.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucket(nanos));
+        mCount.increment();
+        mSum.add(nanos);
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Records the time since a reading of {@link System#nanoTime()}.
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Copies the histogram.  Values recorded while copying may be partly
+     * included.
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mCount.sum(), mSum.sum(), mMax.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Keep the top SUB_BUCKET_BITS bits, the highest of which is set.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) (value >>> shift) - HALF_BUCKETS;
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / HALF_BUCKETS + 1;
+        long top = (bucket - SUB_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,136 @@
+package riot.stats;
+
+import riot.util.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters for the stages of the pipeline from the
+ * sensors to the server, so a running node or server shows where its time
+ * goes without a profiler.
+ * <p>
+ * Stages are named after the side and the step, for example
+ * {@code client.serialize} or {@code server.insert}.  Classes look their
+ * stages up once and keep them in static fields, so recording costs a few
+ * atomic increments.  Everything in one JVM shares {@link #get()}.
+ * <p>
+ * The figures can be logged periodically with {@link #startReporting} or read
+ * over JMX after {@link #registerMBean()}, for example with jconsole over an
+ * SSH tunnel to the Pi.
+ */
+public class PipelineStats implements PipelineStatsMXBean {
+
+    static final String TAG = "PipelineStats";
+
+    public static final String OBJECT_NAME = "riot:type=PipelineStats";
+
+    static final PipelineStats sDefault = new PipelineStats();
+
+    /**
+     * @return the statistics of this JVM
+     */
+    public static PipelineStats get() {
+        return sDefault;
+    }
+
+    // Sorted so reports list each side's stages together.
+    final ConcurrentSkipListMap<String, LatencyHistogram> mStages = new ConcurrentSkipListMap<>();
+    final ConcurrentSkipListMap<String, LongAdder> mCounters = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the histogram of a stage, creating it the first time.
+     *
+     * @param name
+     * @return
+     */
+    public LatencyHistogram stage(String name) {
+        return mStages.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns a counter, creating it the first time.
+     *
+     * @param name
+     * @return
+     */
+    public LongAdder counter(String name) {
+        return mCounters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> stage : mStages.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = stage.getValue().snapshot();
+            builder.append(String.format("%-24s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+                    stage.getKey(), snapshot.getCount(), snapshot.getMean() / 1000.0,
+                    snapshot.getValueAtPercentile(50) / 1000.0,
+                    snapshot.getValueAtPercentile(99) / 1000.0,
+                    snapshot.getValueAtPercentile(99.9) / 1000.0,
+                    snapshot.getMax() / 1000.0));
+        }
+        for (Map.Entry<String, LongAdder> counter : mCounters.entrySet()) {
+            builder.append(String.format("%-24s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public Map<String, Long> getValues() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> stage : mStages.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = stage.getValue().snapshot();
+            values.put(stage.getKey() + ".count", snapshot.getCount());
+            values.put(stage.getKey() + ".meanNanos", (long) snapshot.getMean());
+            values.put(stage.getKey() + ".p50Nanos", snapshot.getValueAtPercentile(50));
+            values.put(stage.getKey() + ".p99Nanos", snapshot.getValueAtPercentile(99));
+            values.put(stage.getKey() + ".maxNanos", snapshot.getMax());
+        }
+        for (Map.Entry<String, LongAdder> counter : mCounters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server.
+     *
+     * @throws JMException if they are already registered
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Logs the report on a daemon thread every period, a line per stage or
+     * counter.
+     *
+     * @param period
+     * @param unit
+     * @return the reporting thread's executor, to shut it down
+     */
+    public ScheduledExecutorService startReporting(long period, TimeUnit unit) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PipelineStats reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            for (String line : getReport().split("\\R")) {
+                Log.i(TAG, "%s", line);
+            }
+        }, period, period, unit);
+        return executor;
+    }
+}
@@ -0,0 +1,21 @@
+package riot.stats;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link PipelineStats}, registered as
+ * {@value PipelineStats#OBJECT_NAME}.
+ */
+public interface PipelineStatsMXBean {
+
+    /**
+     * @return one line per stage and counter
+     */
+    String getReport();
+
+    /**
+     * @return every counter, and the count, mean, median, 99th percentile and
+     * maximum of every stage in nanoseconds, by name
+     */
+    Map<String, Long> getValues();
+}
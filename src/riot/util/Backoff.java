@@ -0,0 +1,73 @@
+package riot.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponentially increasing delays for retrying something that keeps failing,
+ * such as connecting to a network that is out of range.
+ * <p>
+ * Delays can be jittered so that many nodes which lost the same server do not
+ * all retry at the same moment when it comes back.
+ */
+public class Backoff {
+
+    final long mMinDelayMillis;
+    final long mMaxDelayMillis;
+    final double mJitter;
+    long mNextDelayMillis;
+
+    public Backoff(long minDelayMillis, long maxDelayMillis) {
+        this(minDelayMillis, maxDelayMillis, 0);
+    }
+
+    /**
+     * @param minDelayMillis
+     * @param maxDelayMillis
+     * @param jitter         The fraction of each delay which is randomised,
+     *                       between 0 and 1.  A delay of d is chosen uniformly
+     *                       between d * (1 - jitter) and d.
+     */
+    public Backoff(long minDelayMillis, long maxDelayMillis, double jitter) {
+        if (minDelayMillis < 1 || maxDelayMillis < minDelayMillis) {
+            throw new IllegalArgumentException("Delays must be positive with min <= max.");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1.");
+        }
+        mMinDelayMillis = minDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mJitter = jitter;
+        mNextDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Returns the delay before the next attempt and doubles the delay after
+     * it, up to the maximum.
+     *
+     * @return
+     */
+    public long nextDelay() {
+        long delay = mNextDelayMillis;
+        mNextDelayMillis = Math.min(mNextDelayMillis * 2, mMaxDelayMillis);
+        if (mJitter > 0) {
+            delay -= (long) (delay * mJitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return Math.max(delay, 1);
+    }
+
+    /**
+     * Sleeps for the next delay.
+     *
+     * @throws InterruptedException
+     */
+    public void sleep() throws InterruptedException {
+        Thread.sleep(nextDelay());
+    }
+
+    /**
+     * Goes back to the minimum delay after a success.
+     */
+    public void reset() {
+        mNextDelayMillis = mMinDelayMillis;
+    }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 
 public class CLI_Interface_Utils {
+    static final String TAG = "CLI_Interface_Utils";
+
     /**
      * Checks if a process has returned the expected string.
      * @param process The process to check
@@ -21,7 +23,7 @@ public class CLI_Interface_Utils {
 
             return false;
         } catch (IOException ex) {
-            ex.printStackTrace();
+            Log.e(TAG, "Could not read process output.", ex);
             return false;
         }
     }
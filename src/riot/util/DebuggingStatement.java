@@ -2,14 +2,15 @@ package riot.util;
 
 /**
  * Created by marianne on 18/01/17.
+ * <p>
+ * Debug messages now go through {@link Log} at the DEBUG level, which can be
+ * turned on while running.
  */
 public class DebuggingStatement {
 
-    static final boolean DEBUG = true;
+    static final String TAG = "Debug";
 
     public static void println(String s) {
-        if (DEBUG) {
-            System.out.println(s);
-        }
+        Log.d(TAG, s);
     }
 }
@@ -0,0 +1,266 @@
+package riot.util;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logging for the RIOT programs, which keeps console output off the threads
+ * that move readings.
+ * <p>
+ * Messages are put in a bounded queue and formatted and printed by a daemon
+ * thread, so a slow serial console or journald only holds up that thread.
+ * If the queue is full the message is dropped and counted rather than
+ * blocking the caller.  Formatting with arguments is also left to that
+ * thread, so a message below the current level costs one comparison:
+ * <pre>
+ *     Log.d(TAG, "Compacted %d rows.", deleted);
+ * </pre>
+ * The level can be changed while running with {@link #setLevel} and starts
+ * at the {@code riot.log.level} system property, or INFO.
+ * <p>
+ * Messages which could repeat for every reading take a {@link Limit}, held in
+ * a static field at the call site, which lets through one message per
+ * interval and reports how many were suppressed in between.
+ */
+public class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /**
+     * Limits a call site to one message per interval.
+     */
+    public static class Limit {
+        final long mIntervalNanos;
+        final AtomicLong mNextNanos = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLong mSuppressed = new AtomicLong();
+
+        public Limit(long interval, TimeUnit unit) {
+            mIntervalNanos = unit.toNanos(interval);
+        }
+
+        /**
+         * @return the number of messages suppressed since the last one let
+         * through, or -1 if this message should be suppressed
+         */
+        long acquire() {
+            long now = System.nanoTime();
+            long next = mNextNanos.get();
+            if ((next != Long.MIN_VALUE && now - next < 0)
+                    || !mNextNanos.compareAndSet(next, now + mIntervalNanos)) {
+                mSuppressed.incrementAndGet();
+                return -1;
+            }
+            return mSuppressed.getAndSet(0);
+        }
+    }
+
+    static class Entry {
+        final Level mLevel;
+        final String mTag;
+        final String mFormat;
+        final Object[] mArgs;
+        final Throwable mThrowable;
+        final long mSuppressed;
+
+        Entry(Level level, String tag, String format, Object[] args, Throwable throwable,
+              long suppressed) {
+            mLevel = level;
+            mTag = tag;
+            mFormat = format;
+            mArgs = args;
+            mThrowable = throwable;
+            mSuppressed = suppressed;
+        }
+    }
+
+    static final int QUEUE_CAPACITY = 1024;
+    static final Object[] NO_ARGS = new Object[0];
+
+    static volatile Level sLevel = parseLevel(System.getProperty("riot.log.level"), Level.INFO);
+
+    static final ArrayBlockingQueue<Entry> sQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    static final AtomicLong sDropped = new AtomicLong();
+    static PrintStream sOut = System.out;
+    static PrintStream sErr = System.err;
+    static volatile Thread sWriter;
+    // Held while printing, so flush() and the writer thread do not interleave.
+    static final Object sPrintLock = new Object();
+
+    public static void setLevel(Level level) {
+        if (level == null) {
+            throw new NullPointerException("Level cannot be null.");
+        }
+        sLevel = level;
+    }
+
+    public static Level getLevel() {
+        return sLevel;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(sLevel) >= 0 && level != Level.OFF;
+    }
+
+    /**
+     * @return the number of messages dropped because the queue was full
+     */
+    public static long getDropped() {
+        return sDropped.get();
+    }
+
+    public static void d(String tag, String format, Object... args) {
+        log(Level.DEBUG, null, tag, format, args, null);
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        log(Level.INFO, null, tag, format, args, null);
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        log(Level.WARN, null, tag, format, args, null);
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        log(Level.ERROR, null, tag, format, args, null);
+    }
+
+    /**
+     * Logs an error with the stack trace of its cause.
+     *
+     * @param tag
+     * @param message
+     * @param throwable
+     */
+    public static void e(String tag, String message, Throwable throwable) {
+        log(Level.ERROR, null, tag, message, NO_ARGS, throwable);
+    }
+
+    /**
+     * Logs a message unless the call site's limit has been reached.
+     *
+     * @param level
+     * @param limit
+     * @param tag
+     * @param format
+     * @param args
+     */
+    public static void limited(Level level, Limit limit, String tag, String format, Object... args) {
+        log(level, limit, tag, format, args, null);
+    }
+
+    static void log(Level level, Limit limit, String tag, String format, Object[] args,
+                    Throwable throwable) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long suppressed = 0;
+        if (limit != null) {
+            suppressed = limit.acquire();
+            if (suppressed < 0) {
+                return;
+            }
+        }
+
+        if (sWriter == null) {
+            startWriter();
+        }
+        if (!sQueue.offer(new Entry(level, tag, format, args, throwable, suppressed))) {
+            sDropped.incrementAndGet();
+        }
+    }
+
+    static synchronized void startWriter() {
+        if (sWriter != null) {
+            return;
+        }
+        sWriter = new Thread(Log::drain, "Log writer");
+        sWriter.setDaemon(true);
+        sWriter.start();
+        // Print whatever is still queued when the program exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log flush"));
+    }
+
+    static void drain() {
+        ArrayList<Entry> entries = new ArrayList<>();
+        try {
+            while (true) {
+                entries.add(sQueue.take());
+                sQueue.drainTo(entries);
+                write(entries);
+                entries.clear();
+            }
+        } catch (InterruptedException ex) {
+            // Finish.
+        }
+    }
+
+    /**
+     * Prints every queued message on the calling thread.
+     */
+    public static void flush() {
+        ArrayList<Entry> entries = new ArrayList<>();
+        sQueue.drainTo(entries);
+        write(entries);
+    }
+
+    static void write(ArrayList<Entry> entries) {
+        synchronized (sPrintLock) {
+            print(entries);
+        }
+    }
+
+    static void print(ArrayList<Entry> entries) {
+        long dropped = sDropped.getAndSet(0);
+        if (dropped > 0) {
+            sErr.println("W Log: " + dropped + " messages dropped.");
+        }
+
+        for (Entry entry : entries) {
+            PrintStream out = entry.mLevel.compareTo(Level.WARN) >= 0 ? sErr : sOut;
+            StringBuilder line = new StringBuilder();
+            line.append(entry.mLevel.name().charAt(0)).append(' ')
+                    .append(entry.mTag).append(": ")
+                    .append(format(entry.mFormat, entry.mArgs));
+            if (entry.mSuppressed > 0) {
+                line.append(" (").append(entry.mSuppressed).append(" similar suppressed)");
+            }
+            if (entry.mThrowable != null) {
+                StringWriter trace = new StringWriter();
+                entry.mThrowable.printStackTrace(new PrintWriter(trace));
+                line.append(System.lineSeparator()).append(trace.toString().trim());
+            }
+            out.println(line);
+        }
+        sOut.flush();
+        sErr.flush();
+    }
+
+    static String format(String format, Object[] args) {
+        if (args.length == 0) {
+            return format;
+        }
+        try {
+            return String.format(Locale.ROOT, format, args);
+        } catch (RuntimeException ex) {
+            return format + " " + Arrays.toString(args);
+        }
+    }
+
+    static Level parseLevel(String name, Level fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return fallback;
+        }
+    }
+}
@@ -8,6 +8,8 @@ import java.util.regex.Pattern;
  */
 public class Netsh_CLI_Interface {
 
+    static final String TAG = "Netsh_CLI_Interface";
+
     public static final int EXIT_OK = 0;
     static final String program = "CMD";
 
@@ -26,8 +28,7 @@ public class Netsh_CLI_Interface {
         //TODO: Find out what possible error results can happen.
         int exitCode;
         if ((exitCode = process.waitFor()) != EXIT_OK) {
-            System.err.println("set hostednetwork error code:" + exitCode);
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "set hostednetwork error code: %d (%s)", exitCode, processBuilder.command());
             return false;
         }
 
@@ -48,8 +49,7 @@ public class Netsh_CLI_Interface {
         //TODO: Find out what possible error results can happen.
         int exitCode;
         if ((exitCode = process.waitFor()) != EXIT_OK) {
-            System.err.println("set hostednetwork error code:" + exitCode);
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "set hostednetwork error code: %d (%s)", exitCode, processBuilder.command());
             return false;
         }
 
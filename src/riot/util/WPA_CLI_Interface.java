@@ -12,6 +12,8 @@ import java.util.ArrayList;
  */
 public class WPA_CLI_Interface {
 
+    static final String TAG = "WPA_CLI_Interface";
+
     public static final int EXIT_OK = 0;
 
     public static class Network {
@@ -55,11 +57,10 @@ public class WPA_CLI_Interface {
             }
             int exitCode;
             if ((exitCode = process.waitFor()) != 0) {
-                System.err.println("list_networks exit code: " + exitCode);
-                System.err.println("\t" + processBuilder.command());
+                Log.e(TAG, "list_networks exit code: %d (%s)", exitCode, processBuilder.command());
             }
         } catch (IOException ex) {
-            ex.printStackTrace();
+            Log.e(TAG, "Could not run list_networks.", ex);
         }
 
         return networkList;
@@ -89,8 +90,7 @@ public class WPA_CLI_Interface {
                 index = temp;
             }
         } catch (NumberFormatException e) {
-            DebuggingStatement.println("Could not parse as int.");
-            DebuggingStatement.println("add_network returned: " + line);
+            Log.d(TAG, "Could not parse as int, add_network returned: %s", line);
         }
 
         return index;
@@ -119,13 +119,12 @@ public class WPA_CLI_Interface {
                 " " + property + " \'\"" + value + "\"\'");
         Process process = processBuilder.start();
         if (!CLI_Interface_Utils.isProcessOutput(process, "OK")) {
-            System.err.println("set_network failed");
-            System.err.println("\t" + processBuilder.command());
+            // The command holds the value, which may be a password.
+            Log.e(TAG, "set_network %d %s failed", networkNumber, property);
         }
         int exitCode;
         if ((exitCode = process.waitFor()) != EXIT_OK) {
-            System.err.println("set_network exit code: " + exitCode);
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "set_network %d %s exit code: %d", networkNumber, property, exitCode);
             return false;
         }
 
@@ -138,13 +137,11 @@ public class WPA_CLI_Interface {
                 "wpa_cli -i " + interfaceName + " enable_network " + networkNumber);
         Process process = processBuilder.start();
         if (!CLI_Interface_Utils.isProcessOutput(process, "OK")) {
-            System.err.println("enable_network failed");
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "enable_network failed: %s", processBuilder.command());
         }
         int exitCode;
         if ((exitCode = process.waitFor()) != EXIT_OK) {
-            System.err.println("enable_network exit code: " + exitCode);
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "enable_network exit code: %d (%s)", exitCode, processBuilder.command());
             return false;
         }
 
@@ -167,13 +164,11 @@ public class WPA_CLI_Interface {
                 "wpa_cli -i " + interfaceName + " remove_network " + networkNumber);
         Process process = processBuilder.start();
         if (!CLI_Interface_Utils.isProcessOutput(process, "OK")) {
-            System.err.println("remove_network failed");
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "remove_network failed: %s", processBuilder.command());
         }
         int exitCode;
         if ((exitCode = process.waitFor()) != EXIT_OK) {
-            System.err.println("remove_network exit code: " + exitCode);
-            System.err.println("\t" + processBuilder.command());
+            Log.e(TAG, "remove_network exit code: %d (%s)", exitCode, processBuilder.command());
             return false;
         }
 
@@ -187,10 +182,10 @@ public class WPA_CLI_Interface {
      * @param line
      * @return
      */
-    private static Network parseNetworksListLine(String line) {
+    static Network parseNetworksListLine(String line) {
         String[] lineSplit = line.split("\t");
         if (lineSplit.length < 3) {
-            System.out.println(line);
+            Log.d(TAG, "Unexpected list_networks line: %s", line);
             return null;
         }
         int networkID = Integer.parseInt(lineSplit[0]);
@@ -252,7 +247,7 @@ public class WPA_CLI_Interface {
             throws InterruptedException, IOException {
         ArrayList<Network> networks = list_networks(interfaceName);
         for (Network network: networks) {
-            System.out.println("Removing network " + network.mNetworkID);
+            Log.i(TAG, "Removing network %d", network.mNetworkID);
             remove_network(interfaceName, network.mNetworkID);
         }
     }
@@ -263,13 +258,11 @@ public class WPA_CLI_Interface {
                     "wpa_cli -i " + interfaceName + " disable_network " + networkNumber);
             Process process = processBuilder.start();
             if (!CLI_Interface_Utils.isProcessOutput(process, "OK")) {
-                System.err.println("disable_network failed");
-                System.err.println("\t" + processBuilder.command());
+                Log.e(TAG, "disable_network failed: %s", processBuilder.command());
             }
             int exitCode;
             if ((exitCode = process.waitFor()) != EXIT_OK) {
-                System.err.println("disable_network exit code: " + exitCode);
-                System.err.println("\t" + processBuilder.command());
+                Log.e(TAG, "disable_network exit code: %d (%s)", exitCode, processBuilder.command());
                 return false;
             }
 
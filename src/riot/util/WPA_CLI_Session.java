@@ -0,0 +1,353 @@
+package riot.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs wpa_cli commands through one long-lived interactive wpa_cli session
+ * instead of starting a shell and a wpa_cli process for every command like
+ * {@link WPA_CLI_Interface}.
+ * <p>
+ * Commands are written to the session as soon as they are sent, so several
+ * commands can be in flight at once and their replies are matched up in
+ * order.  wpa_cli does not mark the end of a reply, so every command is
+ * followed by a "ping" and the reply ends at the "PONG" line.  Unsolicited
+ * event lines, which start with a priority such as "&lt;3&gt;", are passed to
+ * the event listeners instead.
+ * <p>
+ * Same permission requirements as {@link WPA_CLI_Interface}.
+ */
+public class WPA_CLI_Session implements Runnable {
+
+    static final String TAG = "WPA_CLI_Session";
+
+    static final String PING = "ping";
+    static final String PONG = "PONG";
+    static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receives unsolicited wpa_supplicant events.  Called on the session's
+     * reader thread, so must not wait on replies.
+     */
+    public interface EventListener {
+        void onEvent(String event);
+    }
+
+    /**
+     * Receives the reply to a command.  Called on the session's reader thread.
+     */
+    public interface ReplyListener {
+        void onReply(List<String> lines);
+    }
+
+    /**
+     * A command which has been written to the session.
+     */
+    public static class Request {
+        final String mCommand;
+        final ReplyListener mListener;
+        final ArrayList<String> mLines = new ArrayList<>();
+        boolean mDone = false;
+        boolean mAbandoned = false;
+
+        Request(String command, ReplyListener listener) {
+            mCommand = command;
+            mListener = listener;
+        }
+
+        synchronized void complete() {
+            mDone = true;
+            notifyAll();
+        }
+
+        /**
+         * Wakes up the waiters when the session ends before the reply.
+         */
+        synchronized void abandon() {
+            mAbandoned = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the reply.
+         *
+         * @param timeoutMillis
+         * @return the lines of the reply, or null if it did not arrive in time
+         * or the session ended first
+         * @throws InterruptedException
+         */
+        public synchronized List<String> await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (!mDone && !mAbandoned && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return mDone ? mLines : null;
+        }
+    }
+
+    final BufferedReader mOutput;
+    final Writer mInput;
+    final ArrayDeque<Request> mPending = new ArrayDeque<>();
+    final CopyOnWriteArrayList<EventListener> mEventListeners = new CopyOnWriteArrayList<>();
+
+    volatile boolean mRunning = true;
+
+    /**
+     * @param output Output of the wpa_cli session.
+     * @param input  Input of the wpa_cli session.
+     */
+    public WPA_CLI_Session(BufferedReader output, Writer input) {
+        mOutput = output;
+        mInput = input;
+    }
+
+    /**
+     * Starts an interactive wpa_cli session for the interface and a daemon
+     * thread that reads from it.
+     *
+     * @param interfaceName
+     * @return
+     * @throws IOException if wpa_cli cannot be started
+     */
+    public static WPA_CLI_Session start(String interfaceName) throws IOException {
+        Process process = new ProcessBuilder("wpa_cli", "-i", interfaceName)
+                .redirectErrorStream(true)
+                .start();
+        WPA_CLI_Session session = new WPA_CLI_Session(
+                new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)),
+                new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread thread = new Thread(session, "WPA_CLI_Session-" + interfaceName);
+        thread.setDaemon(true);
+        thread.start();
+        return session;
+    }
+
+    public void addEventListener(EventListener listener) {
+        mEventListeners.add(listener);
+    }
+
+    /**
+     * @return false once the session has ended
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Writes a command to the session without waiting for the reply.
+     *
+     * @param command
+     * @param listener Told about the reply; may be null.
+     * @return the request, which can be used to wait for the reply
+     * @throws IOException if the session has ended
+     */
+    public Request send(String command, ReplyListener listener) throws IOException {
+        if (command.indexOf('\n') >= 0 || command.trim().equals(PING)) {
+            throw new IllegalArgumentException("Invalid command: " + command);
+        }
+
+        Request request = new Request(command, listener);
+        synchronized (mPending) {
+            if (!mRunning) {
+                throw new IOException("wpa_cli session has ended.");
+            }
+            mPending.add(request);
+            mInput.write(command + "\n" + PING + "\n");
+            mInput.flush();
+        }
+        return request;
+    }
+
+    /**
+     * Runs a command and waits for the reply.
+     *
+     * @param command
+     * @return the lines of the reply, or null if it did not arrive in time
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<String> command(String command) throws IOException, InterruptedException {
+        return send(command, null).await(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            String line;
+            while ((line = mOutput.readLine()) != null) {
+                handleLine(line);
+            }
+        } catch (IOException ex) {
+            Log.d(TAG, "wpa_cli session stopped: %s", ex.getMessage());
+        } finally {
+            synchronized (mPending) {
+                mRunning = false;
+                for (Request request : mPending) {
+                    request.abandon();
+                }
+                mPending.clear();
+            }
+        }
+    }
+
+    void handleLine(String line) {
+        // Strip the interactive prompt.
+        while (line.startsWith("> ")) {
+            line = line.substring(2);
+        }
+
+        if (line.length() > 2 && line.charAt(0) == '<' && line.indexOf('>') > 0) {
+            String event = line.substring(line.indexOf('>') + 1);
+            for (EventListener listener : mEventListeners) {
+                listener.onEvent(event);
+            }
+            return;
+        }
+
+        Request request;
+        synchronized (mPending) {
+            request = mPending.peek();
+            if (request != null && line.equals(PONG)) {
+                mPending.poll();
+            }
+        }
+        if (request == null) {
+            // Banner text before the first command.
+            return;
+        }
+
+        if (line.equals(PONG)) {
+            if (request.mListener != null) {
+                request.mListener.onReply(request.mLines);
+            }
+            request.complete();
+        } else {
+            request.mLines.add(line);
+        }
+    }
+
+    // Commands, matching WPA_CLI_Interface.
+
+    /**
+     * Sends several commands at once and checks that every one replied "OK".
+     *
+     * @param commands
+     * @return true if all the commands succeeded
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean commandsOK(String... commands) throws IOException, InterruptedException {
+        Request[] requests = new Request[commands.length];
+        for (int i = 0; i < commands.length; i++) {
+            requests[i] = send(commands[i], null);
+        }
+
+        boolean ok = true;
+        for (int i = 0; i < requests.length; i++) {
+            List<String> reply = requests[i].await(DEFAULT_TIMEOUT_MILLIS);
+            if (reply == null || reply.isEmpty() || !reply.get(0).equals("OK")) {
+                Log.e(TAG, "%s failed", redact(commands[i]));
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    public ArrayList<WPA_CLI_Interface.Network> list_networks()
+            throws IOException, InterruptedException {
+        ArrayList<WPA_CLI_Interface.Network> networkList = new ArrayList<>();
+        List<String> reply = command("list_networks");
+        if (reply == null) {
+            return networkList;
+        }
+
+        // The first line is a header.
+        for (int i = 1; i < reply.size(); i++) {
+            WPA_CLI_Interface.Network network = WPA_CLI_Interface.parseNetworksListLine(reply.get(i));
+            if (network != null) {
+                networkList.add(network);
+            }
+        }
+        return networkList;
+    }
+
+    /**
+     * @return the index of the new network, or -1 if an error occurs
+     */
+    public int add_network() throws IOException, InterruptedException {
+        List<String> reply = command("add_network");
+        if (reply == null || reply.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(reply.get(reply.size() - 1).trim());
+        } catch (NumberFormatException ex) {
+            Log.d(TAG, "add_network returned: %s", reply);
+            return -1;
+        }
+    }
+
+    /**
+     * Builds a set_network command.  The value is quoted as wpa_supplicant
+     * expects for strings such as the ssid and psk.
+     */
+    /**
+     * @return the command with the value of a set_network command hidden, so
+     * that passwords are not logged
+     */
+    static String redact(String command) {
+        if (!command.startsWith("set_network ")) {
+            return command;
+        }
+        // set_network <network> <property> <value>
+        String[] fields = command.split(" ", 4);
+        if (fields.length < 4) {
+            return command;
+        }
+        return fields[0] + " " + fields[1] + " " + fields[2] + " <redacted>";
+    }
+
+    public static String set_network_command(int networkNumber, String property, String value) {
+        return "set_network " + networkNumber + " " + property + " \"" + value + "\"";
+    }
+
+    public boolean set_network(int networkNumber, String property, String value)
+            throws IOException, InterruptedException {
+        return commandsOK(set_network_command(networkNumber, property, value));
+    }
+
+    public boolean enable_network(int networkNumber) throws IOException, InterruptedException {
+        return commandsOK("enable_network " + networkNumber);
+    }
+
+    public boolean disable_network(int networkNumber) throws IOException, InterruptedException {
+        return commandsOK("disable_network " + networkNumber);
+    }
+
+    public boolean remove_network(int networkNumber) throws IOException, InterruptedException {
+        return commandsOK("remove_network " + networkNumber);
+    }
+
+    /**
+     * @return index of the first network with the SSID, or -1 if not found
+     */
+    public int getIndexOfNetwork(String SSID) throws IOException, InterruptedException {
+        for (WPA_CLI_Interface.Network network : list_networks()) {
+            if (network.mSSID != null && network.mSSID.equals(SSID)) {
+                return network.mNetworkID;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+package riot.archive;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchiveRoundTripTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readingsComeBackExactly() throws Exception {
+        File file = mFolder.newFile("riot.rca");
+        Random random = new Random(42);
+        int count = 1000;
+        long[] timestamps = new long[count];
+        float[] values = new float[count];
+        long time = 1700000000L;
+        try (ArchiveWriter writer = new ArchiveWriter(file, 64)) {
+            for (int i = 0; i < count; i++) {
+                // Mostly regular, with jitter and the odd gap.
+                time += i % 100 == 0 ? 3600 : 1 + random.nextInt(3);
+                timestamps[i] = time;
+                values[i] = i % 50 == 0 ? -0.0f : random.nextFloat() * 1000f;
+                writer.write("lux", i % 3 == 0 ? "pi-a" : "pi-b", timestamps[i], new float[]{values[i]});
+                writer.write("motion", "imu", timestamps[i], new float[]{i, -i, 0.5f, Float.NaN,
+                        Float.MAX_VALUE, Float.MIN_VALUE, 1f, 2f, 3f});
+            }
+        }
+
+        try (ArchiveReader reader = new ArchiveReader(file)) {
+            // In the order they were first written.
+            assertEquals(Arrays.asList("pi-a", "imu", "pi-b"), reader.getDeviceIDs());
+            assertEquals(2 * ((count + 63) / 64), reader.getBlocks().size());
+
+            ArchiveReader.Cursor cursor = reader.scan("lux", Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int i = 0; i < count; i++) {
+                assertTrue(cursor.next());
+                assertEquals(timestamps[i], cursor.getTimestamp());
+                assertEquals(i % 3 == 0 ? "pi-a" : "pi-b", cursor.getDeviceID());
+                assertEquals(1, cursor.getColumnCount());
+                assertEquals(Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(cursor.getValue(0)));
+            }
+            assertFalse(cursor.next());
+
+            cursor = reader.scan("motion", Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int i = 0; i < count; i++) {
+                assertTrue(cursor.next());
+                assertEquals(9, cursor.getColumnCount());
+                assertEquals(-i, cursor.getValue(1), 0f);
+                assertTrue(Float.isNaN(cursor.getValue(3)));
+                assertEquals(Float.MAX_VALUE, cursor.getValue(4), 0f);
+                assertEquals(Float.MIN_VALUE, cursor.getValue(5), 0f);
+            }
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void scansOnlyReturnTheirRange() throws Exception {
+        File file = mFolder.newFile("riot.rca");
+        try (ArchiveWriter writer = new ArchiveWriter(file, 10)) {
+            for (int i = 0; i < 100; i++) {
+                writer.write("lux", "pi", 1000L + i, new float[]{i});
+            }
+        }
+
+        try (ArchiveReader reader = new ArchiveReader(file)) {
+            ArchiveReader.Block block = reader.getBlocks().get(2);
+            assertEquals("lux", block.getType());
+            assertEquals(10, block.getRowCount());
+            assertEquals(1020L, block.getMinTimestamp());
+            assertEquals(1029L, block.getMaxTimestamp());
+            assertEquals(20f, block.getMin(0), 0f);
+            assertEquals(29f, block.getMax(0), 0f);
+
+            ArchiveReader.Cursor cursor = reader.scan("lux", 1025L, 1034L);
+            for (int i = 25; i < 35; i++) {
+                assertTrue(cursor.next());
+                assertEquals(1000L + i, cursor.getTimestamp());
+                assertEquals(i, cursor.getValue(0), 0f);
+            }
+            assertFalse(cursor.next());
+            assertFalse(reader.scan("motion", 0, Long.MAX_VALUE).next());
+        }
+    }
+
+    @Test
+    public void unfinishedArchivesAreRefused() throws Exception {
+        File file = mFolder.newFile("riot.rca");
+        try (ArchiveWriter writer = new ArchiveWriter(file, 10)) {
+            for (int i = 0; i < 100; i++) {
+                writer.write("lux", "pi", 1000L + i, new float[]{i});
+            }
+        }
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 1);
+        }
+
+        try {
+            new ArchiveReader(file).close();
+            fail("A truncated archive should not be read.");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package riot.client;
+
+import org.junit.Test;
+import riot.network.Acknowledgement;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightWindowTest {
+
+    private static InFlightWindow window(String deviceID, int first, int last) {
+        InFlightWindow window = new InFlightWindow();
+        for (int id = first; id <= last; id++) {
+            window.sent(deviceID, id, id, id * 1000L);
+        }
+        return window;
+    }
+
+    private static int[] ids(ArrayList<InFlightWindow.Row> rows) {
+        int[] ids = new int[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = rows.get(i).mId;
+        }
+        return ids;
+    }
+
+    @Test
+    public void cumulativeAckRemovesThePrefix() {
+        InFlightWindow window = window("pi", 1, 10);
+        ArrayList<InFlightWindow.Row> retransmit = new ArrayList<>();
+
+        assertEquals(4, window.apply(new Acknowledgement("pi", 4, new int[0]), retransmit));
+        assertEquals(6, window.size());
+        assertEquals(5, window.getLowestId());
+        assertTrue(retransmit.isEmpty());
+    }
+
+    @Test
+    public void selectiveAckRetransmitsTheGapsOnce() {
+        InFlightWindow window = window("pi", 1, 10);
+        ArrayList<InFlightWindow.Row> retransmit = new ArrayList<>();
+
+        Acknowledgement ack = new Acknowledgement("pi", 2, new int[]{4, 5, 8, 8});
+        assertEquals(5, window.apply(ack, retransmit));
+        assertArrayEquals(new int[]{3, 6, 7}, ids(retransmit));
+        assertEquals(3, window.getLowestId());
+        assertEquals(5, window.size());
+
+        // The same gaps are not handed out again by a later acknowledgement.
+        retransmit.clear();
+        assertEquals(0, window.apply(ack, retransmit));
+        assertTrue(retransmit.isEmpty());
+    }
+
+    @Test
+    public void otherDevicesKeepTheirOrder() {
+        InFlightWindow window = new InFlightWindow();
+        for (int id = 1; id <= 6; id++) {
+            window.sent(id % 2 == 0 ? "a" : "b", id, id, id);
+        }
+        ArrayList<InFlightWindow.Row> retransmit = new ArrayList<>();
+
+        assertEquals(3, window.apply(new Acknowledgement("a", 6, new int[0]), retransmit));
+        assertEquals(3, window.size());
+        assertEquals(1, window.getLowestId());
+        for (int i = 0; i < window.mRows.size(); i++) {
+            assertEquals("b", window.mRows.get(i).mDeviceID);
+            assertEquals(2 * i + 1, window.mRows.get(i).mId);
+        }
+    }
+
+    @Test
+    public void emptyWindow() {
+        InFlightWindow window = new InFlightWindow();
+        assertEquals(0, window.apply(new Acknowledgement("pi", 10, new int[0]), new ArrayList<>()));
+        assertEquals(-1, window.getLowestId());
+        assertTrue(window.isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package riot.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedOutboxTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    MappedOutbox open(File directory) throws OutboxException {
+        MappedOutbox outbox = new MappedOutbox(directory, 4);
+        outbox.open();
+        return outbox;
+    }
+
+    @Test
+    public void readingsSurviveAReopen() throws Exception {
+        File directory = mFolder.newFolder();
+        MappedOutbox outbox = open(directory);
+        long epoch = outbox.getEpoch();
+        assertNotEquals(0, epoch);
+        for (int i = 1; i <= 6; i++) {
+            assertEquals(i, outbox.append(i % 2 == 0 ? "even" : "odd", i, 1000L + i));
+        }
+        outbox.setWatermark(2);
+        outbox.close();
+
+        outbox = open(directory);
+        assertEquals(epoch, outbox.getEpoch());
+        assertEquals(2, outbox.getWatermark());
+        ArrayList<OutboxRecord> page = new ArrayList<>();
+        outbox.readPage(2, 10, page);
+        assertEquals(4, page.size());
+        assertEquals(3, page.get(0).mId);
+        assertEquals("odd", page.get(0).mDeviceID);
+        assertEquals(3f, page.get(0).mValue, 0f);
+        assertEquals(1006L, page.get(3).mTimestamp);
+        assertEquals(7, outbox.append("odd", 7, 1007L));
+        outbox.close();
+    }
+
+    @Test
+    public void idsAreNotReusedOnceEverythingIsCompacted() throws Exception {
+        File directory = mFolder.newFolder();
+        MappedOutbox outbox = open(directory);
+        for (int i = 1; i <= 8; i++) {
+            outbox.append("pi", i, 1000L + i);
+        }
+        outbox.setWatermark(8);
+        outbox.compact();
+        outbox.close();
+
+        // Segments may also be lost outright; the cursor still has the next id.
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(MappedOutbox.SEGMENT_SUFFIX)) {
+                assertTrue(file.delete());
+            }
+        }
+
+        outbox = open(directory);
+        assertEquals(9, outbox.append("pi", 9, 1009L));
+        outbox.close();
+    }
+
+    @Test
+    public void aNewOutboxHasANewEpoch() throws Exception {
+        MappedOutbox first = open(mFolder.newFolder());
+        MappedOutbox second = open(mFolder.newFolder());
+
+        assertNotEquals(first.getEpoch(), second.getEpoch());
+        assertEquals(1, second.append("pi", 1, 1001L));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void losingTheEndOfTheLogStartsANewEpoch() throws Exception {
+        File directory = mFolder.newFolder();
+        MappedOutbox outbox = open(directory);
+        long epoch = outbox.getEpoch();
+        for (int i = 1; i <= 3; i++) {
+            outbox.append("pi", i, 1000L + i);
+        }
+        outbox.close();
+
+        // Damage the check word of the third reading, as a power cut before
+        // its page was written back would.
+        try (RandomAccessFile file = new RandomAccessFile(outbox.segmentFile(1), "rw")) {
+            file.seek(2 * MappedOutbox.RECORD_LENGTH + 20);
+            file.writeInt(0);
+        }
+
+        outbox = open(directory);
+        assertNotEquals(epoch, outbox.getEpoch());
+        assertEquals(3, outbox.append("pi", 3, 1003L));
+        outbox.close();
+    }
+}
@@ -0,0 +1,39 @@
+package riot.data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LuxDataTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readingsAreInsertedWithTheirEntries() throws Exception {
+        try (Connection connection = RIOTDatabase.getNewConnection(mFolder.newFile("riot.db").getPath())) {
+            RIOTDatabase.createTables(connection);
+            assertTrue(new LuxData("pi", 1.5f, 0, 1000L).insertIntoDatabase(connection));
+            assertTrue(new LuxData("pi", 2.5f, 1, 1001L).insertIntoDatabase(connection));
+
+            try (Statement statement = connection.createStatement();
+                 ResultSet results = statement.executeQuery("SELECT lux, real_date FROM lux " +
+                         "JOIN entry ON entry.id = lux.id ORDER BY entry.id")) {
+                assertTrue(results.next());
+                assertEquals(1.5f, results.getFloat(1), 0f);
+                assertEquals(1000L, results.getLong(2));
+                assertTrue(results.next());
+                assertEquals(2.5f, results.getFloat(1), 0f);
+                assertEquals(1001L, results.getLong(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package riot.network;
+
+import org.junit.Test;
+import riot.util.FakeWpaCli;
+import riot.util.WPA_CLI_Session;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinuxWifiConnectionTest {
+
+    /**
+     * Hands out the queued fakes' sessions, one per start.
+     */
+    static class Starter implements LinuxWifiConnection.SessionStarter {
+        final ArrayDeque<FakeWpaCli> mClis = new ArrayDeque<>();
+        int mStarts = 0;
+
+        Starter add(FakeWpaCli cli) {
+            mClis.add(cli);
+            return this;
+        }
+
+        @Override
+        public WPA_CLI_Session start(String interfaceName) throws IOException {
+            mStarts++;
+            FakeWpaCli cli = mClis.poll();
+            if (cli == null) {
+                throw new IOException("wpa_cli not found");
+            }
+            return cli.start().mSession;
+        }
+    }
+
+    @Test
+    public void startsMonitoringWhenCreated() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", WifiLinkMonitorTest.CONNECTED);
+        Starter starter = new Starter().add(cli);
+        LinuxWifiConnection connection = new LinuxWifiConnection("wlan0", "RIOT", "secret", starter);
+
+        assertEquals(1, starter.mStarts);
+        assertTrue(connection.isConnected());
+        assertEquals("RIOT", connection.getConnectionSSID());
+        // The checks read the cached state instead of asking again.
+        assertEquals("status", cli.nextCommand());
+        assertEquals(1, starter.mStarts);
+    }
+
+    @Test
+    public void restartsEndedSessions() throws Exception {
+        FakeWpaCli first = new FakeWpaCli().reply("status", WifiLinkMonitorTest.CONNECTED);
+        FakeWpaCli second = new FakeWpaCli().reply("status", WifiLinkMonitorTest.SCANNING);
+        Starter starter = new Starter().add(first).add(second);
+        LinuxWifiConnection connection = new LinuxWifiConnection("wlan0", "RIOT", "secret", starter);
+        assertTrue(connection.isConnected());
+        WifiLinkMonitor firstMonitor = connection.mLinkMonitor;
+
+        first.end();
+        first.awaitEnd();
+        connection.mMonitorRetryMillis = 0;
+        assertFalse(connection.isConnected());
+        assertEquals(2, starter.mStarts);
+        assertNotSame(firstMonitor, connection.mLinkMonitor);
+        assertTrue(connection.mLinkMonitor.isRunning());
+    }
+
+    @Test
+    public void restartsAreRateLimited() throws Exception {
+        Starter starter = new Starter();
+        LinuxWifiConnection connection = new LinuxWifiConnection("wlan0", "RIOT", "secret", starter);
+        assertEquals(1, starter.mStarts);
+
+        // Within the retry interval nothing is started again.
+        assertNull(connection.getLinkMonitor());
+        assertNull(connection.getLinkMonitor());
+        assertEquals(1, starter.mStarts);
+
+        FakeWpaCli cli = new FakeWpaCli().reply("status", WifiLinkMonitorTest.CONNECTED);
+        starter.add(cli);
+        connection.mMonitorRetryMillis = 0;
+        assertTrue(connection.getLinkMonitor().isConnected());
+        assertEquals(2, starter.mStarts);
+    }
+
+    @Test
+    public void establishesThroughTheSession() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli()
+                .reply("status", WifiLinkMonitorTest.SCANNING)
+                .reply("list_networks", "network id / ssid / bssid / flags", "0\tRIOT\tany\t[DISABLED]")
+                .reply("enable_network 0", "OK");
+        LinuxWifiConnection connection = new LinuxWifiConnection("wlan0", "RIOT", "secret",
+                new Starter().add(cli));
+        assertEquals("status", cli.nextCommand());
+
+        assertTrue(connection.establishConnection());
+        assertEquals("list_networks", cli.nextCommand());
+        assertEquals("enable_network 0", cli.nextCommand());
+    }
+}
@@ -0,0 +1,92 @@
+package riot.network;
+
+import org.junit.Test;
+import riot.data.LuxData;
+import riot.data.RollupData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    static LuxData lux(String deviceID, int sequence) {
+        return new LuxData(deviceID, 1, sequence, 1000L);
+    }
+
+    @Test
+    public void devicesOfOneClientShareTheSequence() {
+        Metrics metrics = new Metrics();
+        // The client numbers every device's readings from one sequence.
+        for (int id = 1; id <= 9; id++) {
+            metrics.record("10.0.0.2", lux("sensor-" + (id % 3), id));
+        }
+
+        Metrics.DeviceMetrics client = metrics.getDeviceMetrics("10.0.0.2");
+        assertEquals(9, client.getTotalPackets());
+        assertEquals(0, client.getMissedPackets());
+        assertEquals(0, client.getOutOfOrderPackets());
+        assertEquals(9, client.getMostRecentSeq());
+    }
+
+    @Test
+    public void countsGapsLateAndDuplicatePackets() {
+        Metrics metrics = new Metrics();
+        metrics.record("pi", lux("a", 1));
+        metrics.record("pi", lux("b", 4));
+        Metrics.DeviceMetrics client = metrics.getDeviceMetrics("pi");
+        assertEquals(2, client.getMissedPackets());
+
+        metrics.record("pi", lux("a", 2));
+        assertEquals(1, client.getMissedPackets());
+        assertEquals(1, client.getOutOfOrderPackets());
+
+        metrics.record("pi", lux("b", 4));
+        assertEquals(1, client.getDuplicatedPackets());
+        assertEquals(4, client.getTotalPackets());
+        assertEquals(4, client.getMostRecentSeq());
+    }
+
+    @Test
+    public void clientsAndRollupsAreTrackedApart() {
+        Metrics metrics = new Metrics();
+        metrics.record("pi-1", lux("a", 1));
+        metrics.record("pi-2", lux("a", 7));
+        metrics.record("pi-1", new RollupData("a", 60, 0, 1, 0.5f, 1, 100, 1000L));
+        metrics.record("pi-1", lux("a", 2));
+
+        assertEquals(0, metrics.getDeviceMetrics("pi-1").getMissedPackets());
+        assertEquals(2, metrics.getDeviceMetrics("pi-1").getTotalPackets());
+        assertEquals(1, metrics.getDeviceMetrics("pi-2").getTotalPackets());
+        assertNotNull(metrics.getDeviceMetrics("pi-1" + RollupData.STREAM_SUFFIX));
+        assertNull(metrics.getDeviceMetrics("a"));
+        assertEquals(3, metrics.getAllDeviceMetrics().size());
+    }
+
+    @Test
+    public void countersCanBeReadWhileRecording() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Metrics.DeviceMetrics client = metrics.getStreamMetrics("pi", lux("a", 0));
+        // A single writer, as on the server's selector thread.
+        Thread writer = new Thread(() -> {
+            for (int id = 0; id < 40000; id++) {
+                client.record(id);
+            }
+        });
+        writer.start();
+
+        long last = 0;
+        while (writer.isAlive()) {
+            long total = client.getTotalPackets();
+            assertTrue(total >= last);
+            last = total;
+        }
+        writer.join();
+
+        assertEquals(40000, client.getTotalPackets());
+        assertEquals(0, client.getMissedPackets());
+        assertEquals(0, client.getDuplicatedPackets());
+        assertEquals(39999, client.getMostRecentSeq());
+    }
+}
@@ -0,0 +1,78 @@
+package riot.network;
+
+import org.junit.Test;
+import riot.util.FakeWpaCli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WifiLinkMonitorTest {
+
+    static final String[] CONNECTED = {"bssid=00:11:22:33:44:55", "ssid=RIOT", "id=0", "wpa_state=COMPLETED"};
+    static final String[] CONNECTED_ELSEWHERE = {"ssid=Home", "wpa_state=COMPLETED"};
+    static final String[] SCANNING = {"wpa_state=SCANNING"};
+
+    static void awaitConnected(WifiLinkMonitor monitor, boolean connected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (monitor.isConnected() != connected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void readsTheInitialStatus() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", CONNECTED).start();
+        WifiLinkMonitor monitor = new WifiLinkMonitor("RIOT", cli.mSession);
+
+        assertTrue(monitor.awaitStatus(5000));
+        assertTrue(monitor.isConnected());
+        assertEquals("RIOT", monitor.getSSID());
+        assertEquals("status", cli.nextCommand());
+    }
+
+    @Test
+    public void otherNetworksDoNotCount() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", CONNECTED_ELSEWHERE).start();
+        WifiLinkMonitor monitor = new WifiLinkMonitor("RIOT", cli.mSession);
+
+        assertTrue(monitor.awaitStatus(5000));
+        assertFalse(monitor.isConnected());
+        assertEquals("Home", monitor.getSSID());
+    }
+
+    @Test
+    public void followsConnectionEvents() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", SCANNING).start();
+        WifiLinkMonitor monitor = new WifiLinkMonitor("RIOT", cli.mSession);
+        assertTrue(monitor.awaitStatus(5000));
+        assertFalse(monitor.isConnected());
+        assertNull(monitor.getSSID());
+        assertEquals("status", cli.nextCommand());
+
+        // Connection events do not name the network, so the status is read.
+        cli.reply("status", CONNECTED);
+        cli.event("CTRL-EVENT-CONNECTED - Connection to 00:11:22:33:44:55 completed [id=0 id_str=]");
+        assertEquals("status", cli.nextCommand());
+        awaitConnected(monitor, true);
+        assertTrue(monitor.isConnected());
+
+        cli.event("CTRL-EVENT-DISCONNECTED bssid=00:11:22:33:44:55 reason=3");
+        awaitConnected(monitor, false);
+        assertFalse(monitor.isConnected());
+        assertNull(monitor.getSSID());
+    }
+
+    @Test
+    public void endedSessionsAreNotConnected() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", CONNECTED).start();
+        WifiLinkMonitor monitor = new WifiLinkMonitor("RIOT", cli.mSession);
+        assertTrue(monitor.awaitStatus(5000));
+
+        cli.end();
+        cli.awaitEnd();
+        assertFalse(monitor.isRunning());
+        assertFalse(monitor.isConnected());
+    }
+}
@@ -0,0 +1,59 @@
+package riot.pizero;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.client.OutboxRecord;
+import riot.client.SQLiteOutbox;
+import riot.data.SensorType;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void motionChannelsAreRejected() throws Exception {
+        try (Connection connection = RIOTDatabase.getNewConnection(mFolder.newFile("pi.db").getPath())) {
+            new SampleWriter(connection, new SampleRingBuffer(16),
+                    new String[]{"lux", "motion"}, new SensorType[]{SensorType.LUX, SensorType.MOTION},
+                    null, 10, 0);
+        }
+    }
+
+    @Test
+    public void committedSamplesCanBeSentAndCompacted() throws Exception {
+        String file = mFolder.newFile("pi.db").getPath();
+        SampleRingBuffer ring = new SampleRingBuffer(16);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(0, (1000L + i) * 1000L, new float[]{i}, 1);
+        }
+
+        try (Connection connection = RIOTDatabase.getNewConnection(file)) {
+            SampleWriter writer = new SampleWriter(connection, ring, new String[]{"pi"},
+                    new SensorType[]{SensorType.LUX}, null, 3, 0);
+            writer.stop();
+            writer.run();
+        }
+        assertEquals(0, ring.available());
+
+        SQLiteOutbox outbox = new SQLiteOutbox(RIOTDatabase.getNewConnection(file));
+        outbox.open();
+        ArrayList<OutboxRecord> page = new ArrayList<>();
+        outbox.readPage(-1, 10, page);
+        assertEquals(5, page.size());
+        assertEquals(1004L, page.get(4).mTimestamp);
+
+        outbox.setWatermark(page.get(4).mId);
+        outbox.compact();
+        outbox.readPage(-1, 10, page);
+        assertEquals(0, page.size());
+        outbox.close();
+    }
+}
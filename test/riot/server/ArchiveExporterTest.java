@@ -0,0 +1,102 @@
+package riot.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.archive.ArchiveReader;
+import riot.data.SensorType;
+import riot.database.RIOTDatabase;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArchiveExporterTest {
+
+    static final long DAY = 24 * 60 * 60;
+    static final long T0 = 1700000000L / DAY * DAY;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    Connection mConnection;
+    PartitionRouter mRouter;
+    ArchiveExporter mExporter;
+    int mNextEntryID = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        String file = mFolder.newFile("server.db").getPath();
+        mConnection = RIOTDatabase.getNewConnection(file);
+        RIOTDatabase.createTables(mConnection);
+        RIOTDatabase.registerDevice(mConnection, "pi");
+        mRouter = new PartitionRouter(DAY, 0, 0);
+        mRouter.setArchiveDirectory(mFolder.newFolder("archive"));
+        mRouter.open(mConnection);
+        mExporter = new ArchiveExporter(mRouter, RIOTDatabase.getNewConnection(file), 1, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExporter.mDBConnection.close();
+        mConnection.close();
+    }
+
+    void store(PartitionRouter.Partition partition, long timestamp, float lux) throws SQLException {
+        int id = mNextEntryID++;
+        try (PreparedStatement entry = mConnection.prepareStatement(partition.mEntryInsert);
+             PreparedStatement value = mConnection.prepareStatement(
+                     "INSERT INTO " + partition.getTable(SensorType.LUX) + " VALUES (?, ?)")) {
+            entry.setLong(1, timestamp);
+            entry.setLong(2, timestamp);
+            entry.setString(3, "pi");
+            entry.setInt(4, id);
+            entry.executeUpdate();
+            value.setFloat(1, lux);
+            value.setInt(2, id);
+            value.executeUpdate();
+        }
+    }
+
+    @Test
+    public void sealedPartitionsAreArchivedBeforeTheyAreDropped() throws Exception {
+        PartitionRouter.Partition old = mRouter.route(mConnection, T0);
+        store(old, T0 + 30, 3f);
+        store(old, T0 + 10, 1f);
+        store(old, T0 + 20, 2f);
+        PartitionRouter.Partition current = mRouter.route(mConnection, T0 + DAY);
+
+        // Not dropped while it has no archive.
+        assertEquals(0, mRouter.maintain(mConnection, T0 + DAY + 5));
+        assertTrue(PartitionRouter.exists(mConnection, old.getEntryTable()));
+
+        // The current partition is not sealed yet.
+        assertEquals(1, mExporter.exportSealed(T0 + DAY + ArchiveExporter.SEAL_DELAY_SECONDS));
+        assertEquals(0, mExporter.exportSealed(T0 + DAY + ArchiveExporter.SEAL_DELAY_SECONDS));
+        assertFalse(mRouter.getArchiveFile(current).exists());
+
+        File file = mRouter.getArchiveFile(old);
+        try (ArchiveReader reader = new ArchiveReader(file)) {
+            ArchiveReader.Cursor cursor = reader.scan("lux", T0, T0 + DAY);
+            for (int i = 1; i <= 3; i++) {
+                // In time order.
+                assertTrue(cursor.next());
+                assertEquals(T0 + 10 * i, cursor.getTimestamp());
+                assertEquals("pi", cursor.getDeviceID());
+                assertEquals(i, cursor.getValue(0), 0f);
+            }
+            assertFalse(cursor.next());
+        }
+
+        assertEquals(1, mRouter.maintain(mConnection, T0 + DAY + 5));
+        assertFalse(PartitionRouter.exists(mConnection, old.getEntryTable()));
+    }
+}
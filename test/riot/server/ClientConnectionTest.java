@@ -0,0 +1,128 @@
+package riot.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.data.LuxData;
+import riot.database.RIOTDatabase;
+import riot.network.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClientConnectionTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    Connection mConnection;
+    DataReceptionServer mServer;
+    Thread mServerThread;
+    Socket mSocket;
+    BufferedReader mReader;
+    OutputStream mOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = RIOTDatabase.getNewConnection(mFolder.newFile("server.db").getPath());
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        mServer = new DataReceptionServer(port, mConnection, 1);
+        mServerThread = new Thread(mServer, "DataReceptionServer");
+        mServerThread.start();
+
+        mSocket = new Socket("127.0.0.1", port);
+        mSocket.setSoTimeout(10000);
+        mReader = new BufferedReader(new InputStreamReader(mSocket.getInputStream(), StandardCharsets.UTF_8));
+        mOutput = mSocket.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSocket.close();
+        mServer.stop();
+        mServerThread.join(10000);
+        mServer.mWriter.stop();
+        mConnection.close();
+    }
+
+    void send(String text) throws IOException {
+        mOutput.write(text.getBytes(StandardCharsets.UTF_8));
+        mOutput.flush();
+    }
+
+    static String padding(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append('0');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void linesUpToTheLimitAreAccepted() throws Exception {
+        String line = LuxData.formatPacket("pi", 1.5f, 0, 1000L);
+        // Pad the timestamp with leading zeros up to the limit, with "\r\n".
+        line = line.replace(" 1000", " " + padding(ClientConnection.MAX_LINE_LENGTH - line.length()) + "1000");
+        assertEquals(ClientConnection.MAX_LINE_LENGTH, line.length());
+
+        send(line + "\r\n");
+        assertEquals("ACK pi 0", mReader.readLine());
+    }
+
+    @Test
+    public void longLinesCloseTheConnection() throws Exception {
+        send(LuxData.formatPacket("pi", 1.5f, 0, 1000L) + "\n");
+        assertEquals("ACK pi 0", mReader.readLine());
+
+        send(LuxData.formatPacket("pi", 1.5f, 1, 1000L) + " "
+                + padding(ClientConnection.MAX_LINE_LENGTH) + "\n");
+        assertNull(mReader.readLine());
+    }
+
+    @Test
+    public void longLinesWithoutTerminatorCloseTheConnection() throws Exception {
+        send(LuxData.formatPacket("pi", 1.5f, 0, 1000L) + "\n");
+        assertEquals("ACK pi 0", mReader.readLine());
+
+        send(padding(ClientConnection.MAX_LINE_LENGTH + 2));
+        assertNull(mReader.readLine());
+    }
+
+    @Test
+    public void linkMetricsFollowTheArrivalOrder() throws Exception {
+        // One sequence over several devices, as a client numbers them.
+        StringBuilder packets = new StringBuilder();
+        for (int sequence = 0; sequence < 30; sequence++) {
+            packets.append(LuxData.formatPacket("sensor-" + (sequence % 5), 1.5f, sequence, 1000L))
+                    .append('\n');
+        }
+        send(packets.toString());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        Metrics.DeviceMetrics client = mServer.getMetrics().getDeviceMetrics("127.0.0.1");
+        while ((client == null || client.getTotalPackets() < 30)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            client = mServer.getMetrics().getDeviceMetrics("127.0.0.1");
+        }
+        assertTrue(client != null && client.getTotalPackets() == 30);
+        assertEquals(0, client.getMissedPackets());
+        assertEquals(0, client.getOutOfOrderPackets());
+        assertEquals(29, client.getMostRecentSeq());
+    }
+}
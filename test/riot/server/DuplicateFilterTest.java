@@ -0,0 +1,51 @@
+package riot.server;
+
+import org.junit.Test;
+import riot.data.Data;
+import riot.data.LuxData;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFilterTest {
+
+    static Data reading(String deviceID, long epoch, int sequence) {
+        Data data = new LuxData(deviceID, 1.5f, sequence, 1000L);
+        data.setEpoch(epoch);
+        return data;
+    }
+
+    @Test
+    public void storedReadingsAreDuplicates() {
+        DuplicateFilter filter = new DuplicateFilter(16, 60000L);
+        assertFalse(filter.isDuplicate(reading("pi", 7, 1)));
+
+        filter.stored(reading("pi", 7, 1));
+        assertTrue(filter.isDuplicate(reading("pi", 7, 1)));
+        assertFalse(filter.isDuplicate(reading("pi", 7, 2)));
+        assertFalse(filter.isDuplicate(reading("other", 7, 1)));
+    }
+
+    @Test
+    public void sequencesRestartInANewEpoch() {
+        DuplicateFilter filter = new DuplicateFilter(16, 60000L);
+        filter.stored(reading("pi", 7, 1));
+        filter.stored(reading("pi", 7, 2));
+
+        assertFalse(filter.isDuplicate(reading("pi", 8, 1)));
+        filter.stored(reading("pi", 8, 1));
+        assertTrue(filter.isDuplicate(reading("pi", 8, 1)));
+        assertFalse(filter.isDuplicate(reading("pi", 8, 2)));
+        // The old epoch's window was replaced.
+        assertFalse(filter.isDuplicate(reading("pi", 7, 2)));
+    }
+
+    @Test
+    public void idleDevicesAreForgotten() throws Exception {
+        DuplicateFilter filter = new DuplicateFilter(16, 10L);
+        filter.stored(reading("pi", 7, 1));
+        Thread.sleep(50);
+
+        assertFalse(filter.isDuplicate(reading("pi", 7, 1)));
+    }
+}
@@ -0,0 +1,168 @@
+package riot.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.data.Data;
+import riot.data.LuxData;
+import riot.data.SensorType;
+import riot.database.BatchInserter;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IngestionWriterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    Connection mConnection;
+    IngestionWriter mWriter;
+    BatchInserter mInserter;
+    final List<Data> mStored = new ArrayList<>();
+    final List<Data> mFailed = new ArrayList<>();
+    final SequenceAcknowledger mAcknowledger = new SequenceAcknowledger();
+
+    final IngestionListener mListener = new IngestionListener() {
+        @Override
+        public void stored(Data data) {
+            mStored.add(data);
+            mAcknowledger.stored(data.getStreamID(), data.getSequence());
+        }
+
+        @Override
+        public void failed(Data data) {
+            mFailed.add(data);
+            mAcknowledger.failed(data.getStreamID(), data.getSequence());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = RIOTDatabase.getNewConnection(mFolder.newFile("server.db").getPath());
+        RIOTDatabase.createTables(mConnection);
+        for (SensorType type : SensorType.getTypes()) {
+            type.createTable(mConnection);
+        }
+        mWriter = new IngestionWriter(mConnection, 100, 0, 100);
+        mWriter.mNextEntryID = 1;
+        mInserter = new BatchInserter(mConnection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mInserter.close();
+        mConnection.close();
+    }
+
+    IngestionWriter.Pending pending(long epoch, int sequence, float value) {
+        Data data = new LuxData("pi", value, sequence, 1000L + sequence);
+        data.setEpoch(epoch);
+        return new IngestionWriter.Pending(data, mListener, false);
+    }
+
+    void write(IngestionWriter.Pending... pendings) {
+        ArrayList<IngestionWriter.Pending> batch = new ArrayList<>();
+        for (IngestionWriter.Pending pending : pendings) {
+            batch.add(pending);
+        }
+        mWriter.write(mInserter, batch);
+    }
+
+    int count(String query) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet results = statement.executeQuery(query)) {
+            return results.next() ? results.getInt(1) : 0;
+        }
+    }
+
+    @Test
+    public void retransmissionsAreReportedButNotInsertedAgain() throws Exception {
+        write(pending(7, 1, 1f), pending(7, 2, 2f));
+        write(pending(7, 2, 2f), pending(7, 3, 3f));
+
+        assertEquals(4, mStored.size());
+        assertEquals(0, mFailed.size());
+        assertEquals(3, count("SELECT COUNT(*) FROM lux"));
+        assertEquals(3, count("SELECT COUNT(*) FROM entry"));
+        assertEquals(3, count("SELECT COUNT(*) FROM received"));
+        // Every entry has its received row.
+        assertEquals(3, count("SELECT COUNT(*) FROM received JOIN entry ON entry.id = received.entry_id"));
+    }
+
+    @Test
+    public void duplicatesWithinABatchAreInsertedOnce() throws Exception {
+        write(pending(7, 1, 1f), pending(7, 1, 1f), pending(7, 2, 2f));
+
+        assertEquals(3, mStored.size());
+        assertEquals(2, count("SELECT COUNT(*) FROM lux"));
+    }
+
+    @Test
+    public void restartedSequencesInANewEpochAreStored() throws Exception {
+        write(pending(7, 1, 1f), pending(7, 2, 2f));
+        write(pending(8, 1, 5f), pending(8, 2, 6f));
+
+        assertEquals(4, mStored.size());
+        assertEquals(4, count("SELECT COUNT(*) FROM lux"));
+        assertEquals(2, count("SELECT COUNT(*) FROM lux WHERE lux >= 5"));
+    }
+
+    @Test
+    public void knownDuplicatesAreReportedInOrder() throws Exception {
+        write(pending(7, 1, 1f));
+        mStored.clear();
+
+        // The lux table is gone, so new readings fail while the retransmitted
+        // one is still reported as stored after them.
+        try (Statement statement = mConnection.createStatement()) {
+            statement.executeUpdate("DROP TABLE lux");
+        }
+        assertTrue(mWriter.submit(pending(7, 2, 2f).mData, mListener));
+        assertTrue(mWriter.submitStored(pending(7, 1, 1f).mData, mListener));
+        assertTrue(mWriter.submit(pending(7, 3, 3f).mData, mListener));
+        ArrayList<IngestionWriter.Pending> batch = new ArrayList<>();
+        mWriter.mQueue.drainTo(batch);
+        mWriter.write(mInserter, batch);
+
+        assertEquals(1, mStored.size());
+        assertEquals(1, mStored.get(0).getSequence());
+        assertEquals(2, mFailed.size());
+        // The failed readings are not acknowledged.
+        assertEquals(1, mAcknowledger.getAcknowledgement("pi").mCumulative);
+        assertEquals(1, mAcknowledger.getAcknowledgement("pi").getHighest());
+        assertEquals(1, count("SELECT COUNT(*) FROM received"));
+    }
+
+    @Test
+    public void receivedRowsArePrunedPastTheRetention() throws Exception {
+        mWriter.setReceivedRetention(1, TimeUnit.HOURS);
+        write(pending(7, 1, 1f), pending(7, 2, 2f));
+        mWriter.pruneReceived(0);
+        write(pending(7, 3, 3f));
+
+        // Not yet old enough.
+        mWriter.pruneReceived(IngestionWriter.PRUNE_INTERVAL_MILLIS);
+        mWriter.pruneReceived(TimeUnit.HOURS.toMillis(1) - 1);
+        assertEquals(3, count("SELECT COUNT(*) FROM received"));
+
+        mWriter.pruneReceived(TimeUnit.HOURS.toMillis(2));
+        assertEquals(1, count("SELECT COUNT(*) FROM received"));
+        assertEquals(3, count("SELECT seq FROM received"));
+
+        // Readings still received are recognised.
+        write(pending(7, 3, 3f));
+        assertEquals(3, count("SELECT COUNT(*) FROM lux"));
+    }
+}
@@ -0,0 +1,141 @@
+package riot.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import riot.data.SensorType;
+import riot.database.RIOTDatabase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionRouterTest {
+
+    static final long DAY = 24 * 60 * 60;
+    static final long HOUR = 60 * 60;
+    // The start of a day.
+    static final long T0 = 1700000000L / DAY * DAY;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    Connection mConnection;
+    PartitionRouter mRouter;
+    int mNextEntryID = 1;
+
+    @Before
+    public void setUp() throws Exception {
+        mConnection = RIOTDatabase.getNewConnection(mFolder.newFile("server.db").getPath());
+        RIOTDatabase.createTables(mConnection);
+        RIOTDatabase.registerDevice(mConnection, "pi");
+        mRouter = new PartitionRouter(DAY, 1, HOUR);
+        mRouter.open(mConnection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnection.close();
+    }
+
+    /**
+     * Stores a lux reading in a partition as the ingestion writer does.
+     */
+    void store(PartitionRouter.Partition partition, long timestamp, float lux) throws SQLException {
+        int id = mNextEntryID++;
+        try (PreparedStatement entry = mConnection.prepareStatement(partition.mEntryInsert);
+             PreparedStatement value = mConnection.prepareStatement(
+                     "INSERT INTO " + partition.getTable(SensorType.LUX) + " VALUES (?, ?)");
+             PreparedStatement received = mConnection.prepareStatement(IngestionWriter.RECEIVED_INSERT)) {
+            entry.setLong(1, timestamp);
+            entry.setLong(2, timestamp);
+            entry.setString(3, "pi");
+            entry.setInt(4, id);
+            entry.executeUpdate();
+            value.setFloat(1, lux);
+            value.setInt(2, id);
+            value.executeUpdate();
+            received.setString(1, "pi");
+            received.setLong(2, 7);
+            received.setInt(3, id);
+            received.setInt(4, id);
+            received.executeUpdate();
+        }
+        mRouter.recordRange(mConnection, partition, timestamp, timestamp);
+    }
+
+    int count(String query) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet results = statement.executeQuery(query)) {
+            return results.next() ? results.getInt(1) : 0;
+        }
+    }
+
+    @Test
+    public void readingsAreRoutedByPeriod() throws Exception {
+        PartitionRouter.Partition first = mRouter.route(mConnection, T0 + 10);
+        assertSame(first, mRouter.route(mConnection, T0 + DAY - 1));
+        PartitionRouter.Partition second = mRouter.route(mConnection, T0 + DAY);
+        assertEquals(T0, first.getStart());
+        assertEquals(T0 + DAY, second.getStart());
+
+        store(first, T0 + 10, 1f);
+        store(second, T0 + DAY + 10, 2f);
+        assertEquals(3, mRouter.getNextEntryId(mConnection));
+        assertEquals(1, mRouter.getPartitions(T0, T0 + 20).size());
+        assertEquals(2, mRouter.getPartitions(T0, T0 + DAY + 20).size());
+        assertEquals(1, mRouter.getSealedPartitions(T0 + DAY).size());
+
+        // Reopening loads the partitions and their ranges.
+        PartitionRouter reopened = new PartitionRouter(DAY, 1, HOUR);
+        reopened.open(mConnection);
+        assertEquals(2, reopened.getPartitions(T0, T0 + DAY + 20).size());
+    }
+
+    @Test
+    public void droppedPartitionsLeaveAggregates() throws Exception {
+        PartitionRouter.Partition old = mRouter.route(mConnection, T0);
+        store(old, T0 + 10, 1f);
+        store(old, T0 + 20, 2f);
+        store(old, T0 + HOUR + 10, 5f);
+        PartitionRouter.Partition kept = mRouter.route(mConnection, T0 + DAY);
+        store(kept, T0 + DAY + 10, 3f);
+
+        // One period is retained before the current one.
+        assertEquals(0, mRouter.maintain(mConnection, T0 + DAY + 5));
+        assertEquals(1, mRouter.maintain(mConnection, T0 + 2 * DAY + 5));
+
+        assertFalse(PartitionRouter.exists(mConnection, old.getEntryTable()));
+        assertFalse(PartitionRouter.exists(mConnection, old.getTable(SensorType.LUX)));
+        assertTrue(PartitionRouter.exists(mConnection, kept.getEntryTable()));
+        assertEquals(1, mRouter.getSealedPartitions(T0 + 3 * DAY).size());
+
+        // Only the kept partition's readings are still recognised.
+        assertEquals(1, count("SELECT COUNT(*) FROM received"));
+        assertEquals(1, count("SELECT COUNT(*) FROM partitions"));
+
+        try (Statement statement = mConnection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT start, min, max, mean, count " +
+                     "FROM aggregate WHERE type = 'lux' AND dev_id = 'pi' ORDER BY start")) {
+            assertTrue(results.next());
+            assertEquals(T0, results.getLong(1));
+            assertEquals(1.0, results.getDouble(2), 0.0);
+            assertEquals(2.0, results.getDouble(3), 0.0);
+            assertEquals(1.5, results.getDouble(4), 1e-9);
+            assertEquals(2, results.getInt(5));
+            assertTrue(results.next());
+            assertEquals(T0 + HOUR, results.getLong(1));
+            assertEquals(1, results.getInt(5));
+            assertFalse(results.next());
+        }
+    }
+}
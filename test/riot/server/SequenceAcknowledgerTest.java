@@ -0,0 +1,75 @@
+package riot.server;
+
+import org.junit.Test;
+import riot.network.Acknowledgement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SequenceAcknowledgerTest {
+
+    @Test
+    public void storedReadingsAreAcknowledgedCumulatively() {
+        SequenceAcknowledger acknowledger = new SequenceAcknowledger();
+        assertEquals(-1, acknowledger.getAcknowledgement("pi").mCumulative);
+
+        acknowledger.stored("pi", 0);
+        acknowledger.stored("pi", 1);
+        acknowledger.stored("pi", 2);
+
+        Acknowledgement ack = acknowledger.getAcknowledgement("pi");
+        assertEquals(2, ack.mCumulative);
+        assertEquals(2, ack.getHighest());
+        assertEquals(-1, acknowledger.getAcknowledgement("other").mCumulative);
+    }
+
+    @Test
+    public void readingsAfterAFailureAreAcknowledgedSelectively() {
+        SequenceAcknowledger acknowledger = new SequenceAcknowledger();
+        acknowledger.stored("pi", 0);
+        acknowledger.failed("pi", 1);
+        acknowledger.stored("pi", 2);
+        acknowledger.stored("pi", 3);
+        acknowledger.failed("pi", 4);
+        acknowledger.stored("pi", 5);
+
+        Acknowledgement ack = acknowledger.getAcknowledgement("pi");
+        assertEquals(0, ack.mCumulative);
+        assertFalse(ack.covers(1));
+        assertTrue(ack.covers(2));
+        assertTrue(ack.covers(3));
+        assertFalse(ack.covers(4));
+        assertTrue(ack.covers(5));
+        assertEquals(5, ack.getHighest());
+    }
+
+    @Test
+    public void retransmissionsCloseTheGaps() {
+        SequenceAcknowledger acknowledger = new SequenceAcknowledger();
+        acknowledger.stored("pi", 0);
+        acknowledger.failed("pi", 1);
+        acknowledger.stored("pi", 2);
+        acknowledger.failed("pi", 3);
+        acknowledger.stored("pi", 4);
+
+        acknowledger.stored("pi", 1);
+        assertEquals(2, acknowledger.getAcknowledgement("pi").mCumulative);
+
+        acknowledger.stored("pi", 3);
+        Acknowledgement ack = acknowledger.getAcknowledgement("pi");
+        assertEquals(4, ack.mCumulative);
+        assertEquals(4, ack.getHighest());
+    }
+
+    @Test
+    public void failuresAlreadyAcknowledgedAreIgnored() {
+        SequenceAcknowledger acknowledger = new SequenceAcknowledger();
+        acknowledger.stored("pi", 0);
+        acknowledger.stored("pi", 1);
+        acknowledger.failed("pi", 1);
+        acknowledger.stored("pi", 2);
+
+        assertEquals(2, acknowledger.getAcknowledgement("pi").mCumulative);
+    }
+}
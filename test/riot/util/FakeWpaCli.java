@@ -0,0 +1,161 @@
+package riot.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for an interactive wpa_cli process: answers the commands written
+ * to a {@link WPA_CLI_Session} with canned replies and can send events or end
+ * the session.
+ */
+public class FakeWpaCli {
+
+    // Queued in place of a line to end the session's output.
+    static final String END = new String("END");
+
+    final LinkedBlockingQueue<String> mOutput = new LinkedBlockingQueue<>();
+    final ConcurrentHashMap<String, List<String>> mReplies = new ConcurrentHashMap<>();
+    final LinkedBlockingQueue<String> mCommands = new LinkedBlockingQueue<>();
+    volatile boolean mAnswering = true;
+
+    public final WPA_CLI_Session mSession =
+            new WPA_CLI_Session(new BufferedReader(new OutputReader()), new InputWriter());
+
+    /**
+     * Starts the session's reader thread.
+     *
+     * @return this
+     */
+    public FakeWpaCli start() {
+        Thread thread = new Thread(mSession, "FakeWpaCli");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Sets the reply to a command.  Unknown commands reply "UNKNOWN COMMAND".
+     */
+    public FakeWpaCli reply(String command, String... lines) {
+        mReplies.put(command, Arrays.asList(lines));
+        return this;
+    }
+
+    /**
+     * Stops answering commands, as a hung wpa_cli would.
+     */
+    public void setAnswering(boolean answering) {
+        mAnswering = answering;
+    }
+
+    /**
+     * Writes an unsolicited event with the usual priority prefix.
+     */
+    public void event(String event) {
+        mOutput.add("<3>" + event);
+    }
+
+    /**
+     * Ends the session's output, as when wpa_cli exits.
+     */
+    public void end() {
+        mOutput.add(END);
+    }
+
+    /**
+     * @return the next command written to the session, or null if none is
+     * written within a few seconds
+     */
+    public String nextCommand() throws InterruptedException {
+        return mCommands.poll(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits until the session has seen the end of its output.
+     */
+    public void awaitEnd() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mSession.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    void handleCommand(String command) {
+        if (command.equals(WPA_CLI_Session.PING)) {
+            if (mAnswering) {
+                mOutput.add(WPA_CLI_Session.PONG);
+            }
+            return;
+        }
+        mCommands.add(command);
+        if (mAnswering) {
+            List<String> reply = mReplies.get(command);
+            mOutput.addAll(reply != null ? reply : Arrays.asList("UNKNOWN COMMAND"));
+        }
+    }
+
+    class OutputReader extends Reader {
+        String mLine = "";
+        int mPosition = 0;
+        boolean mEnded = false;
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (mEnded) {
+                return -1;
+            }
+            if (mPosition == mLine.length()) {
+                try {
+                    String line = mOutput.take();
+                    if (line == END) {
+                        mEnded = true;
+                        return -1;
+                    }
+                    mLine = line + "\n";
+                    mPosition = 0;
+                } catch (InterruptedException ex) {
+                    throw new IOException("Interrupted.");
+                }
+            }
+            int count = Math.min(length, mLine.length() - mPosition);
+            mLine.getChars(mPosition, mPosition + count, buffer, offset);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    class InputWriter extends Writer {
+        final StringBuilder mLine = new StringBuilder();
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    handleCommand(mLine.toString());
+                    mLine.setLength(0);
+                } else {
+                    mLine.append(buffer[i]);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package riot.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WPA_CLI_SessionTest {
+
+    @Test
+    public void repliesEndAtPong() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli()
+                .reply("list_networks",
+                        "> network id / ssid / bssid / flags",
+                        "0\tHome\tany\t[CURRENT]",
+                        "1\tRIOT\tany")
+                .start();
+
+        ArrayList<WPA_CLI_Interface.Network> networks = cli.mSession.list_networks();
+        assertEquals(2, networks.size());
+        assertEquals("Home", networks.get(0).mSSID);
+        assertEquals("[CURRENT]", networks.get(0).mFlags);
+        assertEquals(1, cli.mSession.getIndexOfNetwork("RIOT"));
+        assertEquals(-1, cli.mSession.getIndexOfNetwork("Elsewhere"));
+    }
+
+    @Test
+    public void commandsInFlightGetTheirOwnReplies() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli()
+                .reply("add_network", "3")
+                .reply("set_network 3 ssid \"RIOT\"", "OK")
+                .reply("set_network 3 psk \"secret\"", "FAIL")
+                .start();
+
+        assertEquals(3, cli.mSession.add_network());
+        assertFalse(cli.mSession.commandsOK(
+                WPA_CLI_Session.set_network_command(3, "ssid", "RIOT"),
+                WPA_CLI_Session.set_network_command(3, "psk", "secret")));
+        assertTrue(cli.mSession.set_network(3, "ssid", "RIOT"));
+        assertEquals("add_network", cli.nextCommand());
+        assertEquals("set_network 3 ssid \"RIOT\"", cli.nextCommand());
+    }
+
+    @Test
+    public void passwordsAreNotLogged() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli()
+                .reply("set_network 3 psk \"secret\"", "FAIL")
+                .start();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        PrintStream err = Log.sErr;
+        Log.sErr = new PrintStream(log, true, "UTF-8");
+        try {
+            assertFalse(cli.mSession.set_network(3, "psk", "secret"));
+            String output = "";
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!output.contains("failed") && System.currentTimeMillis() < deadline) {
+                Log.flush();
+                output = new String(log.toByteArray(), StandardCharsets.UTF_8);
+            }
+
+            assertTrue(output, output.contains("set_network 3 psk <redacted> failed"));
+            assertFalse(output, output.contains("secret"));
+        } finally {
+            Log.sErr = err;
+        }
+    }
+
+    @Test
+    public void eventsGoToTheListeners() throws Exception {
+        // An event in the middle of a reply is not part of it.
+        FakeWpaCli cli = new FakeWpaCli()
+                .reply("status", "wpa_state=SCANNING", "<3>CTRL-EVENT-SCAN-STARTED ")
+                .start();
+        CopyOnWriteArrayList<String> events = new CopyOnWriteArrayList<>();
+        cli.mSession.addEventListener(events::add);
+
+        WPA_CLI_Session.Request request = cli.mSession.send("status", null);
+        assertEquals(Collections.singletonList("wpa_state=SCANNING"), request.await(5000));
+        assertEquals(Arrays.asList("CTRL-EVENT-SCAN-STARTED "), events);
+    }
+
+    @Test
+    public void unansweredCommandsTimeOut() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().start();
+        cli.setAnswering(false);
+
+        long start = System.currentTimeMillis();
+        assertNull(cli.mSession.send("status", null).await(100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertTrue(cli.mSession.isRunning());
+    }
+
+    @Test
+    public void endedSessionsReleaseWaitersAndRefuseCommands() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().start();
+        cli.setAnswering(false);
+
+        WPA_CLI_Session.Request request = cli.mSession.send("status", null);
+        cli.end();
+        long start = System.currentTimeMillis();
+        assertNull(request.await(10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        cli.awaitEnd();
+        assertFalse(cli.mSession.isRunning());
+        try {
+            cli.mSession.send("status", null);
+            fail("Commands should not be sent once the session has ended.");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pingIsReserved() throws Exception {
+        new FakeWpaCli().mSession.send("ping", null);
+    }
+
+    @Test
+    public void repliesAreHandedToTheListener() throws Exception {
+        FakeWpaCli cli = new FakeWpaCli().reply("status", "ssid=RIOT", "wpa_state=COMPLETED").start();
+        CopyOnWriteArrayList<List<String>> replies = new CopyOnWriteArrayList<>();
+
+        cli.mSession.send("status", replies::add).await(5000);
+        assertEquals(Collections.singletonList(Arrays.asList("ssid=RIOT", "wpa_state=COMPLETED")), replies);
+    }
+}